@@ -1,17 +1,23 @@
 package six.eared.macaque.agent;
 
+import six.eared.macaque.agent.compiler.java.CompilerWarmup;
+import six.eared.macaque.agent.enhance.CompatibilityModeByteCodeEnhancer;
 import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.hotswap.BytecodeStore;
+import six.eared.macaque.agent.hotswap.HotSwapScheduler;
 import six.eared.macaque.agent.jmx.JmxMBeanManager;
 import six.eared.macaque.agent.spi.LibrarySpiLoader;
+import six.eared.macaque.agent.transport.JmxTransportServer;
+import six.eared.macaque.agent.transport.NioTransportServer;
+import six.eared.macaque.agent.transport.TransportServer;
 import six.eared.macaque.common.util.FileUtil;
+import six.eared.macaque.mbean.transport.UnixDomainSockets;
 
-import javax.management.remote.JMXConnectorServer;
-import javax.management.remote.JMXConnectorServerFactory;
-import javax.management.remote.JMXServiceURL;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
-import java.rmi.registry.LocateRegistry;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -49,22 +55,50 @@ public class AgentBootstrap {
         try {
             boolean debug = Boolean.parseBoolean(properties.getProperty("debug", "false"));
             int jmxPort = Integer.parseInt(properties.getProperty("port", "3030"));
+            String transport = properties.getProperty("transport", "jmx");
+            boolean unixSocket = Boolean.parseBoolean(properties.getProperty("unixSocket", "false"));
+            long batchWindow = Long.parseLong(properties.getProperty("batchWindow",
+                    String.valueOf(HotSwapScheduler.DEFAULT_BATCH_WINDOW)));
+            int enhanceParallelism = Integer.parseInt(properties.getProperty("enhanceParallelism",
+                    String.valueOf(CompatibilityModeByteCodeEnhancer.DEFAULT_PARALLELISM)));
+            long bytecodeStoreMemory = Long.parseLong(properties.getProperty("bytecodeStoreMemory",
+                    String.valueOf(BytecodeStore.DEFAULT_MEMORY_LIMIT)));
+            boolean bytecodeStoreSpill = Boolean.parseBoolean(properties.getProperty("bytecodeStoreSpill", "false"));
+            boolean bytecodeStoreOnLoad = Boolean.parseBoolean(properties.getProperty("bytecodeStoreOnLoad", "false"));
+            boolean compilerWarmup = Boolean.parseBoolean(properties.getProperty("compilerWarmup", "false"));
+            long compilerWarmupBudget = Long.parseLong(properties.getProperty("compilerWarmupBudget",
+                    String.valueOf(CompilerWarmup.DEFAULT_CPU_BUDGET)));
 
             // init env
             Environment.initEnv(debug, inst);
+            HotSwapScheduler.getInstance().setBatchWindow(batchWindow);
+            CompatibilityModeByteCodeEnhancer.setParallelism(enhanceParallelism);
+            BytecodeStore.install(inst, bytecodeStoreOnLoad, bytecodeStoreMemory, bytecodeStoreSpill ? BytecodeStore.DEFAULT_SPILL_SIZE : 0);
 
             // init jmx, mbeans
-            JMX_MBEAN_MANAGER = initJmxService(jmxPort);
+            JMX_MBEAN_MANAGER = new JmxMBeanManager();
+            TransportServer transportServer = startTransportServer(transport, unixSocket, jmxPort);
+            registryTaskOnStop(transportServer::stop);
 
             // init Library
             LibrarySpiLoader.loadLibraries();
 
             JMX_MBEAN_MANAGER.registerAllMBean();
 
+            // 后台预热编译器
+            if (compilerWarmup) {
+                CompilerWarmup.start(compilerWarmupBudget);
+            }
+
             // 清理临时目录
             registryTaskOnStop(FileUtil::cleanTmpFile);
 
-            System.out.printf("attach success, jmx port=%d\n", jmxPort);
+            String socketPath = System.getProperty(UnixDomainSockets.SOCKET_PATH_PROPERTY);
+            if (socketPath != null) {
+                System.out.printf("attach success, %s socket=%s\n", transport, socketPath);
+            } else {
+                System.out.printf("attach success, %s port=%d\n", transport, jmxPort);
+            }
             return true;
         } catch (Exception e) {
             if (Environment.isDebug()) {
@@ -75,15 +109,37 @@ public class AgentBootstrap {
         return false;
     }
 
-    private static JmxMBeanManager initJmxService(int port) throws IOException {
-        JmxMBeanManager jmxMBeanManager = new JmxMBeanManager();
-        LocateRegistry.createRegistry(port);
-        JMXServiceURL url = new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://127.0.0.1:%d/macaque", port));
-        JMXConnectorServer jcs = JMXConnectorServerFactory.newJMXConnectorServer(url,
-                null, jmxMBeanManager.getMBeanServer());
-        jcs.start();
-
-        return jmxMBeanManager;
+    /**
+     * 客户端支持并且当前JDK支持时使用Unix domain socket, socket文件路径写入系统属性供客户端读取, 监听失败时退化为TCP
+     */
+    private static TransportServer startTransportServer(String transport, boolean unixSocket, int port) throws IOException {
+        if (!"nio".equalsIgnoreCase(transport)) {
+            TransportServer transportServer = new JmxTransportServer();
+            transportServer.start(JMX_MBEAN_MANAGER, port);
+            return transportServer;
+        }
+        if (unixSocket && UnixDomainSockets.isSupported()) {
+            // 每个进程独立的目录, 共享工作目录的多个进程互不影响
+            String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+            File socketFile = new File(new File(System.getProperty("java.io.tmpdir"), "macaque-" + pid), "macaque.sock");
+            if (socketFile.getAbsolutePath().length() > UnixDomainSockets.MAX_PATH_LENGTH) {
+                socketFile = new File(new File("/tmp", "macaque-" + pid), "macaque.sock");
+            }
+            try {
+                TransportServer transportServer = new NioTransportServer(socketFile);
+                transportServer.start(JMX_MBEAN_MANAGER, port);
+                System.setProperty(UnixDomainSockets.SOCKET_PATH_PROPERTY, socketFile.getAbsolutePath());
+                return transportServer;
+            } catch (IOException e) {
+                if (Environment.isDebug()) {
+                    System.out.println("unix domain socket listen error, fallback to tcp");
+                    e.printStackTrace();
+                }
+            }
+        }
+        TransportServer transportServer = new NioTransportServer();
+        transportServer.start(JMX_MBEAN_MANAGER, port);
+        return transportServer;
     }
 
     /**
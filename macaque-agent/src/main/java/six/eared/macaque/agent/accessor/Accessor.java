@@ -28,6 +28,12 @@ public class Accessor {
     ClazzDataDefinition definition;
     Accessor parent;
 
+    /**
+     * 定义之后的访问器
+     */
+    @Getter
+    Class<?> accessorClass;
+
     public String getClassName() {
         return definition.getClassName();
     }
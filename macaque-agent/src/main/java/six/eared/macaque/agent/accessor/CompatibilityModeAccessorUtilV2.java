@@ -4,135 +4,243 @@ import io.github.hhy50.linker.asm.AsmClassBuilder;
 import six.eared.macaque.agent.asm2.AsmField;
 import six.eared.macaque.agent.asm2.AsmMethod;
 import six.eared.macaque.agent.asm2.AsmUtil;
+import six.eared.macaque.agent.asm2.ClassFieldUniqueDesc;
+import six.eared.macaque.agent.asm2.ClassMethodUniqueDesc;
 import six.eared.macaque.agent.asm2.classes.ClazzDefinition;
 import six.eared.macaque.agent.enhance.AccessorClassNameGenerator;
+import six.eared.macaque.agent.enhance.CallSiteRegistry;
 import six.eared.macaque.agent.enhance.CompatibilityModeClassLoader;
+import six.eared.macaque.agent.enhance.StampedCache;
 import six.eared.macaque.agent.env.Environment;
 import six.eared.macaque.agent.exceptions.AccessorCreateException;
+import six.eared.macaque.common.util.InstrumentationUtil;
 import six.eared.macaque.common.util.StringUtil;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
+/**
+ * 访问器生成
+ * <p>
+ * 访问器只包含新方法中实际引用到的成员, 引用的成员从owner开始沿着父类链逐级查找, 找齐之后不再向上, 深度由引用的成员决定.
+ * owner不在父类链上的引用(其他类的成员)不参与查找, 查找到系统类为止.
+ * 之后的热加载引用了新的成员时, 生成包含全部成员的新版本访问器, 访问器类名带上版本号.
+ * 每个版本定义在单独的子类加载器中, 被新版本替换后可以卸载.
+ */
 public class CompatibilityModeAccessorUtilV2 {
-    private static final AtomicInteger COUNTER = new AtomicInteger(1);
 
-    private static final Map<String, Accessor> LOADED = new HashMap<>();
+    /**
+     * key: 外部类类名, value: 当前版本的访问器, 外部类的成员签名变化时失效
+     */
+    private static final StampedCache<String, AccessorVersion> LOADED = new StampedCache<>("AccessorCache");
 
     /**
-     * @param className          外部类类名
+     * 访问器的版本号只增不减, 失效重建后也不会和已经定义的访问器重名
+     */
+    private static final Map<String, Integer> VERSIONS = new ConcurrentHashMap<>();
+
+    /**
+     * @param clazzDefinition    外部类
      * @param classNameGenerator 类名生成器
-     * @param deepth             深度
+     * @param references         新方法中引用到的成员
      * @return
      */
-    public static Accessor createAccessor(String className, AccessorClassNameGenerator classNameGenerator, int deepth) {
-        if (LOADED.containsKey(className)) {
-            return LOADED.get(className);
+    public static Accessor createAccessor(ClazzDefinition clazzDefinition, AccessorClassNameGenerator classNameGenerator, MemberReferences references) {
+        long stamp = clazzDefinition.getMemberSignature();
+        AccessorVersion loaded = LOADED.get(clazzDefinition.getClassName(), stamp);
+        if (loaded != null && loaded.members.containsAll(references)) {
+            return loaded.accessor;
         }
-        String accessorName = classNameGenerator.generate(className);
-        try {
-            ClazzDefinition clazzDefinition = AsmUtil.readOriginClass(className);
-            String superClassName = clazzDefinition.getSuperClassName();
-            Accessor superAccessor = null;
-            if (deepth > 0) {
-                if (StringUtil.isNotEmpty(superClassName)
-                        && !isSystemClass(superClassName)) {
-                    superAccessor = createAccessor(superClassName, classNameGenerator, --deepth);
-                }
-            }
+        // 并行增强时需要保证同一个版本的访问器只定义一次
+        synchronized (LOADED) {
+            return doCreateAccessor(clazzDefinition, stamp, classNameGenerator, references);
+        }
+    }
+
+    public static String getStats() {
+        return LOADED.getStats();
+    }
 
-            AccessorClassBuilder accessorClassBuilder = generateAccessorClass(clazzDefinition.getClassName(), accessorName, superAccessor);
-            collectAccessibleMethods(clazzDefinition, accessorClassBuilder, superAccessor);
-            collectAccessibleFields(clazzDefinition, accessorClassBuilder, superAccessor);
-            collectSuperMember(clazzDefinition, accessorClassBuilder, superAccessor);
+    private static Accessor doCreateAccessor(ClazzDefinition clazzDefinition, long stamp,
+                                             AccessorClassNameGenerator classNameGenerator, MemberReferences references) {
+        String className = clazzDefinition.getClassName();
+        AccessorVersion loaded = LOADED.get(className, stamp);
+        if (loaded != null && loaded.members.containsAll(references)) {
+            return loaded.accessor;
+        }
+        MemberReferences members = new MemberReferences();
+        if (loaded != null) {
+            members.addAll(loaded.members);
+        }
+        members.addAll(references);
+        int version = VERSIONS.merge(className, 1, Integer::sum);
+        String accessorName = classNameGenerator.generate(className, version);
+        try {
+            AccessorClassBuilder accessorClassBuilder = generateAccessorClass(clazzDefinition.getClassName(), accessorName);
+            int depth = collectMembers(clazzDefinition, accessorClassBuilder, members);
 
             Accessor accessor = ((AccessorClassBuilder) accessorClassBuilder.end()).toAccessor();
             AsmClassBuilder linker = accessorClassBuilder.getLinkerClassBuilder().end();
-            CompatibilityModeClassLoader.loadClass(linker.getClassName(), linker.toBytecode());
-            CompatibilityModeClassLoader.loadClass(accessorClassBuilder.getClassName(), accessorClassBuilder.toBytecode());
-            LOADED.put(className, accessor);
+            accessor.accessorClass = CompatibilityModeClassLoader.defineAccessor(linker.getClassName(), linker.toBytecode(),
+                    accessorClassBuilder.getClassName(), accessorClassBuilder.toBytecode());
+            registerAccessor(className, accessor.accessorClass);
+            LOADED.put(className, stamp, new AccessorVersion(accessor, members));
+            if (Environment.isDebug()) {
+                System.out.printf("[Accessor] create accessor: %s, depth: %d, methods: %d, fields: %d%n",
+                        accessorName, depth, members.getMethods().size(), members.getFields().size());
+            }
             return accessor;
         } catch (Exception e) {
             throw new AccessorCreateException(e);
         }
     }
 
+    /**
+     * 登记到系统类加载器中的 {@link CallSiteRegistry}, holder类通过它链接访问器的成员
+     */
+    private static void registerAccessor(String className, Class<?> accessorClass) throws ReflectiveOperationException {
+        CompatibilityModeClassLoader.getRuntimeClass(CallSiteRegistry.class)
+                .getMethod("registerAccessor", String.class, Class.class)
+                .invoke(null, className, accessorClass);
+    }
 
     /**
      * @param className
      * @param accessorName
      * @return
      */
-    private static AccessorClassBuilder generateAccessorClass(String className, String accessorName, Accessor parentAccessor) {
-        boolean containSupper = parentAccessor != null;
-        AccessorClassBuilder accessorBuilder = new AccessorClassBuilder(accessorName, containSupper?parentAccessor.getClassName():null, null);
+    private static AccessorClassBuilder generateAccessorClass(String className, String accessorName) {
+        AccessorClassBuilder accessorBuilder = new AccessorClassBuilder(accessorName, null, null);
         accessorBuilder.setThis$0(className)
-                .setParent(parentAccessor);
+                .setParent(null);
         return accessorBuilder;
     }
 
-    private static void collectAccessibleMethods(ClazzDefinition definition, AccessorClassBuilder accessorBuilder, Accessor superAccessor) {
-        try {
-            // 收集自身全部的方法
-            for (AsmMethod method : definition.getAsmMethods()) {
-                if (method.isConstructor() || method.isClinit()) {
-                    continue;
-                }
-                accessorBuilder.addMethod(definition.getClassName(), method);
+    /**
+     * 从自身开始沿着父类链解析被引用的成员. 和JVM解析成员一样, 每个引用从它的owner开始向上找到第一个声明它的类,
+     * 所以通过子类引用的继承成员(例如 this.inherited() 编译成owner为子类的指令)也能找到.
+     * 所有引用都解析完、到达顶层或者到达系统类时停止
+     *
+     * @return 向上查找的深度
+     */
+    private static int collectMembers(ClazzDefinition definition, AccessorClassBuilder accessorBuilder, MemberReferences members)
+            throws IOException, ClassNotFoundException {
+        Set<String> owners = getOwners(definition);
+        List<ClassMethodUniqueDesc> methods = new ArrayList<>();
+        for (ClassMethodUniqueDesc method : members.getMethods()) {
+            if (owners == null ? !isSystemClass(method.getClassName()) : owners.contains(method.getClassName())) {
+                methods.add(method);
             }
-        } catch (Exception e) {
-            throw new AccessorCreateException(e);
         }
-    }
-
-    private static void collectAccessibleFields(ClazzDefinition definition, AccessorClassBuilder accessorBuilder, Accessor superAccessor) {
-        try {
-            // my all field
-            for (AsmField asmField : definition.getAsmFields()) {
-                accessorBuilder.addField(definition.getClassName(), asmField);
+        List<ClassFieldUniqueDesc> fields = new ArrayList<>();
+        for (ClassFieldUniqueDesc field : members.getFields()) {
+            if (owners == null ? !isSystemClass(field.getClassName()) : owners.contains(field.getClassName())) {
+                fields.add(field);
             }
-        } catch (Exception e) {
-            throw new AccessorCreateException(e);
         }
-    }
-
-    private static void collectSuperMember(ClazzDefinition definition, AccessorClassBuilder accessorBuilder, Accessor superAccessor) throws IOException, ClassNotFoundException {
-        // 收集父类中所有可以访问到的方法
-        ClazzDefinition superClassDefinition = AsmUtil.readOriginClass(definition.getSuperClassName());
-        doCollectSuperMember(accessorBuilder, superClassDefinition);
-
-        if (superAccessor == null) {
-            String superClass = superClassDefinition.getSuperClassName();
-            while (superClass != null) {
-                superClassDefinition = AsmUtil.readOriginClass(superClass);
-                doCollectSuperMember(accessorBuilder, superClassDefinition);
-                superClass = superClassDefinition.getSuperClassName();
+        // 已经经过的类, 引用的owner在其中时才在当前类中查找
+        Set<String> visited = new HashSet<>();
+        ClazzDefinition current = definition;
+        int depth = 0;
+        while (true) {
+            visited.add(current.getClassName());
+            doCollectMembers(accessorBuilder, current, methods, fields, visited, current == definition);
+            String superClass = current.getSuperClassName();
+            if ((methods.isEmpty() && fields.isEmpty()) || StringUtil.isEmpty(superClass) || isSystemClass(superClass)) {
+                break;
             }
+            // 父类中可以访问到的成员
+            current = AsmUtil.readOriginClass(superClass);
+            depth++;
         }
-        // default method in interface class
-        if (Environment.getJdkVersion() > 7) {
+        return depth;
+    }
 
+    /**
+     * 通过已加载的类取得自身和父类链上的类名, 不读取父类的字节码, 到系统类为止
+     *
+     * @return 类还没有加载时返回null
+     */
+    private static Set<String> getOwners(ClazzDefinition definition) {
+        if (Environment.getInst() == null) {
+            return null;
         }
+        Set<Class<?>> loaded = InstrumentationUtil.findLoadedClass(Environment.getInst(), definition.getClassName());
+        if (loaded == null || loaded.isEmpty()) {
+            return null;
+        }
+        Set<String> owners = new HashSet<>();
+        owners.add(definition.getClassName());
+        for (Class<?> clazz : loaded) {
+            for (Class<?> superClass = clazz.getSuperclass(); superClass != null && !isSystemClass(superClass.getName());
+                 superClass = superClass.getSuperclass()) {
+                owners.add(superClass.getName());
+            }
+        }
+        return owners;
     }
 
-    private static void doCollectSuperMember(AccessorClassBuilder accessorBuilder, ClazzDefinition superClassDefinition) {
-        for (AsmMethod superMethod : superClassDefinition.getAsmMethods()) {
-            if (superMethod.isConstructor() || superMethod.isClinit() || superMethod.isPrivate()) {
+    /**
+     * 在当前类中解析引用, 找到声明的引用不再继续向上查找
+     */
+    private static void doCollectMembers(AccessorClassBuilder accessorBuilder, ClazzDefinition definition,
+                                         List<ClassMethodUniqueDesc> methods, List<ClassFieldUniqueDesc> fields,
+                                         Set<String> visited, boolean self) {
+        Iterator<ClassMethodUniqueDesc> methodIterator = methods.iterator();
+        while (methodIterator.hasNext()) {
+            ClassMethodUniqueDesc reference = methodIterator.next();
+            if (!visited.contains(reference.getClassName())) {
                 continue;
             }
-            accessorBuilder.addMethod(superClassDefinition.getClassName(), superMethod);
+            AsmMethod method = definition.getMethod(reference.getName(), reference.getDesc());
+            if (method == null) {
+                continue;
+            }
+            methodIterator.remove();
+            if (method.isConstructor() || method.isClinit() || (!self && method.isPrivate())) {
+                continue;
+            }
+            accessorBuilder.addMethod(reference.getClassName(), method);
         }
-        for (AsmField superField : superClassDefinition.getAsmFields()) {
-            if (superField.isPrivate()) {
+        Iterator<ClassFieldUniqueDesc> fieldIterator = fields.iterator();
+        while (fieldIterator.hasNext()) {
+            ClassFieldUniqueDesc reference = fieldIterator.next();
+            if (!visited.contains(reference.getClassName())) {
+                continue;
+            }
+            AsmField field = definition.getField(reference.getName(), reference.getType());
+            if (field == null) {
+                continue;
+            }
+            fieldIterator.remove();
+            if (!self && field.isPrivate()) {
                 continue;
             }
-            accessorBuilder.addField(superClassDefinition.getClassName(), superField);
+            accessorBuilder.addField(reference.getClassName(), field);
         }
     }
 
+    static class AccessorVersion {
+
+        private final Accessor accessor;
+
+        /**
+         * 访问器中包含的成员
+         */
+        private final MemberReferences members;
+
+        AccessorVersion(Accessor accessor, MemberReferences members) {
+            this.accessor = accessor;
+            this.members = members;
+        }
+    }
 
     public static boolean isSystemClass(String className) {
         if (className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("sun.")) {
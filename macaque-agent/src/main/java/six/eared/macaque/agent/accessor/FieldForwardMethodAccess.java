@@ -5,7 +5,8 @@ import lombok.Data;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.InsnList;
-import org.objectweb.asm.tree.MethodInsnNode;
+import six.eared.macaque.agent.asm2.AsmUtil;
+import six.eared.macaque.common.util.ClassUtil;
 
 
 @Data
@@ -25,11 +26,11 @@ public class FieldForwardMethodAccess implements FieldAccessRule {
 
     @Override
     public void access(InsnList insnList, int opcode, String owner, String name, String type) {
-        int no = isStatic?Opcodes.INVOKESTATIC:Opcodes.INVOKEVIRTUAL;
+        String accessor = ClassUtil.classpath2name(targetOwner);
         if (opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC) {
-            insnList.add(new MethodInsnNode(no, targetOwner, setter, "("+Type.getType(type).getDescriptor()+")V", false));
+            AsmUtil.invokeAccessor(insnList, isStatic, accessor, setter, "("+Type.getType(type).getDescriptor()+")V");
         } else {
-            insnList.add(new MethodInsnNode(no, targetOwner, getter, "()"+Type.getType(type).getDescriptor(), false));
+            AsmUtil.invokeAccessor(insnList, isStatic, accessor, getter, "()"+Type.getType(type).getDescriptor());
         }
     }
 }
@@ -0,0 +1,65 @@
+package six.eared.macaque.agent.accessor;
+
+import lombok.Getter;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodInsnNode;
+import six.eared.macaque.agent.asm2.ClassFieldUniqueDesc;
+import six.eared.macaque.agent.asm2.ClassMethodUniqueDesc;
+import six.eared.macaque.common.util.ClassUtil;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 新方法中引用到的成员, 访问器只为这些成员生成访问方法
+ */
+@Getter
+public class MemberReferences {
+
+    private final Set<ClassMethodUniqueDesc> methods = new HashSet<>();
+
+    private final Set<ClassFieldUniqueDesc> fields = new HashSet<>();
+
+    /**
+     * 收集字段和方法指令引用的成员, 和 {@link six.eared.macaque.agent.enhance.BindMethodWriter} 一样跳过生成的类
+     *
+     * @param instructions
+     */
+    public void collect(InsnList instructions) {
+        if (instructions == null) {
+            return;
+        }
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof MethodInsnNode) {
+                MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                if (!methodInsn.owner.contains("macaque$")) {
+                    methods.add(ClassMethodUniqueDesc.of(ClassUtil.classpath2name(methodInsn.owner), methodInsn.name, methodInsn.desc));
+                }
+            } else if (insn instanceof FieldInsnNode) {
+                FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                if (!fieldInsn.owner.contains("$macaque$")) {
+                    fields.add(ClassFieldUniqueDesc.of(ClassUtil.classpath2name(fieldInsn.owner), fieldInsn.name, fieldInsn.desc));
+                }
+            }
+        }
+    }
+
+    public void addAll(MemberReferences references) {
+        this.methods.addAll(references.methods);
+        this.fields.addAll(references.fields);
+    }
+
+    public boolean containsAll(MemberReferences references) {
+        return this.methods.containsAll(references.methods) && this.fields.containsAll(references.fields);
+    }
+
+    public boolean containsMethod(String className, String name, String desc) {
+        return methods.contains(ClassMethodUniqueDesc.of(className, name, desc));
+    }
+
+    public boolean containsField(String className, String name, String desc) {
+        return fields.contains(ClassFieldUniqueDesc.of(className, name, desc));
+    }
+}
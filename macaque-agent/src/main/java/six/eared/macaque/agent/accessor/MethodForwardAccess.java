@@ -2,9 +2,9 @@ package six.eared.macaque.agent.accessor;
 
 
 import lombok.Data;
-import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.InsnList;
-import org.objectweb.asm.tree.MethodInsnNode;
+import six.eared.macaque.agent.asm2.AsmUtil;
+import six.eared.macaque.common.util.ClassUtil;
 
 @Data
 public class MethodForwardAccess implements MethodAccessRule {
@@ -22,7 +22,6 @@ public class MethodForwardAccess implements MethodAccessRule {
 
     @Override
     public void access(InsnList insnList, int opcode, String owner, String name, String desc, boolean isInterface) {
-        opcode = isStatic?Opcodes.INVOKESTATIC:Opcodes.INVOKEVIRTUAL;
-        insnList.add(new MethodInsnNode(opcode, targetOwner, targetMethodName, targetDesc, false));
+        AsmUtil.invokeAccessor(insnList, isStatic, ClassUtil.classpath2name(targetOwner), targetMethodName, targetDesc);
     }
 }
@@ -1,14 +1,18 @@
 package six.eared.macaque.agent.accessor;
 
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 import six.eared.macaque.agent.asm2.AsmUtil;
+import six.eared.macaque.agent.enhance.CallSiteRegistry;
 import six.eared.macaque.agent.enhance.MethodBindInfo;
-import six.eared.macaque.common.util.ClassUtil;
 
 public class NewMethodAccessRule implements MethodAccessRule {
 
+    private static final Handle BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(CallSiteRegistry.class),
+            "bootstrap", CallSiteRegistry.BOOTSTRAP_DESC, false);
+
     private final MethodBindInfo bindInfo;
 
     /**
@@ -16,15 +20,23 @@ public class NewMethodAccessRule implements MethodAccessRule {
      */
     private final boolean bindAccess;
 
-    public NewMethodAccessRule(MethodBindInfo bindInfo, boolean bindAccess) {
+    /**
+     * 调用方是否可以使用invokedynamic(class文件版本不低于51)
+     */
+    private final boolean invokeDynamic;
+
+    public NewMethodAccessRule(MethodBindInfo bindInfo, boolean bindAccess, boolean invokeDynamic) {
         this.bindInfo = bindInfo;
         this.bindAccess = bindAccess;
+        this.invokeDynamic = invokeDynamic;
     }
 
+    /**
+     * 调用点的第一个参数在holder类中是访问器, 在原来的类中是被调用的对象, 由调用点转换成访问器, 所以原来的类不需要引用访问器
+     */
     @Override
     public void access(InsnList insnList, int opcode, String owner, String name, String desc, boolean isInterface) {
-        String accessorClassPath = ClassUtil.className2path(bindInfo.getAccessorClass());
-        if (opcode != Opcodes.INVOKESTATIC) {
+        if (opcode != Opcodes.INVOKESTATIC && bindAccess) {
             /**
              * 需要访问器提前入栈
              * 先找到压入参数之前的第一条指令
@@ -32,14 +44,102 @@ public class NewMethodAccessRule implements MethodAccessRule {
             AbstractInsnNode prev = AsmUtil.getPrevStackInsn(Type.getArgumentTypes(desc).length, AsmUtil.getPrevValid(insnList.getLast()));
             InsnList inst = new InsnList();
             inst.add(new InsnNode(Opcodes.POP));  // 需要先将this弹出, 然后把对this的访问替换成accessor
-            if (bindAccess) {
-                inst.add(new VarInsnNode(Opcodes.ALOAD, 0));
+            inst.add(new VarInsnNode(Opcodes.ALOAD, 0));
+            insnList.insert(prev, inst);
+        }
+        int kind = opcode != Opcodes.INVOKESTATIC && !bindAccess ? CallSiteRegistry.RECEIVER : CallSiteRegistry.ACCESSOR;
+        if (!invokeDynamic) {
+            invokeStatic(insnList, kind);
+            return;
+        }
+        // 通过invokedynamic链接, 新方法再次修改时只需要切换调用点的目标
+        insnList.add(new InvokeDynamicInsnNode(name, bindInfo.getBindMethodDesc(), BOOTSTRAP, bindInfo.getCallSiteKey(), kind));
+    }
+
+    /**
+     * 参数装箱成数组, 通过 {@link CallSiteRegistry#invoke} 调用, 只使用栈上的操作, 不需要额外的局部变量和栈帧
+     */
+    private void invokeStatic(InsnList insnList, int kind) {
+        Type methodType = Type.getMethodType(bindInfo.getBindMethodDesc());
+        Type[] argTypes = methodType.getArgumentTypes();
+
+        // ... a0 .. an -> ... a0 .. an arr
+        insnList.add(new LdcInsnNode(argTypes.length));
+        insnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"));
+        for (int i = argTypes.length - 1; i >= 0; i--) {
+            // ... ai arr -> ... arr ai
+            if (argTypes[i].getSize() == 2) {
+                insnList.add(new InsnNode(Opcodes.DUP_X2));
+                insnList.add(new InsnNode(Opcodes.POP));
             } else {
-                AsmUtil.accessorStore(inst, accessorClassPath); // 访问器入栈
+                insnList.add(new InsnNode(Opcodes.SWAP));
             }
-            insnList.insert(prev, inst);
+            box(insnList, argTypes[i]);
+            // ... arr ai -> ... arr arr i ai -> ... arr
+            insnList.add(new InsnNode(Opcodes.SWAP));
+            insnList.add(new InsnNode(Opcodes.DUP_X1));
+            insnList.add(new InsnNode(Opcodes.SWAP));
+            insnList.add(new LdcInsnNode(i));
+            insnList.add(new InsnNode(Opcodes.SWAP));
+            insnList.add(new InsnNode(Opcodes.AASTORE));
+        }
+
+        // ... arr -> ... key kind arr
+        insnList.add(new LdcInsnNode(bindInfo.getCallSiteKey()));
+        insnList.add(new InsnNode(Opcodes.SWAP));
+        insnList.add(new LdcInsnNode(kind));
+        insnList.add(new InsnNode(Opcodes.SWAP));
+        insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC, Type.getInternalName(CallSiteRegistry.class),
+                "invoke", CallSiteRegistry.INVOKE_DESC, false));
+        unbox(insnList, methodType.getReturnType());
+    }
+
+    private static void box(InsnList insnList, Type type) {
+        String boxed = boxedType(type);
+        if (boxed != null) {
+            insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC, boxed, "valueOf",
+                    Type.getMethodDescriptor(Type.getObjectType(boxed), type), false));
+        }
+    }
+
+    private static void unbox(InsnList insnList, Type type) {
+        if (type.getSort() == Type.VOID) {
+            insnList.add(new InsnNode(Opcodes.POP));
+            return;
+        }
+        String boxed = boxedType(type);
+        if (boxed == null) {
+            insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, type.getInternalName()));
+            return;
+        }
+        insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, boxed));
+        insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, boxed, type.getClassName() + "Value",
+                Type.getMethodDescriptor(type), false));
+    }
+
+    /**
+     * @return 基本类型的包装类, 引用类型返回null
+     */
+    private static String boxedType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return "java/lang/Boolean";
+            case Type.CHAR:
+                return "java/lang/Character";
+            case Type.BYTE:
+                return "java/lang/Byte";
+            case Type.SHORT:
+                return "java/lang/Short";
+            case Type.INT:
+                return "java/lang/Integer";
+            case Type.FLOAT:
+                return "java/lang/Float";
+            case Type.LONG:
+                return "java/lang/Long";
+            case Type.DOUBLE:
+                return "java/lang/Double";
+            default:
+                return null;
         }
-        insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC, ClassUtil.className2path(bindInfo.getBindClass()), bindInfo.getBindMethod(),
-                bindInfo.getBindMethodDesc(), isInterface));
     }
 }
@@ -0,0 +1,231 @@
+package six.eared.macaque.agent.accessor.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * 访问器缓存
+ * <p>
+ * 新方法的调用点通过 {@link #get(Object, Class)} 获取访问器, 同一个实例复用同一个访问器, 命中时不分配对象.
+ * 按对象身份(identityHashCode + ==)查找, 不依赖业务类的 equals/hashCode.
+ * key是弱引用. 访问器通过linker强引用了目标对象, 如果一直强引用访问器, key永远不会被回收,
+ * 所以访问器同时保存强引用和弱引用: 命中时保持强引用, 每次GC之后第一次查找(命中或者未命中)时把所有的强引用降级,
+ * 之后仍在使用的访问器在下一次命中时重新升级. 一直在使用的对象不会因为GC重新创建访问器,
+ * 不再使用的对象在降级后的下一次GC被回收, 不依赖之后是否还有未命中.
+ * <p>
+ * 这个类会被定义到系统类加载器中供新方法的调用点使用, 只能依赖JDK中的类.
+ */
+public final class AccessorCache {
+
+    private static final Caches CACHES = new Caches();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Constructor<?> constructor;
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    private volatile Entry[] table = new Entry[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * 被回收说明上一次降级之后发生过GC
+     */
+    private volatile WeakReference<Object> gcSentinel = new WeakReference<>(new Object());
+
+    private AccessorCache(Class<?> accessorClass) {
+        try {
+            this.constructor = accessorClass.getConstructor(Object.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param target        被访问的对象
+     * @param accessorClass 访问器类
+     * @return 访问器实例
+     */
+    public static Object get(Object target, Class<?> accessorClass) {
+        return CACHES.get(accessorClass).lookup(target);
+    }
+
+    private Object lookup(Object target) {
+        if (gcSentinel.get() == null) {
+            releaseAfterGc();
+        }
+        int hash = System.identityHashCode(target);
+        Entry[] tab = table;
+        for (Entry e = tab[hash & (tab.length - 1)]; e != null; e = e.next) {
+            if (e.get() == target) {
+                Object accessor = e.accessor;
+                if (accessor != null) {
+                    return accessor;
+                }
+                accessor = e.weakAccessor.get();
+                if (accessor != null) {
+                    e.accessor = accessor;
+                    return accessor;
+                }
+                break;
+            }
+        }
+        return create(target, hash);
+    }
+
+    /**
+     * 未命中或者访问器已经被回收, 加锁后重新查找, 不存在时创建
+     */
+    private synchronized Object create(Object target, int hash) {
+        expunge();
+        Entry[] tab = table;
+        int index = hash & (tab.length - 1);
+        for (Entry e = tab[index]; e != null; e = e.next) {
+            if (e.get() == target) {
+                Object accessor = e.weakAccessor.get();
+                if (accessor != null) {
+                    e.accessor = accessor;
+                    return accessor;
+                }
+                unlink(tab, index, e);
+                break;
+            }
+        }
+
+        Object accessor = newAccessor(target);
+        if (size + 1 > tab.length * 3 / 4) {
+            tab = resize(tab);
+            index = hash & (tab.length - 1);
+        }
+        // 先构造好再发布到桶的头部, 并发读到的链表总是完整的
+        tab[index] = new Entry(target, hash, accessor, queue, tab[index]);
+        size++;
+        table = tab;
+        return accessor;
+    }
+
+    private Object newAccessor(Object target) {
+        try {
+            return constructor.newInstance(target);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 清理已经被回收的对象
+     */
+    private void expunge() {
+        Reference<?> ref;
+        Entry[] tab = table;
+        while ((ref = queue.poll()) != null) {
+            Entry stale = (Entry) ref;
+            int index = stale.hash & (tab.length - 1);
+            for (Entry e = tab[index]; e != null; e = e.next) {
+                if (e == stale) {
+                    unlink(tab, index, e);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 上一次降级之后发生过GC, 清理已经被回收的对象并降级所有访问器的强引用
+     */
+    private synchronized void releaseAfterGc() {
+        if (gcSentinel.get() == null) {
+            expunge();
+            release(table);
+            gcSentinel = new WeakReference<>(new Object());
+        }
+    }
+
+    /**
+     * 降级所有访问器的强引用, 仍在使用的访问器在下一次命中时重新升级
+     */
+    private void release(Entry[] tab) {
+        for (Entry head : tab) {
+            for (Entry e = head; e != null; e = e.next) {
+                e.accessor = null;
+            }
+        }
+    }
+
+    private void unlink(Entry[] tab, int index, Entry entry) {
+        if (tab[index] == entry) {
+            tab[index] = entry.next;
+        } else {
+            for (Entry prev = tab[index]; prev != null; prev = prev.next) {
+                if (prev.next == entry) {
+                    prev.next = entry.next;
+                    break;
+                }
+            }
+        }
+        size--;
+    }
+
+    /**
+     * 扩容时构造新的表, 旧表保持不变, 并发读取旧表最多是未命中后进入 {@link #create(Object, int)}
+     */
+    private Entry[] resize(Entry[] tab) {
+        Entry[] newTab = new Entry[tab.length << 1];
+        int count = 0;
+        for (Entry head : tab) {
+            for (Entry e = head; e != null; e = e.next) {
+                Object key = e.get();
+                Object accessor = e.weakAccessor.get();
+                if (key == null || accessor == null) {
+                    continue;
+                }
+                int index = e.hash & (newTab.length - 1);
+                Entry entry = new Entry(key, e.hash, accessor, queue, newTab[index]);
+                entry.accessor = e.accessor;
+                newTab[index] = entry;
+                count++;
+            }
+        }
+        size = count;
+        return newTab;
+    }
+
+    static final class Entry extends WeakReference<Object> {
+
+        final int hash;
+
+        final WeakReference<Object> weakAccessor;
+
+        /**
+         * 使用中的访问器的强引用, 降级后为null
+         */
+        volatile Object accessor;
+
+        volatile Entry next;
+
+        Entry(Object key, int hash, Object accessor, ReferenceQueue<Object> queue, Entry next) {
+            super(key, queue);
+            this.hash = hash;
+            this.weakAccessor = new WeakReference<>(accessor);
+            this.accessor = accessor;
+            this.next = next;
+        }
+    }
+
+    static final class Caches extends ClassValue<AccessorCache> {
+
+        @Override
+        protected AccessorCache computeValue(Class<?> type) {
+            return new AccessorCache(type);
+        }
+    }
+}
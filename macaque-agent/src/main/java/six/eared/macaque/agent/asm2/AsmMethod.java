@@ -23,6 +23,16 @@ public class AsmMethod {
 
     private String[] exceptions;
 
+    /**
+     * 归一化指令流的摘要, 只有通过 {@link six.eared.macaque.agent.asm2.classes.ClazzDigestVisitor} 读取时才有值
+     */
+    private String codeDigest;
+
+    /**
+     * 行号表和局部变量表的摘要
+     */
+    private String debugDigest;
+
     public boolean isPrivate() {
         return (this.modifier & Opcodes.ACC_PRIVATE) > 0;
     }
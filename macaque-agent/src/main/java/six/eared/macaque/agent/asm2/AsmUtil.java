@@ -3,15 +3,19 @@ package six.eared.macaque.agent.asm2;
 import io.github.hhy50.linker.asm.AsmClassBuilder;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 import six.eared.macaque.agent.asm2.classes.ClazzDefinition;
 import six.eared.macaque.agent.asm2.classes.ClazzDefinitionVisitor;
 import six.eared.macaque.agent.asm2.classes.ClazzDefinitionVisitorFactory;
+import six.eared.macaque.agent.asm2.classes.ClazzDigestVisitor;
 import six.eared.macaque.agent.asm2.classes.MultiClassReader;
+import six.eared.macaque.agent.enhance.CallSiteRegistry;
 import six.eared.macaque.agent.enhance.ClazzDataDefinition;
 import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.hotswap.BytecodeStore;
 import six.eared.macaque.common.util.ClassUtil;
 import six.eared.macaque.common.util.CollectionUtil;
 import six.eared.macaque.common.util.FileUtil;
@@ -25,11 +29,8 @@ import java.util.Set;
 
 public class AsmUtil extends io.github.hhy50.linker.asm.AsmUtil {
 
-    /**
-     * Thread Unsafe
-     */
-    public static final ClazzDefinitionVisitor REUSE_CLASS_VISITOR = new ClazzDefinitionVisitor();
-
+    private static final Handle ACCESSOR_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(CallSiteRegistry.class),
+            "bootstrapAccessor", CallSiteRegistry.BOOTSTRAP_DESC, false);
 
     /**
      * 对于没有class文件的class会抛出ClassNotFoundException
@@ -39,6 +40,14 @@ public class AsmUtil extends io.github.hhy50.linker.asm.AsmUtil {
      * @throws ClassNotFoundException
      */
     public static ClazzDefinition readOriginClass(String className) throws ClassNotFoundException, IOException {
+        // 优先使用已安装的字节码, 没有记录时retransform一次读取, 自定义类加载器(比如springboot)加载的类也可以读取
+        BytecodeStore bytecodeStore = BytecodeStore.getInstance();
+        if (bytecodeStore != null) {
+            byte[] installed = bytecodeStore.getInstalled(className);
+            if (installed != null) {
+                return AsmUtil.readClass(installed);
+            }
+        }
         try (InputStream is = ClassLoader.getSystemResourceAsStream(ClassUtil.className2path(className)+".class");) {
             if (is != null) {
                 return AsmUtil.readClass(FileUtil.is2bytes(is));
@@ -58,14 +67,27 @@ public class AsmUtil extends io.github.hhy50.linker.asm.AsmUtil {
         throw new ClassNotFoundException();
     }
 
-    public synchronized static ClazzDataDefinition readClass(byte[] byteCode) {
+    /**
+     * 每次调用使用独立的visitor, 可以并发调用
+     */
+    public static ClazzDataDefinition readClass(byte[] byteCode) {
+        ClazzDefinitionVisitor visitor = new ClazzDefinitionVisitor();
         ClassReader classReader = new ClassReader(byteCode);
-        classReader.accept(REUSE_CLASS_VISITOR, 0);
-        ClazzDataDefinition definition = REUSE_CLASS_VISITOR.getDefinition();
+        classReader.accept(visitor, 0);
+        ClazzDataDefinition definition = visitor.getDefinition();
         definition.setBytecode(byteCode);
         return definition;
     }
 
+    /**
+     * 读取类结构并计算每个方法的摘要, 用于结构化对比
+     */
+    public static ClazzDataDefinition readClassDigest(byte[] byteCode) {
+        ClazzDigestVisitor visitor = new ClazzDigestVisitor();
+        new ClassReader(byteCode).accept(visitor, ClassReader.SKIP_FRAMES);
+        return visitor.getDefinition();
+    }
+
     public static void visitClass(byte[] byteCode, ClassVisitor classVisitor) {
         ClassReader classReader = new ClassReader(byteCode);
         classReader.accept(classVisitor, 0);
@@ -85,13 +107,15 @@ public class AsmUtil extends io.github.hhy50.linker.asm.AsmUtil {
     }
 
     /**
-     * 访问器入栈
+     * 调用访问器的方法, 通过 {@link CallSiteRegistry#bootstrapAccessor} 链接, 不按类名引用访问器, 实例方法的访问器类型擦除成Object
+     *
+     * @param accessor 访问器类名
+     * @param name     方法名
+     * @param desc     访问器中方法的描述
      */
-    public static void accessorStore(InsnList instList, String accessorDesc) {
-        instList.add(new TypeInsnNode(Opcodes.NEW, accessorDesc));
-        instList.add(new InsnNode(Opcodes.DUP));
-        instList.add(new VarInsnNode(Opcodes.ALOAD, 0));
-        instList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, accessorDesc, "<init>", "(Ljava/lang/Object;)V", false));
+    public static void invokeAccessor(InsnList instList, boolean isStatic, String accessor, String name, String desc) {
+        String callSiteDesc = isStatic ? desc : addArgsDesc(desc, Object.class.getName(), true);
+        instList.add(new InvokeDynamicInsnNode(name, callSiteDesc, ACCESSOR_BOOTSTRAP, accessor, isStatic ? 1 : 0));
     }
 
     /**
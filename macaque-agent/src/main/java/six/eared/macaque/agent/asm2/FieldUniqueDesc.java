@@ -0,0 +1,29 @@
+package six.eared.macaque.agent.asm2;
+
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+@Data
+@EqualsAndHashCode
+public class FieldUniqueDesc {
+
+    /**
+     * 字段名
+     */
+    private String name;
+
+    /**
+     * 字段类型
+     */
+    private String desc;
+
+    public FieldUniqueDesc(String name, String desc) {
+        this.name = name;
+        this.desc = desc;
+    }
+
+    public static FieldUniqueDesc of(String name, String desc) {
+        return new FieldUniqueDesc(name, desc);
+    }
+}
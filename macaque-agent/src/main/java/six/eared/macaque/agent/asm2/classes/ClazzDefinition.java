@@ -1,71 +1,143 @@
 package six.eared.macaque.agent.asm2.classes;
 
-import lombok.Data;
+import lombok.AccessLevel;
+import lombok.Getter;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import six.eared.macaque.agent.asm2.AsmField;
 import six.eared.macaque.agent.asm2.AsmMethod;
+import six.eared.macaque.agent.asm2.FieldUniqueDesc;
+import six.eared.macaque.agent.asm2.MethodUniqueDesc;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 import static org.objectweb.asm.Opcodes.*;
 
-@Data
-public abstract class ClazzDefinition implements Cloneable {
-    protected int classVersion;
+/**
+ * 类结构的快照
+ * <p>
+ * 类的基本信息在构造时确定, 成员和摘要只在解析时由同一个包中的visitor填充, 解析完成之后不再修改, 可以在线程之间共享.
+ * 对外只暴露只读视图, 需要不同的结构时重新解析生成新的定义
+ */
+@Getter
+public abstract class ClazzDefinition {
+    private final int classVersion;
 
-    protected int modifiers;
+    private final int modifiers;
 
-    protected String className;
+    private final String className;
 
-    protected String superClassName;
+    private final String superClassName;
 
-    protected String[] interfaces;
+    @Getter(AccessLevel.NONE)
+    private final String[] interfaces;
 
-    private String sign;
+    private final String sign;
 
-    protected final List<AsmMethod> asmMethods = new ArrayList<>();
+    /**
+     * 类和字段上注解的摘要, 只有通过 {@link ClazzDigestVisitor} 读取时才有值
+     */
+    private String annotationDigest;
 
-    protected final List<AsmField> asmFields = new ArrayList<>();
+    /**
+     * 类级别调试信息(SourceFile等)的摘要, 只有通过 {@link ClazzDigestVisitor} 读取时才有值
+     */
+    private String debugDigest;
 
-    public void addAsmMethod(AsmMethod method) {
+    @Getter(AccessLevel.NONE)
+    private final List<AsmMethod> asmMethods = new ArrayList<>();
+
+    @Getter(AccessLevel.NONE)
+    private final List<AsmField> asmFields = new ArrayList<>();
+
+    /**
+     * 按 name+desc 索引, 迭代顺序仍然以list为准
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<MethodUniqueDesc, AsmMethod> methodIndex = new HashMap<>();
+
+    @Getter(AccessLevel.NONE)
+    private final Map<FieldUniqueDesc, AsmField> fieldIndex = new HashMap<>();
+
+    protected ClazzDefinition(int classVersion, int modifiers, String className, String superClassName, String[] interfaces, String sign) {
+        this.classVersion = classVersion;
+        this.modifiers = modifiers;
+        this.className = className;
+        this.superClassName = superClassName;
+        this.interfaces = interfaces == null ? null : interfaces.clone();
+        this.sign = sign;
+    }
+
+    public String[] getInterfaces() {
+        return interfaces == null ? null : interfaces.clone();
+    }
+
+    public List<AsmMethod> getAsmMethods() {
+        return Collections.unmodifiableList(asmMethods);
+    }
+
+    public List<AsmField> getAsmFields() {
+        return Collections.unmodifiableList(asmFields);
+    }
+
+    void addAsmMethod(AsmMethod method) {
         this.asmMethods.add(method);
+        this.methodIndex.putIfAbsent(MethodUniqueDesc.of(method.getMethodName(), method.getDesc()), method);
     }
 
-    public void addAsmField(AsmField asmField) {
+    void addAsmField(AsmField asmField) {
         this.asmFields.add(asmField);
+        this.fieldIndex.putIfAbsent(FieldUniqueDesc.of(asmField.getFieldName(), asmField.getDesc()), asmField);
     }
 
-    @Override
-    public ClazzDefinition clone() {
-        try {
-            return (ClazzDefinition) super.clone();
-        } catch (CloneNotSupportedException e) {
-            throw new RuntimeException(e);
-        }
+    void setAnnotationDigest(String annotationDigest) {
+        this.annotationDigest = annotationDigest;
+    }
+
+    void setDebugDigest(String debugDigest) {
+        this.debugDigest = debugDigest;
     }
 
     public boolean hasMethod(String name, String desc) {
-        return asmMethods.stream()
-                .anyMatch(item -> item.getMethodName().equals(name) && item.getDesc().equals(desc));
+        return methodIndex.containsKey(MethodUniqueDesc.of(name, desc));
     }
 
     public AsmMethod getMethod(String name, String desc) {
-        return asmMethods.stream()
-                .filter(item -> item.getMethodName().equals(name) && item.getDesc().equals(desc))
-                .findAny().orElse(null);
+        return methodIndex.get(MethodUniqueDesc.of(name, desc));
     }
 
     public AsmField getField(String name, String desc) {
-        return asmFields.stream()
-                .filter(item -> item.getFieldName().equals(name) && item.getDesc().equals(desc))
-                .findAny().orElse(null);
+        return fieldIndex.get(FieldUniqueDesc.of(name, desc));
+    }
+
+    /**
+     * 成员签名, 由父类和所有方法、字段的 name+desc+modifier 计算, 与成员的顺序无关
+     */
+    public long getMemberSignature() {
+        long signature = hash("S" + superClassName);
+        for (AsmMethod method : asmMethods) {
+            signature += hash("M" + method.getMethodName() + method.getDesc() + "#" + method.getModifier());
+        }
+        for (AsmField field : asmFields) {
+            signature += hash("F" + field.getFieldName() + field.getDesc() + "#" + field.getModifier());
+        }
+        return signature;
+    }
+
+    /**
+     * FNV-1a 64
+     */
+    private static long hash(String str) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < str.length(); i++) {
+            hash ^= str.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 
     public boolean hasMethod(AsmMethod asmMethod) {
@@ -76,11 +148,9 @@ public abstract class ClazzDefinition implements Cloneable {
     public static class InMemory extends ClazzDefinition {
 
         public InMemory(Class<?> clazz) {
-            this.classVersion = Opcodes.V1_8;
-            this.modifiers = toAsmOpcode(clazz.getModifiers());
-            this.className = clazz.getName();
-            this.superClassName = clazz.getSuperclass().getName();
-            this.interfaces = Arrays.stream(clazz.getInterfaces()).map(Class::getName).toArray(String[]::new);
+            super(Opcodes.V1_8, toAsmOpcode(clazz.getModifiers()), clazz.getName(),
+                    clazz.getSuperclass() == null ? null : clazz.getSuperclass().getName(),
+                    Arrays.stream(clazz.getInterfaces()).map(Class::getName).toArray(String[]::new), null);
 
             for (Method method : clazz.getDeclaredMethods()) {
                 AsmMethod asmMethod = AsmMethod.AsmMethodBuilder
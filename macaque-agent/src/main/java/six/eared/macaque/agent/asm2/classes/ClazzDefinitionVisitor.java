@@ -23,16 +23,16 @@ public class ClazzDefinitionVisitor extends ClassVisitor {
         return this.definition;
     }
 
+    /**
+     * 解析过程中填充成员和摘要, 只有同一个包中的visitor可以修改定义
+     */
+    ClazzDefinition target() {
+        return this.definition;
+    }
+
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-        this.definition = new ClazzDataDefinition();
-        this.definition.setClassVersion(version);
-        this.definition.setModifiers(access);
-        this.definition.setClassName(name.replaceAll("/", "."));
-        if (StringUtil.isNotEmpty(superName)) {
-            this.definition.setSuperClassName(superName.replaceAll("/", "."));
-        }
-        this.definition.setInterfaces(interfaces);
-        this.definition.setSign(signature);
+        this.definition = new ClazzDataDefinition(version, access, name.replaceAll("/", "."),
+                StringUtil.isNotEmpty(superName) ? superName.replaceAll("/", ".") : null, interfaces, signature);
     }
 
     @Override
@@ -45,7 +45,7 @@ public class ClazzDefinitionVisitor extends ClassVisitor {
                 .fieldSign(signature)
                 .value(value)
                 .build();
-        this.definition.addAsmField(asmField);
+        target().addAsmField(asmField);
         return super.visitField(access, name, desc, signature, value);
     }
 
@@ -59,7 +59,7 @@ public class ClazzDefinitionVisitor extends ClassVisitor {
                 .methodSign(signature)
                 .exceptions(exceptions)
                 .build();
-        this.definition.addAsmMethod(asmMethod);
+        target().addAsmMethod(asmMethod);
         return super.visitMethod(access, name, desc, signature, exceptions);
     }
 
@@ -0,0 +1,305 @@
+package six.eared.macaque.agent.asm2.classes;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.*;
+import six.eared.macaque.agent.asm2.AsmMethod;
+import six.eared.macaque.common.util.HexStringUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 在读取类结构的同时计算每个方法的摘要
+ * <p>
+ * codeDigest: 归一化之后的指令流, 跳转目标换成指令下标, 不受常量池顺序和调试信息的影响. 方法上的注解也算在内.
+ * debugDigest: 行号表、局部变量表、参数名
+ * 类和字段上的注解记在 {@link ClazzDefinition#getAnnotationDigest()}, 源文件名记在 {@link ClazzDefinition#getDebugDigest()}
+ */
+public class ClazzDigestVisitor extends ClazzDefinitionVisitor {
+
+    private final StringBuilder annotations = new StringBuilder();
+
+    private final StringBuilder debug = new StringBuilder();
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        super.visit(version, access, name, signature, superName, interfaces);
+        annotations.setLength(0);
+        debug.setLength(0);
+    }
+
+    @Override
+    public void visitSource(String source, String debugInfo) {
+        debug.append(source).append(' ').append(debugInfo);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        return collectAnnotation(null, descriptor, visible);
+    }
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        return collectAnnotation(null, typeRef + " " + typePath + " " + descriptor, visible);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        super.visitField(access, name, desc, signature, value);
+        final String owner = name + desc;
+        return new FieldVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return collectAnnotation(owner, descriptor, visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return collectAnnotation(owner, typeRef + " " + typePath + " " + descriptor, visible);
+            }
+        };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        super.visitMethod(access, name, desc, signature, exceptions);
+        List<AsmMethod> asmMethods = getDefinition().getAsmMethods();
+        final AsmMethod asmMethod = asmMethods.get(asmMethods.size() - 1);
+        return new MethodNode(Opcodes.ASM9, access, name, desc, signature, exceptions) {
+            @Override
+            public void visitEnd() {
+                digestMethod(this, asmMethod);
+            }
+        };
+    }
+
+    @Override
+    public void visitEnd() {
+        target().setAnnotationDigest(digest(annotations));
+        target().setDebugDigest(digest(debug));
+    }
+
+    private AnnotationVisitor collectAnnotation(final String owner, String descriptor, boolean visible) {
+        final AnnotationNode node = new AnnotationNode(descriptor);
+        return new AnnotationVisitorDelegation(node) {
+            @Override
+            public void visitEnd() {
+                super.visitEnd();
+                annotations.append(owner).append(':').append(visible).append(' ');
+                appendAnnotation(annotations, node);
+                annotations.append('\n');
+            }
+        };
+    }
+
+    private static void digestMethod(MethodNode method, AsmMethod asmMethod) {
+        Map<LabelNode, Integer> labels = indexLabels(method.instructions);
+
+        StringBuilder code = new StringBuilder();
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn.getOpcode() >= 0) {
+                appendInsn(code, insn, labels);
+                code.append('\n');
+            }
+        }
+        for (TryCatchBlockNode tryCatch : method.tryCatchBlocks) {
+            code.append("try ").append(labels.get(tryCatch.start)).append(' ').append(labels.get(tryCatch.end))
+                    .append(' ').append(labels.get(tryCatch.handler)).append(' ').append(tryCatch.type).append('\n');
+        }
+        appendAnnotations(code, "visible", method.visibleAnnotations);
+        appendAnnotations(code, "invisible", method.invisibleAnnotations);
+        appendAnnotations(code, "visibleType", method.visibleTypeAnnotations);
+        appendAnnotations(code, "invisibleType", method.invisibleTypeAnnotations);
+        if (method.visibleParameterAnnotations != null) {
+            for (List<AnnotationNode> parameterAnnotations : method.visibleParameterAnnotations) {
+                appendAnnotations(code, "visibleParameter", parameterAnnotations);
+            }
+        }
+        if (method.invisibleParameterAnnotations != null) {
+            for (List<AnnotationNode> parameterAnnotations : method.invisibleParameterAnnotations) {
+                appendAnnotations(code, "invisibleParameter", parameterAnnotations);
+            }
+        }
+        if (method.annotationDefault != null) {
+            code.append("default ");
+            appendValue(code, method.annotationDefault);
+        }
+
+        StringBuilder debug = new StringBuilder();
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof LineNumberNode) {
+                debug.append("line ").append(((LineNumberNode) insn).line)
+                        .append(' ').append(labels.get(((LineNumberNode) insn).start)).append('\n');
+            }
+        }
+        if (method.localVariables != null) {
+            for (LocalVariableNode local : method.localVariables) {
+                debug.append("local ").append(local.name).append(' ').append(local.desc).append(' ')
+                        .append(local.signature).append(' ').append(local.index).append(' ')
+                        .append(labels.get(local.start)).append(' ').append(labels.get(local.end)).append('\n');
+            }
+        }
+        if (method.parameters != null) {
+            for (ParameterNode parameter : method.parameters) {
+                debug.append("param ").append(parameter.name).append(' ').append(parameter.access).append('\n');
+            }
+        }
+
+        asmMethod.setCodeDigest(digest(code));
+        asmMethod.setDebugDigest(digest(debug));
+    }
+
+    /**
+     * label换成它之后第一条真实指令的下标, 只挂了行号或者局部变量的label不影响下标
+     */
+    private static Map<LabelNode, Integer> indexLabels(InsnList instructions) {
+        Map<LabelNode, Integer> labels = new HashMap<>();
+        List<LabelNode> unresolved = new ArrayList<>();
+        int index = 0;
+        for (AbstractInsnNode insn : instructions) {
+            if (insn instanceof LabelNode) {
+                unresolved.add((LabelNode) insn);
+            } else if (insn.getOpcode() >= 0) {
+                for (LabelNode label : unresolved) {
+                    labels.put(label, index);
+                }
+                unresolved.clear();
+                index++;
+            }
+        }
+        for (LabelNode label : unresolved) {
+            labels.put(label, index);
+        }
+        return labels;
+    }
+
+    private static void appendInsn(StringBuilder sb, AbstractInsnNode insn, Map<LabelNode, Integer> labels) {
+        sb.append(insn.getOpcode());
+        switch (insn.getType()) {
+            case AbstractInsnNode.INT_INSN:
+                sb.append(' ').append(((IntInsnNode) insn).operand);
+                break;
+            case AbstractInsnNode.VAR_INSN:
+                sb.append(' ').append(((VarInsnNode) insn).var);
+                break;
+            case AbstractInsnNode.TYPE_INSN:
+                sb.append(' ').append(((TypeInsnNode) insn).desc);
+                break;
+            case AbstractInsnNode.FIELD_INSN:
+                FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                sb.append(' ').append(fieldInsn.owner).append('.').append(fieldInsn.name).append(' ').append(fieldInsn.desc);
+                break;
+            case AbstractInsnNode.METHOD_INSN:
+                MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                sb.append(' ').append(methodInsn.owner).append('.').append(methodInsn.name).append(methodInsn.desc)
+                        .append(' ').append(methodInsn.itf);
+                break;
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                InvokeDynamicInsnNode indyInsn = (InvokeDynamicInsnNode) insn;
+                sb.append(' ').append(indyInsn.name).append(indyInsn.desc).append(' ').append(indyInsn.bsm);
+                for (Object arg : indyInsn.bsmArgs) {
+                    sb.append(' ');
+                    appendConstant(sb, arg);
+                }
+                break;
+            case AbstractInsnNode.JUMP_INSN:
+                sb.append(' ').append(labels.get(((JumpInsnNode) insn).label));
+                break;
+            case AbstractInsnNode.LDC_INSN:
+                sb.append(' ');
+                appendConstant(sb, ((LdcInsnNode) insn).cst);
+                break;
+            case AbstractInsnNode.IINC_INSN:
+                sb.append(' ').append(((IincInsnNode) insn).var).append(' ').append(((IincInsnNode) insn).incr);
+                break;
+            case AbstractInsnNode.TABLESWITCH_INSN:
+                TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insn;
+                sb.append(' ').append(tableSwitch.min).append(' ').append(tableSwitch.max)
+                        .append(' ').append(labels.get(tableSwitch.dflt));
+                for (LabelNode label : tableSwitch.labels) {
+                    sb.append(' ').append(labels.get(label));
+                }
+                break;
+            case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insn;
+                sb.append(' ').append(labels.get(lookupSwitch.dflt)).append(' ').append(lookupSwitch.keys);
+                for (LabelNode label : lookupSwitch.labels) {
+                    sb.append(' ').append(labels.get(label));
+                }
+                break;
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                sb.append(' ').append(((MultiANewArrayInsnNode) insn).desc)
+                        .append(' ').append(((MultiANewArrayInsnNode) insn).dims);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void appendConstant(StringBuilder sb, Object cst) {
+        // 区分 1 和 1L 这类toString相同的常量
+        sb.append(cst == null ? "null" : cst.getClass().getSimpleName()).append(':').append(cst);
+    }
+
+    private static void appendAnnotations(StringBuilder sb, String kind, List<? extends AnnotationNode> annotations) {
+        if (annotations == null) {
+            return;
+        }
+        for (AnnotationNode annotation : annotations) {
+            sb.append(kind).append(' ');
+            if (annotation instanceof TypeAnnotationNode) {
+                sb.append(((TypeAnnotationNode) annotation).typeRef).append(' ')
+                        .append(((TypeAnnotationNode) annotation).typePath).append(' ');
+            }
+            appendAnnotation(sb, annotation);
+            sb.append('\n');
+        }
+    }
+
+    private static void appendAnnotation(StringBuilder sb, AnnotationNode annotation) {
+        sb.append('@').append(annotation.desc).append('(');
+        if (annotation.values != null) {
+            for (int i = 0; i < annotation.values.size(); i += 2) {
+                sb.append(annotation.values.get(i)).append('=');
+                appendValue(sb, annotation.values.get(i + 1));
+                sb.append(',');
+            }
+        }
+        sb.append(')');
+    }
+
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value instanceof AnnotationNode) {
+            appendAnnotation(sb, (AnnotationNode) value);
+        } else if (value instanceof List) {
+            sb.append('[');
+            for (Object item : (List<?>) value) {
+                appendValue(sb, item);
+                sb.append(',');
+            }
+            sb.append(']');
+        } else if (value instanceof String[]) {
+            // 枚举值
+            sb.append(Arrays.toString((String[]) value));
+        } else {
+            appendConstant(sb, value);
+        }
+    }
+
+    private static String digest(StringBuilder content) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            return HexStringUtil.bytes2hexStr(messageDigest.digest(content.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class AnnotationVisitorDelegation extends AnnotationVisitor {
+        AnnotationVisitorDelegation(AnnotationVisitor delegation) {
+            super(Opcodes.ASM9, delegation);
+        }
+    }
+}
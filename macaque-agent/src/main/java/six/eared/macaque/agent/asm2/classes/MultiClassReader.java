@@ -3,17 +3,21 @@ package six.eared.macaque.agent.asm2.classes;
 import org.objectweb.asm.ClassReader;
 import six.eared.macaque.agent.asm2.ClassReaderUtil;
 import six.eared.macaque.agent.enhance.ClazzDataDefinition;
+import six.eared.macaque.common.util.ClassBundle;
 
-import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * 读取多个class, 支持 {@link ClassBundle} 和直接拼接的class文件两种格式
+ * <p>
+ * ASM直接在原数组上按偏移量解析, 每个类的字节码只记录在原数组中的位置, 用到时才复制
+ */
 public class MultiClassReader implements Iterable<ClazzDataDefinition> {
     private ClazzDefinitionVisitorFactory visitorFactory;
 
     protected byte[] multiClassData;
 
-    protected volatile int pos = 0;
-
     public MultiClassReader(byte[] multiClassData, ClazzDefinitionVisitorFactory visitorFactory) {
         this.multiClassData = multiClassData;
         this.visitorFactory = visitorFactory;
@@ -21,12 +25,17 @@ public class MultiClassReader implements Iterable<ClazzDataDefinition> {
 
     @Override
     public Iterator<ClazzDataDefinition> iterator() {
+        if (ClassBundle.isBundle(multiClassData)) {
+            return new ClassBundleItr(ClassBundle.read(multiClassData));
+        }
         return new MultiClassReaderItr();
     }
 
     class MultiClassReaderItr implements Iterator<ClazzDataDefinition> {
 
-        private final ClazzDefinitionVisitor visitor = new ClazzDefinitionVisitor();
+        private final ClazzDefinitionVisitor visitor = visitorFactory.creatClazzVisitor();
+
+        private int pos = 0;
 
         @Override
         public boolean hasNext() {
@@ -35,13 +44,51 @@ public class MultiClassReader implements Iterable<ClazzDataDefinition> {
 
         @Override
         public ClazzDataDefinition next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
             ClassReader classReader = new ClassReader(multiClassData, pos, multiClassData.length);
             classReader.accept(visitor, 0);
 
             int endOffset = ClassReaderUtil.getEndOffset(classReader);
-            visitor.setByteCode(Arrays.copyOfRange(multiClassData, pos, endOffset));
+            ClazzDataDefinition definition = visitor.getDefinition();
+            definition.setBytecode(multiClassData, pos, endOffset - pos);
             pos = endOffset;
-            return visitor.getDefinition();
+            return definition;
+        }
+    }
+
+    class ClassBundleItr implements Iterator<ClazzDataDefinition> {
+
+        private final ClazzDefinitionVisitor visitor = visitorFactory.creatClazzVisitor();
+
+        private final ClassBundle bundle;
+
+        private int index = 0;
+
+        ClassBundleItr(ClassBundle bundle) {
+            this.bundle = bundle;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < bundle.size();
+        }
+
+        @Override
+        public ClazzDataDefinition next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int offset = bundle.getOffset(index);
+            int length = bundle.getLength(index);
+            ClassReader classReader = new ClassReader(bundle.getData(), offset, length);
+            classReader.accept(visitor, 0);
+
+            ClazzDataDefinition definition = visitor.getDefinition();
+            definition.setBytecode(bundle.getData(), offset, length);
+            index++;
+            return definition;
         }
     }
 }
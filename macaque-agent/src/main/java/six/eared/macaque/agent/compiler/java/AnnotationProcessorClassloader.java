@@ -1,11 +1,29 @@
 package six.eared.macaque.agent.compiler.java;
 
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 
+/**
+ * 注解处理器的类加载器
+ * <p>
+ * 在编译会话中复用, javac每次编译结束时会调用 {@link #close()}, 这里忽略, 会话结束时通过 {@link #release()} 关闭
+ */
 public class AnnotationProcessorClassloader extends URLClassLoader {
 
     public AnnotationProcessorClassloader(URL[] urls, ClassLoader parent) {
         super(urls, parent);
     }
+
+    @Override
+    public void close() {
+
+    }
+
+    public void release() {
+        try {
+            super.close();
+        } catch (IOException ignored) {
+        }
+    }
 }
@@ -17,35 +17,91 @@ public class ClassLoaderSearchRoot implements SearchRoot {
 
     private static final Map<String, JarFileIndex> INDEXS = new ConcurrentHashMap<>();
 
+    /**
+     * 包列表缓存的上限
+     */
+    private static final int MAX_PACKAGES = 1024;
+
+    /**
+     * jar包中的结果和包目录, key: packageName
+     */
+    private final Map<String, PackageListing> packages = new LinkedHashMap<String, PackageListing>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PackageListing> eldest) {
+            return size() > MAX_PACKAGES;
+        }
+    };
+
+    /**
+     * 已经由 {@link JarIndexSearchRoot} 搜索的jar包, 其中在索引中的类不再重复返回
+     */
+    private final File indexedJar;
+
     public ClassLoaderSearchRoot(ClassLoader classLoader) {
+        this(classLoader, null);
+    }
+
+    public ClassLoaderSearchRoot(ClassLoader classLoader, File indexedJar) {
         this.classLoader = classLoader;
+        this.indexedJar = indexedJar != null ? indexedJar.getAbsoluteFile() : null;
+    }
+
+    /**
+     * 类加载器可能包括目录, 目录中的class文件随时变化, 不在编译会话中缓存.
+     * jar包中的结果在自己的缓存中复用, 目录每次通过 {@link DirectoryIndex} 按修改时间校验
+     */
+    @Override
+    public boolean cacheable() {
+        return false;
     }
 
     @Override
     public List<JavaFileObject> search(String packageName, Set<JavaFileObject.Kind> kinds) throws IOException {
+        PackageListing listing;
+        synchronized (packages) {
+            listing = packages.get(packageName);
+        }
+        if (listing == null) {
+            listing = listPackage(packageName);
+            synchronized (packages) {
+                packages.put(packageName, listing);
+            }
+        }
+        if (listing.directories.isEmpty()) {
+            return listing.jarEntries;
+        }
+        List<JavaFileObject> result = new ArrayList<>(listing.jarEntries);
+        for (File directory : listing.directories) {
+            result.addAll(processDir(packageName, directory));
+        }
+        return result;
+    }
+
+    private PackageListing listPackage(String packageName) throws IOException {
         String javaPackageName = packageName.replaceAll("\\.", "/");
 
-        List<JavaFileObject> result = new ArrayList<>();
+        List<JavaFileObject> jarEntries = new ArrayList<>();
+        List<File> directories = new ArrayList<>();
         Enumeration<URL> urlEnumeration = classLoader.getResources(javaPackageName);
         while (urlEnumeration.hasMoreElements()) {
             URL packageFolderURL = urlEnumeration.nextElement();
-            result.addAll(listUnder(packageName, packageFolderURL));
-        }
-        return result;
-    }
-
-    private Collection<JavaFileObject> listUnder(String packageName, URL packageFolderURL) {
-        File directory = new File(decode(packageFolderURL.getFile()));
-        if (directory.isDirectory()) {
-            return processDir(packageName, directory);
-        } else {
-            return processJar(packageName, packageFolderURL);
+            File directory = new File(decode(packageFolderURL.getFile()));
+            if (directory.isDirectory()) {
+                directories.add(directory);
+            } else {
+                jarEntries.addAll(processJar(packageName, packageFolderURL));
+            }
         }
+        return new PackageListing(jarEntries, directories);
     }
 
     private List<JavaFileObject> processJar(String packageName, URL packageFolderURL) {
         try {
             String jarUri = packageFolderURL.toExternalForm().substring(0, packageFolderURL.toExternalForm().lastIndexOf("!/"));
+            List<JavaFileObject> indexed = searchIndex(packageName, jarUri);
+            if (indexed != null) {
+                return indexed;
+            }
             JarFileIndex jarFileIndex = INDEXS.get(jarUri);
             if (jarFileIndex == null) {
                 jarFileIndex = new JarFileIndex(jarUri, URI.create(jarUri + "!/"));
@@ -61,6 +117,45 @@ public class ClassLoaderSearchRoot implements SearchRoot {
         return fuse(packageFolderURL);
     }
 
+    /**
+     * 本地jar包(包括fat jar中的类目录和嵌套jar包)通过 {@link ClasspathIndex} 查找
+     *
+     * @param packageName
+     * @param jarUri      jar:file:/a.jar, jar:file:/a.jar!/BOOT-INF/classes, jar:file:/a.jar!/BOOT-INF/lib/b.jar
+     * @return 无法使用索引时返回null
+     */
+    private List<JavaFileObject> searchIndex(String packageName, String jarUri) {
+        if (!jarUri.startsWith("jar:file:")) {
+            return null;
+        }
+        String path = jarUri.substring("jar:".length());
+        String root = "";
+        int separator = path.indexOf("!/");
+        if (separator != -1) {
+            root = path.substring(separator + 2);
+            path = path.substring(0, separator);
+            if (root.endsWith("!") || root.endsWith("/")) {
+                root = root.substring(0, root.length() - 1);
+            }
+        }
+        try {
+            ClasspathIndex.JarIndex jarIndex = ClasspathIndex.getInstance().getJarIndex(new File(URI.create(path)));
+            if (!jarIndex.contains(root)) {
+                return null;
+            }
+            if (jarIndex.getFile().equals(indexedJar)) {
+                return Collections.emptyList();
+            }
+            List<JavaFileObject> result = new ArrayList<>();
+            for (ClasspathIndex.Entry entry : jarIndex.getClasses(packageName, root)) {
+                result.add(new IndexedClassFileObject(jarIndex, entry));
+            }
+            return result;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private List<JavaFileObject> fuse(URL packageFolderURL) {
         List<JavaFileObject> result = new ArrayList<>();
         try {
@@ -89,16 +184,7 @@ public class ClassLoaderSearchRoot implements SearchRoot {
     }
 
     private List<JavaFileObject> processDir(String packageName, File directory) {
-        File[] files = directory.listFiles(item ->
-                item.isFile() && DynamicJavaFileManager.getKind(item.getName()) == JavaFileObject.Kind.CLASS);
-        if (files != null) {
-            return Arrays.stream(files).map(item -> {
-                String className = packageName + "." + item.getName()
-                        .replaceAll(CLASS_FILE_EXTENSION + "$", "");
-                return new JavaClassFileObject(item.toURI(), className, JavaFileObject.Kind.CLASS);
-            }).collect(Collectors.toList());
-        }
-        return Collections.emptyList();
+        return DirectoryIndex.list(directory, packageName, EnumSet.of(JavaFileObject.Kind.CLASS));
     }
 
     private String decode(String filePath) {
@@ -111,6 +197,17 @@ public class ClassLoaderSearchRoot implements SearchRoot {
         return filePath;
     }
 
+    private static class PackageListing {
+        private final List<JavaFileObject> jarEntries;
+
+        private final List<File> directories;
+
+        PackageListing(List<JavaFileObject> jarEntries, List<File> directories) {
+            this.jarEntries = jarEntries;
+            this.directories = directories;
+        }
+    }
+
     public static class JarFileIndex implements SearchRoot {
         private String jarUri;
         private URI uri;
@@ -0,0 +1,532 @@
+package six.eared.macaque.agent.compiler.java;
+
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.common.util.FileUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * classpath中jar包的类索引
+ * <p>
+ * 通过内存映射直接读取zip的中央目录, 不解压也不逐个打开条目. springboot的fat jar中 BOOT-INF/lib 下未压缩存储的jar包
+ * 在外层文件中是连续的一段, 同样直接读取它的中央目录.
+ * 索引保存在进程临时目录下, 再次attach时按jar包的大小和修改时间校验后复用. 新建的索引在一批查找结束后通过 {@link #flush()}
+ * 一次性保存, 先写入唯一的临时文件再原子替换, 共享同一个目录的多个进程不会读到写了一半的文件.
+ */
+public class ClasspathIndex {
+
+    private static final int MAGIC = 0x4D435049;
+
+    private static final int VERSION = 2;
+
+    private static final String INDEX_FILE = "classpath-index.bin";
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+
+    private static final int CEN_SIGNATURE = 0x02014b50;
+
+    private static final int EOCD_SIZE = 22;
+
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    /**
+     * fat jar中的类目录
+     */
+    private static final String[] CLASS_ROOTS = {"BOOT-INF/classes/", "WEB-INF/classes/"};
+
+    /**
+     * fat jar中的依赖目录
+     */
+    private static final String[] LIB_ROOTS = {"BOOT-INF/lib/", "WEB-INF/lib/"};
+
+    private static ClasspathIndex INSTANCE = null;
+
+    private final File indexFile;
+
+    /**
+     * key: jar包的绝对路径
+     */
+    private final Map<String, JarIndex> jars = new ConcurrentHashMap<>();
+
+    /**
+     * 有新建立的索引还未保存
+     */
+    private volatile boolean dirty = false;
+
+    private ClasspathIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public synchronized static ClasspathIndex getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ClasspathIndex(new File(FileUtil.getProcessTmpPath(), INDEX_FILE));
+            INSTANCE.load();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * 获取jar包的索引, 没有索引或者jar包已经变化时重新建立, 调用 {@link #flush()} 保存
+     *
+     * @param jar
+     * @return
+     * @throws IOException jar包无法解析(zip64等)
+     */
+    public JarIndex getJarIndex(File jar) throws IOException {
+        String path = jar.getAbsolutePath();
+        JarIndex jarIndex = jars.get(path);
+        if (jarIndex != null && jarIndex.isValid()) {
+            return jarIndex;
+        }
+        synchronized (this) {
+            jarIndex = jars.get(path);
+            if (jarIndex != null && jarIndex.isValid()) {
+                return jarIndex;
+            }
+            long start = System.currentTimeMillis();
+            jarIndex = JarIndex.build(jar.getAbsoluteFile());
+            jars.put(path, jarIndex);
+            if (Environment.isDebug()) {
+                System.out.printf("[ClasspathIndex] index %s, classes: %d, %dms%n", path, jarIndex.size(),
+                        System.currentTimeMillis() - start);
+            }
+            dirty = true;
+            return jarIndex;
+        }
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int jarCount = in.readInt();
+            for (int i = 0; i < jarCount; i++) {
+                JarIndex jarIndex = JarIndex.read(in);
+                if (jarIndex.isValid()) {
+                    jars.put(jarIndex.file.getPath(), jarIndex);
+                }
+            }
+        } catch (IOException e) {
+            // 索引文件损坏, 重新建立
+            jars.clear();
+        }
+    }
+
+    /**
+     * 保存新建立的索引, 没有变化时什么都不做
+     */
+    public synchronized void flush() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(indexFile.getAbsoluteFile().getParentFile().toPath(), INDEX_FILE, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                Collection<JarIndex> indexes = jars.values();
+                out.writeInt(indexes.size());
+                for (JarIndex jarIndex : indexes) {
+                    jarIndex.write(out);
+                }
+            }
+            try {
+                Files.move(tmp, indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            if (Environment.isDebug()) {
+                System.out.println("[ClasspathIndex] save error");
+                e.printStackTrace();
+            }
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    public static class JarIndex {
+
+        private final File file;
+
+        private final long size;
+
+        private final long lastModified;
+
+        /**
+         * key: 包名
+         */
+        private final Map<String, List<Entry>> packages = new HashMap<>();
+
+        /**
+         * 已经建立索引的嵌套jar包
+         */
+        private final Set<String> nestedJars = new HashSet<>();
+
+        /**
+         * 没有建立索引的嵌套jar包, 压缩存储或者无法解析
+         */
+        private final Set<String> skippedJars = new HashSet<>();
+
+        /**
+         * 包含类文件的根, 见 {@link #getClasses(String, String)}
+         */
+        private final Set<String> roots = new HashSet<>();
+
+        private MappedByteBuffer buffer;
+
+        private JarIndex(File file, long size, long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @param packageName
+         * @param root        类所在的根, ""表示jar包本身, 否则是fat jar中的类目录或者依赖jar包, 比如 BOOT-INF/lib/a.jar
+         * @return
+         */
+        public List<Entry> getClasses(String packageName, String root) {
+            List<Entry> entries = packages.get(packageName);
+            if (entries == null) {
+                return Collections.emptyList();
+            }
+            if (root == null) {
+                return entries;
+            }
+            List<Entry> result = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry.root.equals(root)) {
+                    result.add(entry);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @param root 见 {@link #getClasses(String, String)}
+         * @return 这个根下的类是否都在索引中, 压缩存储的嵌套jar包不在索引中
+         */
+        public boolean contains(String root) {
+            if (root.isEmpty() || nestedJars.contains(root)) {
+                return true;
+            }
+            for (String classRoot : CLASS_ROOTS) {
+                if (classRoot.startsWith(root) && classRoot.length() == root.length() + 1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return 依赖目录下的jar包是否都在索引中
+         */
+        public boolean isComplete() {
+            return skippedJars.isEmpty();
+        }
+
+        /**
+         * @return 包含类文件的根, ""表示jar包本身
+         */
+        public Set<String> getRoots() {
+            return Collections.unmodifiableSet(roots);
+        }
+
+        public int size() {
+            int size = 0;
+            for (List<Entry> entries : packages.values()) {
+                size += entries.size();
+            }
+            return size;
+        }
+
+        boolean isValid() {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+
+        /**
+         * 读取类文件
+         */
+        public byte[] read(Entry entry) throws IOException {
+            ByteBuffer buf = getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int localHeader = (int) entry.localHeaderOffset;
+            int dataStart = localHeader + 30 + u2(buf, localHeader + 26) + u2(buf, localHeader + 28);
+            byte[] compressed = new byte[entry.compressedSize];
+            buf.position(dataStart);
+            buf.get(compressed);
+            if (entry.method == 0) {
+                return compressed;
+            }
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                byte[] bytes = new byte[entry.size];
+                int offset = 0;
+                while (offset < bytes.length && !inflater.finished()) {
+                    int n = inflater.inflate(bytes, offset, bytes.length - offset);
+                    if (n == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    offset += n;
+                }
+                return bytes;
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        private synchronized MappedByteBuffer getBuffer() throws IOException {
+            if (buffer == null) {
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+                    FileChannel channel = randomAccessFile.getChannel();
+                    if (channel.size() > Integer.MAX_VALUE) {
+                        throw new IOException("jar too large: " + file);
+                    }
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            return buffer;
+        }
+
+        static JarIndex build(File file) throws IOException {
+            JarIndex jarIndex = new JarIndex(file, file.length(), file.lastModified());
+            ByteBuffer buf = jarIndex.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            jarIndex.readCentralDirectory(buf, 0, buf.limit(), "");
+            return jarIndex;
+        }
+
+        /**
+         * 解析 [start, end) 范围内的zip文件的中央目录
+         *
+         * @param buf
+         * @param start
+         * @param end
+         * @param root  嵌套jar包在外层jar包中的路径, 外层jar包为""
+         */
+        private void readCentralDirectory(ByteBuffer buf, int start, int end, String root) throws IOException {
+            int eocd = -1;
+            for (int pos = end - EOCD_SIZE; pos >= Math.max(start, end - EOCD_SIZE - 0xFFFF); pos--) {
+                if (buf.getInt(pos) == EOCD_SIGNATURE) {
+                    eocd = pos;
+                    break;
+                }
+            }
+            if (eocd < 0) {
+                throw new IOException("not a zip file: " + file + (root.isEmpty() ? "" : "!/" + root));
+            }
+            int total = u2(buf, eocd + 10);
+            long cenSize = u4(buf, eocd + 12);
+            long cenOffset = u4(buf, eocd + 16);
+            if (total == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+                throw new IOException("zip64 not supported: " + file);
+            }
+            // 可执行jar包前面可能有启动脚本, 实际位置和记录的偏移之间有一段前缀
+            int cenStart = (int) (eocd - cenSize);
+            int prefix = (int) (cenStart - start - cenOffset);
+
+            int pos = cenStart;
+            for (int i = 0; i < total; i++) {
+                if (buf.getInt(pos) != CEN_SIGNATURE) {
+                    throw new IOException("bad central directory: " + file);
+                }
+                int method = u2(buf, pos + 10);
+                int compressedSize = (int) u4(buf, pos + 20);
+                int size = (int) u4(buf, pos + 24);
+                int nameLength = u2(buf, pos + 28);
+                int extraLength = u2(buf, pos + 30);
+                int commentLength = u2(buf, pos + 32);
+                long localHeader = start + prefix + u4(buf, pos + 42);
+                String name = name(buf, pos + 46, nameLength);
+                pos += 46 + nameLength + extraLength + commentLength;
+
+                if (root.isEmpty() && name.endsWith(".jar") && startsWith(name, LIB_ROOTS)) {
+                    if (method != 0) {
+                        skippedJars.add(name);
+                        continue;
+                    }
+                    int dataStart = (int) (localHeader + 30 + u2(buf, (int) localHeader + 26) + u2(buf, (int) localHeader + 28));
+                    try {
+                        readCentralDirectory(buf, dataStart, dataStart + compressedSize, name);
+                        nestedJars.add(name);
+                    } catch (IOException e) {
+                        // 嵌套的jar包无法解析时跳过, 由类加载器的搜索路径兜底
+                        skippedJars.add(name);
+                    }
+                    continue;
+                }
+                if (!name.endsWith(CLASS_FILE_EXTENSION) || name.startsWith("META-INF/")) {
+                    continue;
+                }
+                String entryRoot = root;
+                String path = name;
+                if (root.isEmpty()) {
+                    for (String classRoot : CLASS_ROOTS) {
+                        if (name.startsWith(classRoot)) {
+                            entryRoot = classRoot.substring(0, classRoot.length() - 1);
+                            path = name.substring(classRoot.length());
+                            break;
+                        }
+                    }
+                }
+                String className = path.substring(0, path.length() - CLASS_FILE_EXTENSION.length()).replace('/', '.');
+                int packageEnd = className.lastIndexOf('.');
+                if (packageEnd == -1 || className.endsWith("package-info") || className.endsWith("module-info")) {
+                    continue;
+                }
+                add(new Entry(className, entryRoot, localHeader, method, compressedSize, size));
+            }
+        }
+
+        private void add(Entry entry) {
+            String packageName = entry.className.substring(0, entry.className.lastIndexOf('.'));
+            packages.computeIfAbsent(packageName, k -> new ArrayList<>()).add(entry);
+            roots.add(entry.root);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(file.getPath());
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeInt(nestedJars.size());
+            for (String nestedJar : nestedJars) {
+                out.writeUTF(nestedJar);
+            }
+            out.writeInt(skippedJars.size());
+            for (String skippedJar : skippedJars) {
+                out.writeUTF(skippedJar);
+            }
+            out.writeInt(size());
+            for (List<Entry> entries : packages.values()) {
+                for (Entry entry : entries) {
+                    out.writeUTF(entry.className);
+                    out.writeUTF(entry.root);
+                    out.writeLong(entry.localHeaderOffset);
+                    out.writeShort(entry.method);
+                    out.writeInt(entry.compressedSize);
+                    out.writeInt(entry.size);
+                }
+            }
+        }
+
+        static JarIndex read(DataInputStream in) throws IOException {
+            JarIndex jarIndex = new JarIndex(new File(in.readUTF()), in.readLong(), in.readLong());
+            int nestedCount = in.readInt();
+            for (int i = 0; i < nestedCount; i++) {
+                jarIndex.nestedJars.add(in.readUTF());
+            }
+            int skippedCount = in.readInt();
+            for (int i = 0; i < skippedCount; i++) {
+                jarIndex.skippedJars.add(in.readUTF());
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                jarIndex.add(new Entry(in.readUTF(), in.readUTF(), in.readLong(), in.readShort(), in.readInt(), in.readInt()));
+            }
+            return jarIndex;
+        }
+
+        private static boolean startsWith(String name, String[] prefixes) {
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String name(ByteBuffer buf, int pos, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(pos);
+            dup.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static int u2(ByteBuffer buf, int pos) {
+            return buf.getShort(pos) & 0xFFFF;
+        }
+
+        private static long u4(ByteBuffer buf, int pos) {
+            return buf.getInt(pos) & 0xFFFFFFFFL;
+        }
+    }
+
+    public static class Entry {
+
+        private final String className;
+
+        /**
+         * 类所在的根, 见 {@link JarIndex#getClasses(String, String)}
+         */
+        private final String root;
+
+        /**
+         * 在最外层jar包中的绝对位置
+         */
+        private final long localHeaderOffset;
+
+        private final int method;
+
+        private final int compressedSize;
+
+        private final int size;
+
+        Entry(String className, String root, long localHeaderOffset, int method, int compressedSize, int size) {
+            this.className = className;
+            this.root = root;
+            this.localHeaderOffset = localHeaderOffset;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getRoot() {
+            return root;
+        }
+
+        /**
+         * @return 条目在jar包中的路径, 嵌套的jar包用 !/ 分隔
+         */
+        public String getEntryPath() {
+            String path = className.replace('.', '/') + CLASS_FILE_EXTENSION;
+            if (root.isEmpty()) {
+                return path;
+            }
+            return root.endsWith(".jar") ? root + "!/" + path : root + "/" + path;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package six.eared.macaque.agent.compiler.java;
+
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.mbean.rmi.ClasspathManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * 导出目标进程的classpath清单, 供服务端编译使用
+ * <p>
+ * 和 {@link JavaSourceCompiler} 解析classpath的方式一致, 但不加载javac. springboot的fat jar通过 {@link ClasspathIndex}
+ * 列出其中的类目录和依赖jar包.
+ * <p>
+ * 清单按 java.class.path 和上一次解析出的jar包的大小、修改时间缓存, 都没有变化时不再打开jar包.
+ */
+public class ClasspathManifestExporter {
+
+    private static ClasspathManifest CACHED = null;
+
+    /**
+     * 上一次解析出的jar包, 包括Class-Path中引用的jar包
+     */
+    private static List<File> CACHED_JARS = Collections.emptyList();
+
+    private static long CACHED_KEY = 0;
+
+    public synchronized static ClasspathManifest export() {
+        String javaClassPath = System.getProperty("java.class.path");
+        if (CACHED != null && CompileSession.fingerprint(javaClassPath.hashCode(), CACHED_JARS) == CACHED_KEY) {
+            return CACHED;
+        }
+
+        List<File> jars = new ArrayList<>();
+        List<String> directories = new ArrayList<>();
+        List<String> nestedEntries = new ArrayList<>();
+
+        String userDir = System.getProperty("user.dir");
+        for (String classSearchPath : javaClassPath.split(File.pathSeparator)) {
+            if (!JavaSourceCompiler.isJarFile(classSearchPath)) {
+                directories.add(new File(classSearchPath).getAbsolutePath());
+                continue;
+            }
+            File jar = JavaSourceCompiler.getJarAbsolutePath(classSearchPath, userDir);
+            if (jar == null) continue;
+            jars.add(jar.getAbsoluteFile());
+            try (PathJarFile jarFile = new PathJarFile(jar)) {
+                Manifest manifest = jarFile.getManifest();
+                if (manifest == null) {
+                    continue;
+                }
+                String classpath = manifest.getMainAttributes().getValue(new Attributes.Name("Class-Path"));
+                if (Objects.nonNull(classpath)) {
+                    for (StringTokenizer st = new StringTokenizer(classpath); st.hasMoreTokens(); ) {
+                        String ele = st.nextToken();
+                        if (ele.startsWith("file:")) ele = ele.substring(5);
+                        if (JavaSourceCompiler.isJarFile(ele)) {
+                            File absolutePath = JavaSourceCompiler.getJarAbsolutePath(ele, userDir);
+                            if (absolutePath != null) jars.add(absolutePath.getAbsoluteFile());
+                            continue;
+                        }
+                        directories.add(new File(ele).getAbsolutePath());
+                    }
+                }
+                if (manifest.getMainAttributes().getValue(new Attributes.Name("Start-Class")) != null) {
+                    ClasspathIndex.JarIndex jarIndex = ClasspathIndex.getInstance().getJarIndex(jar.getAbsoluteFile());
+                    for (String root : jarIndex.getRoots()) {
+                        if (!root.isEmpty()) {
+                            nestedEntries.add(jar.getAbsolutePath() + "!/" + root);
+                        }
+                    }
+                    Collections.sort(nestedEntries);
+                }
+            } catch (IOException e) {
+                if (Environment.isDebug()) {
+                    System.out.println("[ClasspathManifestExporter] read jar error: " + jar);
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        ClasspathIndex.getInstance().flush();
+
+        long fingerprint = CompileSession.fingerprint(directories.hashCode(), jars);
+        CACHED_JARS = jars;
+        CACHED_KEY = CompileSession.fingerprint(javaClassPath.hashCode(), jars);
+        if (CACHED != null && CACHED.getFingerprint() == fingerprint) {
+            return CACHED;
+        }
+        ClasspathManifest manifest = new ClasspathManifest();
+        manifest.setJavaVersion(System.getProperty("java.specification.version"));
+        manifest.setFingerprint(fingerprint);
+        for (File jar : jars) {
+            manifest.getJars().add(jar.getPath());
+        }
+        manifest.getDirectories().addAll(directories);
+        manifest.getNestedEntries().addAll(nestedEntries);
+        return CACHED = manifest;
+    }
+}
@@ -3,11 +3,8 @@ package six.eared.macaque.agent.compiler.java;
 
 import javax.tools.JavaFileObject;
 import java.io.File;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 
 public class ClasspathSearchRoot implements SearchRoot {
@@ -18,22 +15,15 @@ public class ClasspathSearchRoot implements SearchRoot {
         this.classpath = classpath;
     }
 
+    /**
+     * 目录中的class文件可能随时变化, 不在编译会话中缓存, 由 {@link DirectoryIndex} 按修改时间校验
+     */
+    @Override
+    public boolean cacheable() {
+        return false;
+    }
+
     public List<JavaFileObject> search(String packageName, Set<JavaFileObject.Kind> kinds) {
-        File packageFile = new File(this.classpath, packageName.replace(".", "/"));
-        if (packageFile.exists() && packageFile.isDirectory()) {
-            File[] files = packageFile.listFiles(item ->
-                    !item.isDirectory()
-                            && kinds.contains(DynamicJavaFileManager.getKind(item.getName())
-                    ));
-            if (files != null) {
-                return Arrays.stream(files).map((item) -> {
-                            String className = item.getName().substring(0, item.getName()
-                                    .lastIndexOf('.'));
-                            return new JavaClassFileObject(item.toURI(), packageName + "." + className, JavaFileObject.Kind.CLASS);
-                        }
-                ).collect(Collectors.toList());
-            }
-        }
-        return Collections.emptyList();
+        return DirectoryIndex.list(new File(this.classpath, packageName.replace(".", "/")), packageName, kinds);
     }
 }
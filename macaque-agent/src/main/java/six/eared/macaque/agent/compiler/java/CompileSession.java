@@ -0,0 +1,117 @@
+package six.eared.macaque.agent.compiler.java;
+
+import six.eared.macaque.common.util.CollectionUtil;
+
+import javax.tools.JavaFileManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 编译会话
+ * <p>
+ * 在多次编译之间复用同一个 {@link DynamicJavaFileManager}, 包括搜索路径下的包列表、注解处理器的发现结果和类加载器.
+ * classpath变化(新增搜索路径, jar包被替换)时会话失效, 由 {@link JavaSourceCompiler} 重新创建.
+ */
+public class CompileSession {
+
+    private final DynamicJavaFileManager fileManager;
+
+    /**
+     * 创建会话时的classpath指纹
+     */
+    private final long fingerprint;
+
+    private final List<String> options;
+
+    private final long createTime = System.currentTimeMillis();
+
+    private int compileCount = 0;
+
+    private long coldTime = -1;
+
+    private long warmTotalTime = 0;
+
+    private long lastTime = 0;
+
+    public CompileSession(JavaFileManager baseFileManager, Set<SearchRoot> classPathRoots, long fingerprint) {
+        this.fileManager = new DynamicJavaFileManager(baseFileManager, classPathRoots);
+        this.fingerprint = fingerprint;
+        this.options = buildOption(fileManager);
+    }
+
+    public DynamicJavaFileManager getFileManager() {
+        return fileManager;
+    }
+
+    public List<String> getOptions() {
+        return options;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return 会话中第一次编译是冷编译
+     */
+    public boolean isWarm() {
+        return compileCount > 0;
+    }
+
+    /**
+     * 记录一次编译的耗时
+     *
+     * @param time 毫秒
+     */
+    public void record(long time) {
+        if (compileCount == 0) {
+            coldTime = time;
+        } else {
+            warmTotalTime += time;
+        }
+        compileCount++;
+        lastTime = time;
+    }
+
+    public void close() {
+        fileManager.release();
+    }
+
+    public String getStats() {
+        int warmCount = Math.max(compileCount - 1, 0);
+        return String.format("[CompileSession] age: %ds, compiles: %d, cold: %dms, warm avg: %dms, last: %dms",
+                (System.currentTimeMillis() - createTime) / 1000, compileCount, coldTime,
+                warmCount == 0 ? 0 : warmTotalTime / warmCount, lastTime);
+    }
+
+    private static List<String> buildOption(DynamicJavaFileManager fileManager) {
+        List<String> options = new ArrayList<>();
+        options.add("-Xlint:unchecked");
+        options.add("-g");
+        Set<String> annotationProcessor = null;
+        try {
+            annotationProcessor = fileManager.findAnnotationProcessor();
+        } catch (IOException ignored) {}
+        if (CollectionUtil.isNotEmpty(annotationProcessor)) {
+            options.add("-processor");
+            options.add(String.join(",", annotationProcessor));
+        }
+        return Collections.unmodifiableList(options);
+    }
+
+    /**
+     * classpath的指纹, 由搜索路径的版本号和jar包的路径、大小、修改时间计算
+     *
+     * @param rootsVersion 搜索路径的版本号, 新增搜索路径时加一
+     * @param jarLibraries
+     * @return
+     */
+    public static long fingerprint(int rootsVersion, Collection<File> jarLibraries) {
+        long fingerprint = rootsVersion;
+        for (File jar : jarLibraries) {
+            fingerprint = fingerprint * 31 + (jar.getPath().hashCode() ^ jar.lastModified() ^ jar.length());
+        }
+        return fingerprint;
+    }
+}
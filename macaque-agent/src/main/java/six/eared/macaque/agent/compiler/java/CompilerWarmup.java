@@ -0,0 +1,154 @@
+package six.eared.macaque.agent.compiler.java;
+
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.exceptions.MemoryCompileException;
+import six.eared.macaque.common.util.StringUtil;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编译器预热
+ * <p>
+ * attach之后在低优先级的守护线程中初始化 {@link JavaSourceCompiler}, 并针对真实的classpath编译一个简单的类,
+ * 提前加载javac、解析classpath、建立主类所在包的索引, 第一次热加载java文件时直接使用预热好的编译会话.
+ * <p>
+ * 每一轮开始前按预估的耗时检查剩余的CPU时间预算, 第一轮(冷编译)按经验值 {@link #COLD_COMPILE_COST} 预估, 之后按上一轮的实际耗时预估,
+ * 剩余预算不够一轮时不开始, 预算小于冷编译的耗时时不预热. 每一轮编译之后休眠同样长的时间, 最多占用半个核.
+ * 有真实的编译在等待或者执行时预热让出编译器并停止.
+ */
+public class CompilerWarmup {
+
+    /**
+     * 默认的CPU时间预算, 毫秒
+     */
+    public static final long DEFAULT_CPU_BUDGET = 2000;
+
+    /**
+     * 最多编译的轮数, 之后的收益主要来自JIT, 不再继续
+     */
+    private static final int MAX_ROUNDS = 3;
+
+    /**
+     * 第一轮冷编译预估的CPU时间, 毫秒, 包括加载javac和解析classpath
+     */
+    static final long COLD_COMPILE_COST = 1500;
+
+    private static final String WARMUP_CLASS = "Macaque$CompilerWarmup";
+
+    private static volatile Thread thread;
+
+    /**
+     * @param cpuBudget CPU时间预算, 毫秒
+     */
+    public synchronized static void start(long cpuBudget) {
+        if (thread != null) {
+            return;
+        }
+        if (cpuBudget < COLD_COMPILE_COST) {
+            if (Environment.isDebug()) {
+                System.out.printf("[CompilerWarmup] skipped, budget %dms is less than a cold compile%n", cpuBudget);
+            }
+            return;
+        }
+        thread = new Thread(() -> warmup(cpuBudget), "macaque-compiler-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static void warmup(long cpuBudget) {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        boolean cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(cpuBudget);
+        long cpuStart = cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : 0;
+        long wallStart = System.currentTimeMillis();
+        int rounds = 0;
+        try {
+            JavaSourceCompiler compiler = JavaSourceCompiler.getInstance();
+            if (compiler == null || !compiler.isPrepared()) {
+                return;
+            }
+            String mainClass = getMainClass();
+            long expected = TimeUnit.MILLISECONDS.toNanos(COLD_COMPILE_COST);
+            while (rounds < MAX_ROUNDS) {
+                long used = cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() - cpuStart
+                        : TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - wallStart);
+                if (used + expected > budgetNanos) {
+                    break;
+                }
+                long roundStart = cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime();
+                try {
+                    if (compiler.compileIfIdle(Collections.singletonMap(warmupFileName(mainClass), warmupSource(mainClass).getBytes())) == null) {
+                        // 真实的编译优先, 它本身会预热编译会话, 不再继续
+                        break;
+                    }
+                } catch (MemoryCompileException e) {
+                    if (mainClass == null) {
+                        throw e;
+                    }
+                    // 主类在编译器的classpath中找不到, 退化为不引用主类
+                    mainClass = null;
+                }
+                rounds++;
+
+                long roundUsed = (cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : System.nanoTime()) - roundStart;
+                expected = roundUsed;
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(roundUsed));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            if (Environment.isDebug()) {
+                System.out.println("[CompilerWarmup] warmup error");
+                e.printStackTrace();
+            }
+        } finally {
+            if (Environment.isDebug()) {
+                System.out.printf("[CompilerWarmup] finished, rounds: %d, cpu: %dms, wall: %dms%n", rounds,
+                        cpuTimeSupported ? TimeUnit.NANOSECONDS.toMillis(threadMXBean.getCurrentThreadCpuTime() - cpuStart) : -1,
+                        System.currentTimeMillis() - wallStart);
+            }
+        }
+    }
+
+    /**
+     * 预热的类放在主类所在的包中, 编译时会建立这个包的索引
+     */
+    private static String warmupSource(String mainClass) {
+        StringBuilder source = new StringBuilder();
+        if (mainClass != null && mainClass.lastIndexOf('.') > 0) {
+            source.append("package ").append(mainClass, 0, mainClass.lastIndexOf('.')).append(";\n");
+        }
+        source.append("public class ").append(WARMUP_CLASS).append(" {\n");
+        if (mainClass != null) {
+            source.append("    private ").append(mainClass).append(" main;\n");
+        }
+        source.append("    private java.util.List<String> list = new java.util.ArrayList<>();\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static String warmupFileName(String mainClass) {
+        String packagePath = mainClass != null && mainClass.lastIndexOf('.') > 0
+                ? mainClass.substring(0, mainClass.lastIndexOf('.')).replace('.', '/') + "/" : "";
+        return packagePath + WARMUP_CLASS + ".java";
+    }
+
+    /**
+     * @return 通过 sun.java.command 获取主类, -jar 启动时返回null
+     */
+    private static String getMainClass() {
+        String command = System.getProperty("sun.java.command");
+        if (StringUtil.isEmpty(command)) {
+            return null;
+        }
+        String main = command.split("\\s+")[0];
+        if (main.endsWith(".jar") || main.contains("/") || main.contains("\\")) {
+            return null;
+        }
+        return main;
+    }
+}
@@ -0,0 +1,134 @@
+package six.eared.macaque.agent.compiler.java;
+
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 展开的classpath目录的包列表缓存
+ * <p>
+ * 每个包目录只在第一次查找时列出文件, 之后按目录的修改时间校验: 目录中新增、删除、重命名文件都会更新目录的修改时间,
+ * 校验只需要一次stat. 文件内容的变化不影响列表, 内容在编译时通过uri读取.
+ * 列出文件时目录刚刚被修改过(文件系统的时间精度内)的列表不可信, 下次查找时重新列出.
+ */
+public class DirectoryIndex {
+
+    /**
+     * 文件系统修改时间的精度, 毫秒
+     */
+    private static final long MTIME_GRANULARITY = 2000;
+
+    /**
+     * key: 包目录的绝对路径
+     */
+    private static final Map<String, Listing> LISTINGS = new ConcurrentHashMap<>();
+
+    /**
+     * 列出目录下的文件
+     *
+     * @param directory
+     * @return 目录不存在时返回空列表
+     */
+    public static List<Item> list(File directory) {
+        String path = directory.getAbsolutePath();
+        long lastModified = directory.lastModified();
+        Listing listing = LISTINGS.get(path);
+        if (listing != null && listing.isValid(lastModified)) {
+            return listing.items;
+        }
+        listing = new Listing(lastModified, System.currentTimeMillis(), listFiles(directory));
+        LISTINGS.put(path, listing);
+        return listing.items;
+    }
+
+    /**
+     * 列出目录下的文件, 转换为 {@link JavaFileObject}
+     *
+     * @param directory
+     * @param packageName
+     * @param kinds
+     * @return
+     */
+    public static List<JavaFileObject> list(File directory, String packageName, Set<JavaFileObject.Kind> kinds) {
+        List<Item> items = list(directory);
+        if (items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<JavaFileObject> result = new ArrayList<>();
+        for (Item item : items) {
+            if (kinds.contains(item.kind)) {
+                result.add(new JavaClassFileObject(item.uri, packageName + "." + item.simpleName, JavaFileObject.Kind.CLASS));
+            }
+        }
+        return result;
+    }
+
+    private static List<Item> listFiles(File directory) {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null || files.length == 0) {
+            return Collections.emptyList();
+        }
+        List<Item> items = new ArrayList<>(files.length);
+        for (File file : files) {
+            String name = file.getName();
+            int extension = name.lastIndexOf('.');
+            items.add(new Item(extension == -1 ? name : name.substring(0, extension), DynamicJavaFileManager.getKind(name), file.toURI()));
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    public static int size() {
+        return LISTINGS.size();
+    }
+
+    public static class Item {
+
+        private final String simpleName;
+
+        private final JavaFileObject.Kind kind;
+
+        private final URI uri;
+
+        Item(String simpleName, JavaFileObject.Kind kind, URI uri) {
+            this.simpleName = simpleName;
+            this.kind = kind;
+            this.uri = uri;
+        }
+
+        public String getSimpleName() {
+            return simpleName;
+        }
+
+        public JavaFileObject.Kind getKind() {
+            return kind;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+    }
+
+    static class Listing {
+
+        private final long lastModified;
+
+        /**
+         * 列出文件时目录刚被修改过, 同一精度内的后续修改不会改变修改时间
+         */
+        private final boolean racy;
+
+        private final List<Item> items;
+
+        Listing(long lastModified, long listTime, List<Item> items) {
+            this.lastModified = lastModified;
+            this.racy = listTime - lastModified < MTIME_GRANULARITY;
+            this.items = items;
+        }
+
+        boolean isValid(long lastModified) {
+            return !racy && this.lastModified == lastModified;
+        }
+    }
+}
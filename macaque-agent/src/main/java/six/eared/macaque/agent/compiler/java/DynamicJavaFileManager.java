@@ -26,6 +26,26 @@ public class DynamicJavaFileManager extends ForwardingJavaFileManager<JavaFileMa
      */
     private final Set<URL> processorPaths;
 
+    /**
+     * 注解处理器的类加载器, 处理器路径不变时在多次编译间复用
+     */
+    private AnnotationProcessorClassloader processorClassLoader;
+
+    /**
+     * 包列表缓存的上限
+     */
+    private static final int MAX_LISTINGS = 2048;
+
+    /**
+     * 可缓存的搜索路径下的包列表, key: packageName + kinds
+     */
+    private final Map<String, List<JavaFileObject>> listings = new LinkedHashMap<String, List<JavaFileObject>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<JavaFileObject>> eldest) {
+            return size() > MAX_LISTINGS;
+        }
+    };
+
     public DynamicJavaFileManager(JavaFileManager fileManager, Set<SearchRoot> classRootPath) {
         super(fileManager);
         this.classRootPath = classRootPath != null ? new HashSet<>(classRootPath) : new HashSet<>();
@@ -38,8 +58,11 @@ public class DynamicJavaFileManager extends ForwardingJavaFileManager<JavaFileMa
     @Override
     public ClassLoader getClassLoader(Location location) {
         if (location == StandardLocation.ANNOTATION_PROCESSOR_PATH) {
-            return new AnnotationProcessorClassloader(processorPaths.toArray(new URL[0]),
-                    this.fileManager.getClass().getClassLoader());
+            if (processorClassLoader == null) {
+                processorClassLoader = new AnnotationProcessorClassloader(processorPaths.toArray(new URL[0]),
+                        this.fileManager.getClass().getClassLoader());
+            }
+            return processorClassLoader;
         }
         return ClassLoader.getSystemClassLoader();
     }
@@ -64,6 +87,13 @@ public class DynamicJavaFileManager extends ForwardingJavaFileManager<JavaFileMa
         return javaFileObject;
     }
 
+    /**
+     * 清除上一次编译的输出, 复用同一个文件管理器时每次编译前调用
+     */
+    public void reset() {
+        byteCodes.clear();
+    }
+
     public List<byte[]> getByteCodes() {
         return byteCodes.values().stream()
                 .map(item -> {
@@ -90,8 +120,22 @@ public class DynamicJavaFileManager extends ForwardingJavaFileManager<JavaFileMa
 
         List<JavaFileObject> result = new ArrayList<>();
         if (location == StandardLocation.CLASS_PATH) {
+            String key = packageName + kinds;
+            List<JavaFileObject> cached = listings.get(key);
+            if (cached == null) {
+                cached = new ArrayList<>();
+                for (SearchRoot searchRoot : classRootPath) {
+                    if (searchRoot.cacheable()) {
+                        cached.addAll(searchRoot.search(packageName, kinds));
+                    }
+                }
+                listings.put(key, cached);
+            }
+            result.addAll(cached);
             for (SearchRoot searchRoot : classRootPath) {
-                result.addAll(searchRoot.search(packageName, kinds));
+                if (!searchRoot.cacheable()) {
+                    result.addAll(searchRoot.search(packageName, kinds));
+                }
             }
         }
         for (JavaFileObject javaFileObject : super.list(location, packageName, kinds, recurse)) {
@@ -104,6 +148,19 @@ public class DynamicJavaFileManager extends ForwardingJavaFileManager<JavaFileMa
     public void close() throws IOException {
         super.close();
         this.classRootPath.forEach(SearchRoot::close);
+        if (processorClassLoader != null) {
+            processorClassLoader.release();
+        }
+    }
+
+    /**
+     * 释放注解处理器的类加载器, 不关闭共享的base file manager和搜索路径
+     */
+    public void release() {
+        if (processorClassLoader != null) {
+            processorClassLoader.release();
+            processorClassLoader = null;
+        }
     }
 
     public static JavaFileObject.Kind getKind(String var0) {
@@ -119,7 +176,12 @@ public class DynamicJavaFileManager extends ForwardingJavaFileManager<JavaFileMa
     public void addProcessorPath(URL processorPath) {
         File file = new File(processorPath.getPath());
         if (file.exists()) {
-            this.processorPaths.add(processorPath);
+            if (this.processorPaths.add(processorPath) && processorClassLoader != null) {
+                // 处理器路径变化, 重新创建类加载器
+                processorClassLoader.release();
+                processorClassLoader = null;
+            }
+            listings.clear();
             try {
                 if (file.isDirectory()) {
                     this.classRootPath.add(new ClasspathSearchRoot(file.getPath()));
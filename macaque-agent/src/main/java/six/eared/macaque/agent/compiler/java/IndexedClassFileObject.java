@@ -0,0 +1,28 @@
+package six.eared.macaque.agent.compiler.java;
+
+import javax.tools.JavaFileObject;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * 通过 {@link ClasspathIndex} 读取的类文件, 直接从jar包的内存映射中读取, 不经过 {@link java.net.JarURLConnection}
+ */
+public class IndexedClassFileObject extends JavaClassFileObject {
+
+    private final ClasspathIndex.JarIndex jarIndex;
+
+    private final ClasspathIndex.Entry entry;
+
+    public IndexedClassFileObject(ClasspathIndex.JarIndex jarIndex, ClasspathIndex.Entry entry) {
+        super(URI.create("jar:" + jarIndex.getFile().toURI() + "!/" + entry.getEntryPath()), entry.getClassName(), JavaFileObject.Kind.CLASS);
+        this.jarIndex = jarIndex;
+        this.entry = entry;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        return new ByteArrayInputStream(jarIndex.read(entry));
+    }
+}
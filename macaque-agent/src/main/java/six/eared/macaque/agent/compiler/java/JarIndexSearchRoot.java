@@ -0,0 +1,54 @@
+package six.eared.macaque.agent.compiler.java;
+
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 基于 {@link ClasspathIndex} 的jar包搜索路径, springboot的fat jar包括 BOOT-INF/classes 和 BOOT-INF/lib 下的jar包
+ */
+public class JarIndexSearchRoot implements SearchRoot {
+
+    private final ClasspathIndex.JarIndex jarIndex;
+
+    private JarIndexSearchRoot(ClasspathIndex.JarIndex jarIndex) {
+        this.jarIndex = jarIndex;
+    }
+
+    /**
+     * @param jar
+     * @return jar包无法建立索引时返回null
+     */
+    public static JarIndexSearchRoot of(File jar) {
+        try {
+            return new JarIndexSearchRoot(ClasspathIndex.getInstance().getJarIndex(jar));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return 依赖jar包是否都在索引中
+     */
+    public boolean isComplete() {
+        return jarIndex.isComplete();
+    }
+
+    @Override
+    public List<JavaFileObject> search(String packageName, Set<JavaFileObject.Kind> kinds) throws IOException {
+        if (!kinds.contains(JavaFileObject.Kind.CLASS)) {
+            return Collections.emptyList();
+        }
+        List<JavaFileObject> result = new ArrayList<>();
+        for (ClasspathIndex.Entry entry : jarIndex.getClasses(packageName, null)) {
+            result.add(new IndexedClassFileObject(jarIndex, entry));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "JarIndexSearchRoot[" + jarIndex.getFile() + "]";
+    }
+}
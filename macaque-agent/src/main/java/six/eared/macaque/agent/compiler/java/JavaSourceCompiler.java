@@ -11,6 +11,7 @@ import javax.tools.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
@@ -25,6 +26,23 @@ public class JavaSourceCompiler implements Compiler {
 
     private StandardJavaFileManager baseFileManager;
 
+    /**
+     * CLASS_PATH中的jar包
+     */
+    private final List<File> jarLibraries = new ArrayList<>();
+
+    /**
+     * 搜索路径的版本号, 新增搜索路径时加一
+     */
+    private volatile int rootsVersion = 0;
+
+    private CompileSession session;
+
+    /**
+     * 正在等待或者正在执行的真实编译数, 不为0时预热让出编译器
+     */
+    private final AtomicInteger pendingCompiles = new AtomicInteger();
+
     private JavaSourceCompiler() throws IOException {
         this.compiler = ToolProvider.getSystemJavaCompiler();
         if (this.compiler == null) {
@@ -72,16 +90,28 @@ public class JavaSourceCompiler implements Compiler {
                     // springboot的jar
                     String startClass = manifest.getMainAttributes().getValue(new Attributes.Name("Start-Class"));
                     if (Objects.nonNull(startClass)) {
+                        // 优先使用jar包的索引, 不需要通过类加载器逐个包查找
+                        JarIndexSearchRoot indexSearchRoot = JarIndexSearchRoot.of(jarAbsolutePath);
+                        if (indexSearchRoot != null) {
+                            this.classPathRoots.add(indexSearchRoot);
+                            if (indexSearchRoot.isComplete()) {
+                                continue;
+                            }
+                        }
+                        // 索引不完整(压缩存储的依赖jar包)时, 剩下的类通过类加载器查找
                         Set<Class<?>> loadedClass = InstrumentationUtil.findLoadedClass(Environment.getInst(), startClass);
                         if (CollectionUtil.isNotEmpty(loadedClass)) {
                             for (Class<?> mainClass : loadedClass) {
-                                this.classPathRoots.add(new ClassLoaderSearchRoot(mainClass.getClassLoader()));
+                                this.classPathRoots.add(new ClassLoaderSearchRoot(mainClass.getClassLoader(),
+                                        indexSearchRoot != null ? jarAbsolutePath : null));
                             }
                         }
                     }
                 }
             }
         }
+        ClasspathIndex.getInstance().flush();
+        this.jarLibraries.addAll(jarSearchPathSet);
         this.baseFileManager.setLocation(StandardLocation.CLASS_PATH, jarSearchPathSet);
         this.baseFileManager.setLocation(StandardLocation.ANNOTATION_PROCESSOR_PATH, Collections.emptyList());
         if (Environment.isDebug()) {
@@ -90,8 +120,10 @@ public class JavaSourceCompiler implements Compiler {
         }
     }
 
-    public void addClassSearchRoot(SearchRoot root) {
-        this.classPathRoots.add(root);
+    public synchronized void addClassSearchRoot(SearchRoot root) {
+        if (this.classPathRoots.add(root)) {
+            this.rootsVersion++;
+        }
     }
 
 
@@ -100,7 +132,7 @@ public class JavaSourceCompiler implements Compiler {
      *
      * @return
      */
-    public static JavaSourceCompiler getInstance() {
+    public synchronized static JavaSourceCompiler getInstance() {
         if (INSTANCE == null) {
             try {
                 INSTANCE = new JavaSourceCompiler();
@@ -120,7 +152,7 @@ public class JavaSourceCompiler implements Compiler {
      * @param userDir
      * @return
      */
-    private static File getJarAbsolutePath(String jarFile, String userDir) {
+    static File getJarAbsolutePath(String jarFile, String userDir) {
         File file = new File(jarFile);
         if (file.exists()) {
             return file;
@@ -139,6 +171,35 @@ public class JavaSourceCompiler implements Compiler {
      */
     @Override
     public List<byte[]> compile(Map<String, byte[]> sourceCodes) throws MemoryCompileException {
+        pendingCompiles.incrementAndGet();
+        try {
+            synchronized (this) {
+                return doCompile(sourceCodes);
+            }
+        } finally {
+            pendingCompiles.decrementAndGet();
+        }
+    }
+
+    /**
+     * 预热使用, 有真实的编译在等待或者执行时不编译
+     *
+     * @param sourceCodes
+     * @return 让出编译器时返回null
+     */
+    public List<byte[]> compileIfIdle(Map<String, byte[]> sourceCodes) throws MemoryCompileException {
+        if (pendingCompiles.get() > 0) {
+            return null;
+        }
+        synchronized (this) {
+            if (pendingCompiles.get() > 0) {
+                return null;
+            }
+            return doCompile(sourceCodes);
+        }
+    }
+
+    private List<byte[]> doCompile(Map<String, byte[]> sourceCodes) throws MemoryCompileException {
         if (Environment.isDebug()) {
             System.out.println("start compile java file: " + sourceCodes.keySet());
         }
@@ -152,9 +213,20 @@ public class JavaSourceCompiler implements Compiler {
         }
         DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
 
-        DynamicJavaFileManager fileManager = new DynamicJavaFileManager(baseFileManager, this.classPathRoots);
-        JavaCompiler.CompilationTask task = this.compiler.getTask(null, fileManager, collector, buildOption(fileManager), null, javaFileObjects);
+        long start = System.currentTimeMillis();
+        CompileSession compileSession = getSession();
+        boolean warm = compileSession.isWarm();
+        DynamicJavaFileManager fileManager = compileSession.getFileManager();
+        fileManager.reset();
+        JavaCompiler.CompilationTask task = this.compiler.getTask(null, fileManager, collector, compileSession.getOptions(), null, javaFileObjects);
         boolean result = task.call();
+        // 编译过程中通过类加载器查找时可能新建了jar包的索引
+        ClasspathIndex.getInstance().flush();
+        compileSession.record(System.currentTimeMillis() - start);
+        if (Environment.isDebug()) {
+            System.out.printf("[JavaSourceCompiler] %s compile %d files, %dms, %s%n", warm ? "warm" : "cold",
+                    sourceCodes.size(), System.currentTimeMillis() - start, getStats());
+        }
         Map<String, List<Diagnostic<? extends JavaFileObject>>> errors = collector.getDiagnostics().stream()
                 .filter(item -> item.getKind() == Diagnostic.Kind.ERROR)
                 .collect(Collectors.groupingBy(diagnostic -> Optional.ofNullable(diagnostic.getSource().getName()).orElse("other")));
@@ -164,19 +236,28 @@ public class JavaSourceCompiler implements Compiler {
         return fileManager.getByteCodes();
     }
 
-    private List<String> buildOption(DynamicJavaFileManager fileManager) {
-        List<String> options = new ArrayList<>();
-        options.add("-Xlint:unchecked");
-        options.add("-g");
-        Set<String> annotationProcessor = null;
-        try {
-            annotationProcessor = fileManager.findAnnotationProcessor();
-        } catch (IOException ignored) {}
-        if (CollectionUtil.isNotEmpty(annotationProcessor)) {
-            options.add("-processor");
-            options.add(String.join(",", annotationProcessor));
+    /**
+     * 获取编译会话, classpath变化时重新创建
+     */
+    private CompileSession getSession() {
+        long fingerprint = CompileSession.fingerprint(rootsVersion, jarLibraries);
+        if (session == null || session.getFingerprint() != fingerprint) {
+            if (session != null) {
+                if (Environment.isDebug()) {
+                    System.out.println("[JavaSourceCompiler] classpath changed, " + session.getStats());
+                }
+                session.close();
+            }
+            session = new CompileSession(baseFileManager, this.classPathRoots, fingerprint);
         }
-        return options;
+        return session;
+    }
+
+    /**
+     * @return 当前编译会话的冷/热编译耗时
+     */
+    public synchronized String getStats() {
+        return session == null ? "[CompileSession] not started" : session.getStats();
     }
 
     private String formatCompileErrorText(Map<String, List<Diagnostic<? extends JavaFileObject>>> errors) {
@@ -194,7 +275,7 @@ public class JavaSourceCompiler implements Compiler {
                 && this.baseFileManager != null;
     }
 
-    private static boolean isJarFile(String classpath) {
+    static boolean isJarFile(String classpath) {
         return classpath.endsWith(".jar") || classpath.endsWith(".zip");
     }
 }
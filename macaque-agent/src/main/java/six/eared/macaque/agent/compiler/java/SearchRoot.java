@@ -16,6 +16,15 @@ public interface SearchRoot {
      */
     public List<JavaFileObject> search(String packageName, Set<JavaFileObject.Kind> kinds) throws IOException;
 
+    /**
+     * 搜索结果是否可以在编译会话中缓存
+     *
+     * @return
+     */
+    default boolean cacheable() {
+        return true;
+    }
+
     default void close() {
 
     }
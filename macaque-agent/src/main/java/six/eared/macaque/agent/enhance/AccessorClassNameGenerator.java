@@ -10,4 +10,14 @@ public class AccessorClassNameGenerator {
     public String generate(String className)  {
         return className + "$macaque$Accessor";
     }
+
+    /**
+     * 生成指定版本的访问器类名, 第一个版本不带版本号
+     * @param className
+     * @param version
+     * @return
+     */
+    public String generate(String className, int version) {
+        return version <= 1 ? generate(className) : generate(className) + "$" + version;
+    }
 }
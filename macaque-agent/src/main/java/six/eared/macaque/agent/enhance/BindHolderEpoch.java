@@ -0,0 +1,71 @@
+package six.eared.macaque.agent.enhance;
+
+import lombok.Getter;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * 一次热加载中一个类生成的holder类
+ */
+@Getter
+public class BindHolderEpoch {
+
+    /**
+     * 目标类
+     */
+    private final String className;
+
+    private final String holderName;
+
+    /**
+     * 目标类的第几次热加载
+     */
+    private final int epoch;
+
+    /**
+     * holder类中bind method的数量
+     */
+    private final int methodCount;
+
+    private final int bytecodeSize;
+
+    /**
+     * 定义holder类前后metaspace已使用大小的差值, 其他线程同时加载类时会偏大, 不可用时为-1
+     */
+    private final long metaspaceUsed;
+
+    /**
+     * 是否是hidden class, 否则定义在单独的子类加载器中
+     */
+    private final boolean hidden;
+
+    private final WeakReference<Class<?>> holder;
+
+    public BindHolderEpoch(String className, String holderName, int epoch, int methodCount, int bytecodeSize,
+                           long metaspaceUsed, boolean hidden, Class<?> holder) {
+        this.className = className;
+        this.holderName = holderName;
+        this.epoch = epoch;
+        this.methodCount = methodCount;
+        this.bytecodeSize = bytecodeSize;
+        this.metaspaceUsed = metaspaceUsed;
+        this.hidden = hidden;
+        this.holder = new WeakReference<>(holder);
+    }
+
+    /**
+     * @return holder类是否已经被卸载
+     */
+    public boolean isUnloaded() {
+        return holder.get() == null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s epoch=%d holder=%s methods=%d bytecode=%dB metaspace=%s %s%s",
+                className, epoch, holderName, methodCount, bytecodeSize,
+                metaspaceUsed < 0 ? "n/a" : metaspaceUsed + "B",
+                hidden ? "hidden" : "child-loader",
+                isUnloaded() ? " unloaded" : "");
+    }
+}
@@ -0,0 +1,196 @@
+package six.eared.macaque.agent.enhance;
+
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.exceptions.EnhanceException;
+import six.eared.macaque.common.util.ClassUtil;
+import six.eared.macaque.common.util.FileUtil;
+import six.eared.macaque.common.util.InstrumentationUtil;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * holder类管理
+ * <p>
+ * 一次热加载中同一个类的所有bind method合并到一个holder类中, 每次热加载生成新的holder类.
+ * JDK15及以上通过 Lookup#defineHiddenClass 在目标类的包中定义为hidden class, 否则定义在单独的子类加载器中.
+ * holder类只被 {@link CallSiteRegistry} 中的 {@link MethodHandle} 引用, 调用点切换之后旧的holder类可以被卸载.
+ */
+public class BindHolderManager {
+
+    /**
+     * 最多保留的epoch记录
+     */
+    private static final int MAX_EPOCHS = 256;
+
+    private static final Deque<BindHolderEpoch> EPOCHS = new ArrayDeque<>();
+
+    /**
+     * key: 目标类, value: 热加载次数
+     */
+    private static final Map<String, Integer> EPOCH_COUNTER = new HashMap<>();
+
+    private static Method defineHiddenClass;
+
+    private static Method privateLookupIn;
+
+    private static Object emptyClassOptions;
+
+    static {
+        if (Environment.getJdkVersion() >= 15) {
+            try {
+                Class<?> classOption = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+                emptyClassOptions = Array.newInstance(classOption, 0);
+                defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                        byte[].class, boolean.class, emptyClassOptions.getClass());
+                privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+            } catch (ReflectiveOperationException e) {
+                defineHiddenClass = null;
+            }
+        }
+    }
+
+    /**
+     * 定义holder类
+     *
+     * @param className  目标类
+     * @param holderName holder类名, 需要和目标类在同一个包中
+     * @param bytecode
+     * @param bindInfos  holder类中的bind method
+     * @return bind method对应的 {@link MethodHandle}, 顺序和bindInfos一致
+     */
+    public static List<MethodHandle> define(String className, String holderName, byte[] bytecode,
+                                            List<MethodBindInfo> bindInfos) throws EnhanceException {
+        if (Environment.isDebug()) {
+            FileUtil.writeBytes(
+                    new File(FileUtil.getProcessTmpPath() + "/compatibility/" + ClassUtil.toSimpleName(holderName) + ".class"),
+                    bytecode);
+        }
+        try {
+            long metaspaceBefore = getMetaspaceUsed();
+            MethodHandles.Lookup lookup = defineHidden(className, bytecode);
+            boolean hidden = lookup != null;
+            Class<?> holder = hidden ? lookup.lookupClass() : new HolderClassLoader().define(holderName, bytecode);
+            if (!hidden) {
+                lookup = MethodHandles.publicLookup();
+            }
+
+            List<MethodHandle> handles = new ArrayList<>(bindInfos.size());
+            for (MethodBindInfo bindInfo : bindInfos) {
+                MethodType methodType = MethodType.fromMethodDescriptorString(bindInfo.getBindMethodDesc(), holder.getClassLoader());
+                handles.add(lookup.findStatic(holder, bindInfo.getBindMethod(), methodType));
+            }
+            long metaspaceAfter = getMetaspaceUsed();
+            record(className, holderName, bindInfos.size(), bytecode.length,
+                    metaspaceBefore < 0 || metaspaceAfter < 0 ? -1 : Math.max(metaspaceAfter - metaspaceBefore, 0),
+                    hidden, holder);
+            return handles;
+        } catch (ReflectiveOperationException e) {
+            throw new EnhanceException(e);
+        }
+    }
+
+    /**
+     * @return 所有holder类, 按定义的顺序
+     */
+    public static synchronized List<BindHolderEpoch> getEpochs() {
+        return new ArrayList<>(EPOCHS);
+    }
+
+    /**
+     * 每个epoch的metaspace占用
+     */
+    public static String report() {
+        List<BindHolderEpoch> epochs = getEpochs();
+        long live = 0, unloaded = 0, liveMetaspace = 0;
+        StringBuilder sb = new StringBuilder();
+        for (BindHolderEpoch epoch : epochs) {
+            if (epoch.isUnloaded()) {
+                unloaded++;
+            } else {
+                live++;
+                liveMetaspace += Math.max(epoch.getMetaspaceUsed(), 0);
+            }
+            sb.append(epoch).append('\n');
+        }
+        sb.append(String.format("live: %d, unloaded: %d, live metaspace: %dB", live, unloaded, liveMetaspace));
+        return sb.toString();
+    }
+
+    /**
+     * JDK15及以上定义成目标类所在包中的hidden class
+     *
+     * @return hidden class的lookup, 不支持或者定义失败时返回null
+     */
+    private static MethodHandles.Lookup defineHidden(String className, byte[] bytecode) {
+        if (defineHiddenClass == null || Environment.getInst() == null) {
+            return null;
+        }
+        Class<?> target = null;
+        for (Class<?> clazz : InstrumentationUtil.findLoadedClass(Environment.getInst(), className)) {
+            if (target == null || clazz.getClassLoader() == CompatibilityModeClassLoader.getClassLoader()) {
+                target = clazz;
+            }
+        }
+        if (target == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup targetLookup = (MethodHandles.Lookup) privateLookupIn.invoke(null, target, MethodHandles.lookup());
+            return (MethodHandles.Lookup) defineHiddenClass.invoke(targetLookup, bytecode, true, emptyClassOptions);
+        } catch (ReflectiveOperationException e) {
+            if (Environment.isDebug()) {
+                System.out.printf("[BindHolderManager] define hidden class error, fallback to child loader, class: %s%n", className);
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    private static synchronized void record(String className, String holderName, int methodCount, int bytecodeSize,
+                                            long metaspaceUsed, boolean hidden, Class<?> holder) {
+        Integer epoch = EPOCH_COUNTER.get(className);
+        epoch = epoch == null ? 1 : epoch + 1;
+        EPOCH_COUNTER.put(className, epoch);
+
+        BindHolderEpoch holderEpoch = new BindHolderEpoch(className, holderName, epoch, methodCount, bytecodeSize,
+                metaspaceUsed, hidden, holder);
+        EPOCHS.addLast(holderEpoch);
+        while (EPOCHS.size() > MAX_EPOCHS) {
+            EPOCHS.removeFirst();
+        }
+        if (Environment.isDebug()) {
+            System.out.printf("[BindHolderManager] define %s%n", holderEpoch);
+        }
+    }
+
+    private static long getMetaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 每个holder类一个类加载器, holder类不再被引用时连同类加载器一起卸载
+     */
+    static class HolderClassLoader extends ClassLoader {
+
+        HolderClassLoader() {
+            super(CompatibilityModeClassLoader.getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] bytecode) {
+            return defineClass(className, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -6,7 +6,13 @@ public class BindMethodNameGenerator {
 
     private static final AtomicInteger COUNTER = new AtomicInteger(1);
 
-    public String generate(String className, String methodName) {
-        return className + "$macaque$" + methodName + "$" + COUNTER.getAndIncrement();
+    /**
+     * 生成holder类的类名, 每次热加载一个新的类名
+     *
+     * @param className
+     * @return
+     */
+    public String generate(String className) {
+        return className + "$macaque$Holder$" + COUNTER.getAndIncrement();
     }
 }
@@ -0,0 +1,199 @@
+package six.eared.macaque.agent.enhance;
+
+import java.lang.invoke.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 新方法的调用点
+ * <p>
+ * 调用新方法的地方编译成 invokedynamic, 通过 {@link #bootstrap} 链接到同一个 {@link MutableCallSite}.
+ * 新方法所在的holder类每次热加载都会重新生成, 通过 {@link #retarget} 切换调用点的目标, 调用方不需要重新增强和重定义.
+ * 调用点只持有当前目标的 {@link MethodHandle}, 旧的holder类没有其他引用后可以被卸载.
+ * <p>
+ * 调用点的类型中访问器统一擦除成 {@link Object}, 增强后的类和holder类都不按类名引用访问器:
+ * 原来的类中的调用点传入被调用的对象({@link #RECEIVER}), 在调用时通过 AccessorCache 转换成访问器;
+ * holder类中访问器的成员通过 {@link #bootstrapAccessor} 链接, 只登记当前版本的访问器, 旧版本的访问器可以被卸载.
+ * class文件版本低于51(java7)的类不能使用invokedynamic, 参数装箱后通过 {@link #invoke} 调用当前的目标.
+ * <p>
+ * 这个类会被定义到系统类加载器中, 只能依赖JDK中的类. agent侧需要通过反射调用系统类加载器中的版本.
+ */
+public final class CallSiteRegistry {
+
+    public static final String BOOTSTRAP_DESC = MethodType.methodType(CallSite.class, MethodHandles.Lookup.class,
+            String.class, MethodType.class, String.class, int.class).toMethodDescriptorString();
+
+    public static final String INVOKE_DESC = MethodType.methodType(Object.class, String.class, int.class, Object[].class)
+            .toMethodDescriptorString();
+
+    /**
+     * 第一个参数是访问器, holder类中新方法之间的调用和静态方法的调用
+     */
+    public static final int ACCESSOR = 0;
+
+    /**
+     * 第一个参数是被调用的对象, 原来的类中调用新方法
+     */
+    public static final int RECEIVER = 1;
+
+    /**
+     * key: 调用点的key, value: 这个key下已经链接的调用点, 按调用点类型区分
+     */
+    private static final Map<String, Map<MethodType, MutableCallSite>> CALL_SITES = new ConcurrentHashMap<>();
+
+    /**
+     * key: 调用点的key, value: 最新的目标
+     */
+    private static final Map<String, MethodHandle> TARGETS = new ConcurrentHashMap<>();
+
+    /**
+     * key: 访问器类名, value: 访问器, 只保留每个类当前版本的访问器
+     */
+    private static final Map<String, Class<?>> ACCESSORS = new ConcurrentHashMap<>();
+
+    /**
+     * key: 外部类类名, value: 当前版本的访问器类名
+     */
+    private static final Map<String, String> CURRENT_ACCESSORS = new ConcurrentHashMap<>();
+
+    private CallSiteRegistry() {
+
+    }
+
+    /**
+     * invokedynamic的引导方法
+     *
+     * @param lookup 调用方
+     * @param name   方法名
+     * @param type   调用点类型, 和bind method的描述一致
+     * @param key    调用点的key
+     * @param kind   {@link #ACCESSOR} 或者 {@link #RECEIVER}
+     * @return
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, String key, int kind) {
+        if (kind == RECEIVER) {
+            key = receiverKey(key);
+        }
+        synchronized (CallSiteRegistry.class) {
+            Map<MethodType, MutableCallSite> callSites = CALL_SITES.get(key);
+            if (callSites == null) {
+                callSites = new HashMap<>();
+                CALL_SITES.put(key, callSites);
+            }
+            MutableCallSite callSite = callSites.get(type);
+            if (callSite != null) {
+                return callSite;
+            }
+            MethodHandle target = TARGETS.get(key);
+            if (target == null) {
+                throw new IllegalStateException("call site not bound, key: " + key);
+            }
+            callSite = new MutableCallSite(adapt(key, target, type));
+            callSites.put(type, callSite);
+            return callSite;
+        }
+    }
+
+    /**
+     * 不能使用invokedynamic的调用方, 每次调用时取最新的目标
+     *
+     * @param key  调用点的key
+     * @param kind {@link #ACCESSOR} 或者 {@link #RECEIVER}
+     * @param args 装箱后的参数
+     * @return 装箱后的返回值, void方法返回null
+     */
+    public static Object invoke(String key, int kind, Object[] args) throws Throwable {
+        MethodHandle target = TARGETS.get(kind == RECEIVER ? receiverKey(key) : key);
+        if (target == null) {
+            throw new IllegalStateException("call site not bound, key: " + key);
+        }
+        return target.invokeWithArguments(args);
+    }
+
+    /**
+     * 切换调用点的目标, 还没有链接的调用点在引导时使用新的目标
+     *
+     * @param key
+     * @param target          新的bind method
+     * @param accessorFactory 被调用的对象转换成访问器, (Object)Object, 静态方法为null
+     */
+    public static void retarget(String key, MethodHandle target, MethodHandle accessorFactory) {
+        synchronized (CallSiteRegistry.class) {
+            doRetarget(key, target);
+            doRetarget(receiverKey(key), accessorFactory == null ? target : MethodHandles.filterArguments(target, 0, accessorFactory));
+        }
+    }
+
+    /**
+     * 登记当前版本的访问器, 同一个类之前版本的访问器不再登记
+     *
+     * @param className     外部类
+     * @param accessorClass
+     */
+    public static void registerAccessor(String className, Class<?> accessorClass) {
+        synchronized (CallSiteRegistry.class) {
+            ACCESSORS.put(accessorClass.getName(), accessorClass);
+            String previous = CURRENT_ACCESSORS.put(className, accessorClass.getName());
+            if (previous != null && !previous.equals(accessorClass.getName())) {
+                ACCESSORS.remove(previous);
+            }
+        }
+    }
+
+    /**
+     * holder类中访问访问器成员的引导方法, 实例成员的第一个参数是访问器, 描述和 {@link #BOOTSTRAP_DESC} 相同
+     *
+     * @param lookup
+     * @param name     访问器的方法名
+     * @param type     调用点类型
+     * @param accessor 访问器类名
+     * @param isStatic 是否是静态方法, 1表示是
+     * @return
+     */
+    public static CallSite bootstrapAccessor(MethodHandles.Lookup lookup, String name, MethodType type, String accessor, int isStatic)
+            throws NoSuchMethodException, IllegalAccessException {
+        Class<?> accessorClass = ACCESSORS.get(accessor);
+        if (accessorClass == null) {
+            throw new IllegalStateException("accessor not registered: " + accessor);
+        }
+        MethodHandles.Lookup publicLookup = MethodHandles.publicLookup();
+        MethodHandle target = isStatic == 1
+                ? publicLookup.findStatic(accessorClass, name, type)
+                : publicLookup.findVirtual(accessorClass, name, type.dropParameterTypes(0, 1));
+        return new ConstantCallSite(target.asType(type));
+    }
+
+    private static String receiverKey(String key) {
+        return key + "#receiver";
+    }
+
+    /**
+     * 已经链接的调用点全部切换到新的目标
+     */
+    private static void doRetarget(String key, MethodHandle target) {
+        TARGETS.put(key, target);
+        Map<MethodType, MutableCallSite> callSites = CALL_SITES.get(key);
+        if (callSites == null || callSites.isEmpty()) {
+            return;
+        }
+        for (MutableCallSite callSite : callSites.values()) {
+            callSite.setTarget(adapt(key, target, callSite.type()));
+        }
+        MutableCallSite.syncAll(callSites.values().toArray(new MutableCallSite[0]));
+    }
+
+    /**
+     * 调用点的类型不会变化, 访问器已经擦除成Object, 新的目标通过asType适配.
+     * 不能适配时(新方法的描述不兼容)调用点改成抛出异常, 不会继续调用旧的目标
+     */
+    private static MethodHandle adapt(String key, MethodHandle target, MethodType type) {
+        try {
+            return target.asType(type);
+        } catch (WrongMethodTypeException e) {
+            MethodHandle thrower = MethodHandles.throwException(type.returnType(), IncompatibleClassChangeError.class)
+                    .bindTo(new IncompatibleClassChangeError("call site " + key + " " + type + " is incompatible with " + target.type()));
+            return MethodHandles.dropArguments(thrower, 0, type.parameterList());
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package six.eared.macaque.agent.enhance;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import six.eared.macaque.agent.accessor.Accessor;
+import six.eared.macaque.agent.asm2.FieldUniqueDesc;
+import six.eared.macaque.agent.asm2.MethodUniqueDesc;
 import six.eared.macaque.agent.asm2.classes.ClazzDefinition;
 import six.eared.macaque.agent.asm2.classes.CorrelationClazzDefinition;
 import six.eared.macaque.agent.enums.CorrelationEnum;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
  * 类更新的增量信息
@@ -34,14 +38,18 @@ public class ClassIncrementUpdate {
     private Accessor accessor;
 
     /**
-     * 本次更新的方法
+     * 本次更新的方法, 按 name+desc 索引, 保持添加顺序
      */
-    private List<MethodUpdateInfo> methods;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Map<MethodUniqueDesc, MethodUpdateInfo> methods;
 
     /**
-     * 本次更新的字段
+     * 本次更新的字段, 按 name+desc 索引, 保持添加顺序
      */
-    private List<FieldUpdateInfo> fields;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Map<FieldUniqueDesc, FieldUpdateInfo> fields;
 
     /**
      * 相关联的其他类
@@ -57,50 +65,60 @@ public class ClassIncrementUpdate {
         this.accessor = accessor;
     }
 
-    public void addMethod(MethodUpdateInfo asmMethod) {
+    /**
+     * 重复的 name+desc 保留第一个
+     */
+    public void addMethod(MethodUpdateInfo methodUpdateInfo) {
         if (this.methods == null) {
-            this.methods = new ArrayList<>();
+            this.methods = new LinkedHashMap<>();
         }
-        this.methods.add(asmMethod);
+        this.methods.putIfAbsent(MethodUniqueDesc.of(methodUpdateInfo.getMethodName(), methodUpdateInfo.getDesc()), methodUpdateInfo);
     }
 
     public void addField(FieldUpdateInfo fieldUpdateInfo) {
         if (this.fields == null) {
-            this.fields = new ArrayList<>();
+            this.fields = new LinkedHashMap<>();
         }
-        this.fields.add(fieldUpdateInfo);
+        this.fields.putIfAbsent(FieldUniqueDesc.of(fieldUpdateInfo.getFieldName(), fieldUpdateInfo.getDesc()), fieldUpdateInfo);
+    }
+
+    /**
+     * @return 按添加顺序, 支持通过迭代器删除
+     */
+    public Collection<MethodUpdateInfo> getMethods() {
+        return this.methods == null ? null : this.methods.values();
+    }
+
+    public Collection<FieldUpdateInfo> getFields() {
+        return this.fields == null ? null : this.fields.values();
     }
 
     public MethodUpdateInfo getMethod(String name, String desc) {
         if (this.methods == null) {
             return null;
         }
-        return this.methods
-                .stream().filter(item -> item.getMethodName().equals(name) && item.getDesc().equals(desc))
-                .findAny().orElse(null);
+        return this.methods.get(MethodUniqueDesc.of(name, desc));
     }
 
     public FieldUpdateInfo getField(String fieldName, String desc) {
         if (this.fields == null) {
             return null;
         }
-        return this.fields
-                .stream().filter(item -> item.getFieldName().equals(fieldName) && item.getDesc().equals(desc))
-                .findAny().orElse(null);
+        return this.fields.get(FieldUniqueDesc.of(fieldName, desc));
     }
 
     public void remove(MethodUpdateInfo methodUpdateInfo) {
-        if (this.methods == null) {
+        if (this.methods == null || methodUpdateInfo == null) {
             return;
         }
-        this.methods.remove(methodUpdateInfo);
+        this.methods.remove(MethodUniqueDesc.of(methodUpdateInfo.getMethodName(), methodUpdateInfo.getDesc()));
     }
 
     public void remove(FieldUpdateInfo fieldUpdateInfo) {
-        if (this.fields == null) {
+        if (this.fields == null || fieldUpdateInfo == null) {
             return;
         }
-        this.fields.remove(fieldUpdateInfo);
+        this.fields.remove(FieldUniqueDesc.of(fieldUpdateInfo.getFieldName(), fieldUpdateInfo.getDesc()));
     }
 
     public void addCorrelationClasses(CorrelationEnum correlation, ClazzDefinition definition) {
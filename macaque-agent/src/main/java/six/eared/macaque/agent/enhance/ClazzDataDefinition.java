@@ -1,12 +1,50 @@
 package six.eared.macaque.agent.enhance;
 
-import lombok.Getter;
-import lombok.Setter;
 import six.eared.macaque.agent.asm2.classes.ClazzDefinition;
 
+import java.util.Arrays;
+
 public class ClazzDataDefinition extends ClazzDefinition {
 
-    @Setter
-    @Getter
     private byte[] bytecode;
+
+    /**
+     * 字节码在共享数组中的位置, 第一次 {@link #getBytecode()} 时才复制出来
+     */
+    private byte[] source;
+
+    private int offset;
+
+    private int length;
+
+    public ClazzDataDefinition(int classVersion, int modifiers, String className, String superClassName, String[] interfaces, String sign) {
+        super(classVersion, modifiers, className, superClassName, interfaces, sign);
+    }
+
+    public byte[] getBytecode() {
+        if (bytecode == null && source != null) {
+            bytecode = Arrays.copyOfRange(source, offset, offset + length);
+            source = null;
+        }
+        return bytecode;
+    }
+
+    public void setBytecode(byte[] bytecode) {
+        this.bytecode = bytecode;
+        this.source = null;
+    }
+
+    /**
+     * 引用共享数组中的一段, 不复制
+     */
+    public void setBytecode(byte[] source, int offset, int length) {
+        if (offset == 0 && length == source.length) {
+            setBytecode(source);
+            return;
+        }
+        this.bytecode = null;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+    }
 }
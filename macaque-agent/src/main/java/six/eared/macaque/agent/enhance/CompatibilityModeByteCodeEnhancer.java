@@ -8,14 +8,14 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import six.eared.macaque.agent.accessor.Accessor;
 import six.eared.macaque.agent.accessor.CompatibilityModeAccessorUtilV2;
-import six.eared.macaque.agent.asm2.AsmClassBuilderExt;
+import six.eared.macaque.agent.accessor.MemberReferences;
+import six.eared.macaque.agent.accessor.util.AccessorCache;
 import six.eared.macaque.agent.asm2.AsmField;
 import six.eared.macaque.agent.asm2.AsmMethod;
 import six.eared.macaque.agent.asm2.AsmUtil;
 import six.eared.macaque.agent.asm2.classes.AsmMethodVisitorCaller;
 import six.eared.macaque.agent.asm2.classes.ClassVisitorDelegation;
 import six.eared.macaque.agent.asm2.classes.ClazzDefinition;
-import six.eared.macaque.agent.enums.CorrelationEnum;
 import six.eared.macaque.agent.env.Environment;
 import six.eared.macaque.agent.exceptions.ByteCodeConvertException;
 import six.eared.macaque.agent.exceptions.EnhanceException;
@@ -25,42 +25,146 @@ import six.eared.macaque.common.util.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
+/**
+ * 兼容模式的字节码增强
+ * <p>
+ * 分成准备和转换两个阶段, 每个阶段内各个类互相独立, 在有界的 {@link ForkJoinPool} 上并行执行.
+ * 转换阶段会查找调用方法的bind info, 所以必须等所有类的准备阶段(新方法注册到 {@link MethodBindManager})都完成之后才能开始.
+ * 并行度为1时在调用线程上顺序执行.
+ */
 public class CompatibilityModeByteCodeEnhancer {
 
+    /**
+     * 默认并行度
+     */
+    public static final int DEFAULT_PARALLELISM = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+
+    private static volatile int parallelism = DEFAULT_PARALLELISM;
+
+    private static ForkJoinPool pool;
+
+    private static final BindMethodNameGenerator HOLDER_NAME_GENERATOR = new BindMethodNameGenerator();
+
+    public static void setParallelism(int parallelism) {
+        CompatibilityModeByteCodeEnhancer.parallelism = Math.max(parallelism, 1);
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
     public static List<ClassIncrementUpdate> enhance(List<ClazzDataDefinition> definitions) throws Exception {
+        // 准备
+        List<ClassIncrementUpdate> changedClass = runPhase(definitions, new Phase<ClazzDataDefinition, ClassIncrementUpdate>() {
+            @Override
+            public ClassIncrementUpdate run(ClazzDataDefinition definition) throws Exception {
+                return prepare(definition);
+            }
+        });
+        // 转换, runPhase返回时上一个阶段已经全部完成
+        runPhase(changedClass, new Phase<ClassIncrementUpdate, ClassIncrementUpdate>() {
+            @Override
+            public ClassIncrementUpdate run(ClassIncrementUpdate incrementUpdate) throws Exception {
+                bytecodeConvert(incrementUpdate);
+                return incrementUpdate;
+            }
+        });
+        if (Environment.isDebug()) {
+            System.out.println(CompatibilityModeAccessorUtilV2.getStats());
+            System.out.println(MethodBindManager.getStats());
+            System.out.println(BindHolderManager.report());
+        }
+        return changedClass;
+    }
+
+    /**
+     * 执行一个阶段, 返回结果和输入的顺序一致, 所有任务结束后才返回
+     */
+    private static <T, R> List<R> runPhase(List<T> items, Phase<T, R> phase) throws Exception {
+        List<R> results = new ArrayList<>(items.size());
+        if (parallelism <= 1 || items.size() <= 1) {
+            for (T item : items) {
+                results.add(phase.run(item));
+            }
+            return results;
+        }
 
-        List<ClassIncrementUpdate> changedClass = new ArrayList<>();
-        for (ClazzDataDefinition definition : definitions) {
-            // 准备
-            ClassIncrementUpdate incrementUpdate = prepare(definition);
-            changedClass.add(incrementUpdate);
+        List<Future<R>> futures = new ArrayList<>(items.size());
+        ForkJoinPool forkJoinPool = getPool();
+        for (final T item : items) {
+            futures.add(forkJoinPool.submit(new Callable<R>() {
+                @Override
+                public R call() throws Exception {
+                    return phase.run(item);
+                }
+            }));
         }
-        for (ClassIncrementUpdate incrementUpdate : changedClass) {
-            // 转换
-            bytecodeConvert(incrementUpdate);
+
+        Throwable error = null;
+        for (Future<R> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                // 等待其他任务结束, 只抛出第一个异常
+                if (error == null) error = e.getCause();
+            }
         }
-        return changedClass;
+        if (error instanceof Exception) {
+            throw (Exception) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return results;
+    }
+
+    private synchronized static ForkJoinPool getPool() {
+        if (pool == null || pool.getParallelism() != parallelism) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger(1);
+
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("macaque-enhancer-" + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, null, false);
+        }
+        return pool;
+    }
+
+    interface Phase<T, R> {
+        R run(T item) throws Exception;
     }
 
     private static ClassIncrementUpdate prepare(ClazzDataDefinition definition) throws IOException, ClassNotFoundException {
-        Accessor accessor = createAccessor(definition.getClassName());
         ClazzDefinition originDefinition = AsmUtil.readOriginClass(definition.getClassName());
-        ClassIncrementUpdate incrementUpdate = new ClassIncrementUpdate(definition, originDefinition, accessor);
+        // 兼容模式不改变原来的类的成员, 新方法是否变化要看这次的类定义
+        long stamp = definition.getMemberSignature();
+        MethodBindManager.validate(definition.getClassName(), stamp);
+        ClassIncrementUpdate incrementUpdate = new ClassIncrementUpdate(definition, originDefinition, null);
 
+        List<MethodUpdateInfo> newMethods = new ArrayList<>();
         AsmUtil.visitClass(definition.getBytecode(), new ClassVisitorDelegation(null) {
             @Override
             public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
                 AsmMethod asmMethod = definition.getMethod(name, desc);
                 MethodUpdateInfo methodUpdateInfo = new MethodUpdateInfo(asmMethod, new AsmMethodVisitorCaller());
                 if (!originDefinition.hasMethod(asmMethod)) {
-                    MethodBindInfo bindInfo = MethodBindManager
-                            .createMethodBindInfo(definition.getClassName(), asmMethod, accessor.getClassName());
-                    methodUpdateInfo.setBindInfo(bindInfo);
+                    newMethods.add(methodUpdateInfo);
                 }
                 incrementUpdate.addMethod(methodUpdateInfo);
                 return methodUpdateInfo.getVisitorCaller();
@@ -74,6 +178,18 @@ public class CompatibilityModeByteCodeEnhancer {
                 return null;
             }
         });
+
+        // 访问器只需要覆盖新方法中引用到的成员
+        MemberReferences references = new MemberReferences();
+        for (MethodUpdateInfo newMethod : newMethods) {
+            references.collect(newMethod.getVisitorCaller().instructions);
+        }
+        Accessor accessor = createAccessor(originDefinition, references);
+        incrementUpdate.setAccessor(accessor);
+        for (MethodUpdateInfo newMethod : newMethods) {
+            newMethod.setBindInfo(MethodBindManager
+                    .createMethodBindInfo(definition.getClassName(), stamp, newMethod.getAsmMethod()));
+        }
         return incrementUpdate;
     }
 
@@ -82,6 +198,12 @@ public class CompatibilityModeByteCodeEnhancer {
         generateNewByteCode(classUpdateInfo);
 
         if (CollectionUtil.isNotEmpty(classUpdateInfo.getMethods())) {
+            // 这个类所有的新方法放到同一个holder类中, 每次热加载生成新的holder类
+            String holderName = HOLDER_NAME_GENERATOR.generate(classUpdateInfo.getClassName());
+            AsmClassBuilder classBuilder = AsmUtil.defineClass(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, holderName, null, null, null);
+            Set<String> bindMethods = new HashSet<>();
+            List<MethodBindInfo> bindInfos = new ArrayList<>();
+
             Iterator<MethodUpdateInfo> iterator = classUpdateInfo.getMethods().iterator();
             while (iterator.hasNext()) {
                 MethodUpdateInfo newMethod = iterator.next();
@@ -89,22 +211,71 @@ public class CompatibilityModeByteCodeEnhancer {
                 if (bindInfo == null) {
                     throw new EnhanceException("not method bind info");
                 }
+                // 同名的静态方法和实例方法的bind method描述可能相同
+                String bindMethod = newMethod.getMethodName();
+                for (int i = 1; !bindMethods.add(bindMethod + bindInfo.getBindMethodDesc()); i++) {
+                    bindMethod = newMethod.getMethodName() + "$" + i;
+                }
+                bindInfo.setBindClass(holderName);
+                bindInfo.setBindMethod(bindMethod);
+
                 BindMethodWriter bindMethodWriter = new BindMethodWriter(newMethod, classUpdateInfo.getAccessor());
-                AsmClassBuilder classBuilder = AsmUtil.defineClass(Opcodes.ACC_PUBLIC, bindInfo.getBindClass(), null, null, null)
-                        .defineMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                classBuilder.defineMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
                                 bindInfo.getBindMethod(), bindInfo.getBindMethodDesc(),
                                 newMethod.getExceptions())
-                        .accept(body -> bindMethodWriter.write(body.getWriter()))
-                        .end();
-                ClazzDataDefinition bindClazzDefinition = AsmClassBuilderExt.toDefinition(classBuilder);
-                if (bindInfo.isLoaded()) {
-                    classUpdateInfo.addCorrelationClasses(CorrelationEnum.METHOD_BIND, bindClazzDefinition);
-                } else {
-                    CompatibilityModeClassLoader.loadClass(bindInfo.getBindClass(), bindClazzDefinition.getBytecode());
-                    bindInfo.setLoaded(true);
-                }
+                        .accept(body -> bindMethodWriter.write(body.getWriter()));
+                bindInfos.add(bindInfo);
                 iterator.remove();
             }
+
+            Class<?> registry = getRuntimeClass(CallSiteRegistry.class);
+            List<MethodHandle> handles = BindHolderManager.define(classUpdateInfo.getClassName(), holderName,
+                    classBuilder.end().toBytecode(), bindInfos);
+            MethodHandle accessorFactory = accessorFactory(classUpdateInfo.getAccessor());
+            for (int i = 0; i < bindInfos.size(); i++) {
+                MethodBindInfo bindInfo = bindInfos.get(i);
+                retarget(registry, bindInfo, handles.get(i), bindInfo.isStatic() ? null : accessorFactory);
+                bindInfo.setLoaded(true);
+            }
+        }
+    }
+
+    /**
+     * @return 系统类加载器中的版本
+     */
+    private static Class<?> getRuntimeClass(Class<?> runtimeClass) throws EnhanceException {
+        try {
+            return CompatibilityModeClassLoader.getRuntimeClass(runtimeClass);
+        } catch (ClassNotFoundException e) {
+            throw new EnhanceException(e);
+        }
+    }
+
+    /**
+     * 被调用的对象转换成访问器, 通过系统类加载器中的 {@link AccessorCache} 获取, 同一个实例复用同一个访问器
+     *
+     * @return (Object)Object
+     */
+    private static MethodHandle accessorFactory(Accessor accessor) throws EnhanceException {
+        try {
+            MethodHandle get = MethodHandles.publicLookup().findStatic(getRuntimeClass(AccessorCache.class), "get",
+                    MethodType.methodType(Object.class, Object.class, Class.class));
+            return MethodHandles.insertArguments(get, 1, accessor.getAccessorClass());
+        } catch (ReflectiveOperationException e) {
+            throw new EnhanceException(e);
+        }
+    }
+
+    /**
+     * 调用点切换到新的holder类
+     */
+    private static void retarget(Class<?> registry, MethodBindInfo bindInfo, MethodHandle target, MethodHandle accessorFactory)
+            throws EnhanceException {
+        try {
+            registry.getMethod("retarget", String.class, MethodHandle.class, MethodHandle.class)
+                    .invoke(null, bindInfo.getCallSiteKey(), target, accessorFactory);
+        } catch (Exception e) {
+            throw new EnhanceException(e);
         }
     }
 
@@ -143,7 +314,7 @@ public class CompatibilityModeByteCodeEnhancer {
             if (visitorCaller == null || visitorCaller.isEmpty()) {
                 throw new ByteCodeConvertException("no bytecode found");
             }
-            visitorCaller.accept(new InvokeCodeConvertor(method, methodWrite));
+            visitorCaller.accept(new InvokeCodeConvertor(method, methodWrite, originClass.getClassVersion()));
             classIncrementUpdate.remove(mi);
         }
         classIncrementUpdate.setEnhancedByteCode(classBuilder.toBytecode());
@@ -156,12 +327,10 @@ public class CompatibilityModeByteCodeEnhancer {
     /**
      * 创建访问器
      *
-     * @param className
+     * @param originDefinition
+     * @param references       新方法中引用到的成员
      */
-    private static Accessor createAccessor(String className) {
-        // 计算深度
-        int deepth = 3;
-        Accessor accessor = CompatibilityModeAccessorUtilV2.createAccessor(className, new AccessorClassNameGenerator(), deepth);
-        return accessor;
+    private static Accessor createAccessor(ClazzDefinition originDefinition, MemberReferences references) {
+        return CompatibilityModeAccessorUtilV2.createAccessor(originDefinition, new AccessorClassNameGenerator(), references);
     }
 }
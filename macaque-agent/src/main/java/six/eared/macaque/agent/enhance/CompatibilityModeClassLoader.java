@@ -1,27 +1,111 @@
 package six.eared.macaque.agent.enhance;
 
 
+import six.eared.macaque.agent.accessor.util.AccessorCache;
 import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.exceptions.EnhanceException;
 import six.eared.macaque.common.util.ClassUtil;
 import six.eared.macaque.common.util.FileUtil;
 import six.eared.macaque.common.util.ReflectUtil;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 
+/**
+ * 兼容模式生成的类的加载
+ * <p>
+ * 运行时依赖的类定义在系统类加载器中. 访问器每个版本定义在单独的子类加载器中, 增强后的类和holder类不按类名引用访问器,
+ * 访问器升级版本后旧版本连同类加载器一起卸载.
+ */
 public class CompatibilityModeClassLoader {
 
-    public synchronized static void loadClass(String className, byte[] bytes) {
+    /**
+     * 增强后的代码在运行时依赖的类
+     */
+    private static final Class<?>[] RUNTIME_CLASSES = {AccessorCache.class, CallSiteRegistry.class};
+
+    private static boolean runtimeLoaded = false;
+
+    /**
+     * 在新的子类加载器中定义访问器和它的linker接口
+     *
+     * @return 访问器
+     */
+    public synchronized static Class<?> defineAccessor(String linkerName, byte[] linker, String accessorName, byte[] accessor) {
+        loadRuntimeClasses();
+        dump(linkerName, linker);
+        dump(accessorName, accessor);
+
+        AccessorClassLoader classLoader = new AccessorClassLoader();
+        classLoader.define(linkerName, linker);
+        return classLoader.define(accessorName, accessor);
+    }
+
+    private static void dump(String className, byte[] bytes) {
         if (Environment.isDebug()) {
             FileUtil.writeBytes(
                     new File(FileUtil.getProcessTmpPath()+"/compatibility/"+ClassUtil.toSimpleName(className)+".class"),
                     bytes);
         }
+    }
 
+    /**
+     * 把运行时依赖的类定义到系统类加载器中, 系统类加载器已经能加载到时跳过
+     */
+    private static void loadRuntimeClasses() {
+        if (runtimeLoaded) {
+            return;
+        }
         ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
-        Class<?> clazz = (Class<?>) ReflectUtil.invokeMethod(systemClassLoader, "defineClass", className, bytes, 0, bytes.length);
+        for (Class<?> runtimeClass : RUNTIME_CLASSES) {
+            try {
+                Class.forName(runtimeClass.getName(), false, systemClassLoader);
+                continue;
+            } catch (ClassNotFoundException e) {
+                // 需要定义
+            }
+            defineRuntimeClass(systemClassLoader, runtimeClass);
+            for (Class<?> innerClass : runtimeClass.getDeclaredClasses()) {
+                defineRuntimeClass(systemClassLoader, innerClass);
+            }
+        }
+        runtimeLoaded = true;
+    }
+
+    /**
+     * @return 系统类加载器中的版本
+     */
+    public synchronized static Class<?> getRuntimeClass(Class<?> runtimeClass) throws ClassNotFoundException {
+        loadRuntimeClasses();
+        return Class.forName(runtimeClass.getName(), true, ClassLoader.getSystemClassLoader());
+    }
+
+    private static void defineRuntimeClass(ClassLoader classLoader, Class<?> runtimeClass) {
+        String path = ClassUtil.className2path(runtimeClass.getName()) + ".class";
+        try (InputStream is = runtimeClass.getClassLoader().getResourceAsStream(path)) {
+            byte[] bytes = FileUtil.is2bytes(is);
+            ReflectUtil.invokeMethod(classLoader, "defineClass", runtimeClass.getName(), bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new EnhanceException(e);
+        }
     }
 
     public static ClassLoader getClassLoader() {
         return ClassLoader.getSystemClassLoader();
     }
+
+    /**
+     * 每个版本的访问器一个类加载器
+     */
+    static class AccessorClassLoader extends ClassLoader {
+
+        AccessorClassLoader() {
+            super(getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] bytecode) {
+            return defineClass(className, bytecode, 0, bytecode.length);
+        }
+    }
 }
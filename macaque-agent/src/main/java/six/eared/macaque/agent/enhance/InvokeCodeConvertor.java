@@ -2,7 +2,6 @@ package six.eared.macaque.agent.enhance;
 
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.MethodNode;
 import six.eared.macaque.agent.accessor.MethodAccessRule;
 import six.eared.macaque.agent.asm2.AsmMethod;
@@ -16,13 +15,22 @@ public class InvokeCodeConvertor extends MethodNode {
 
     private final AsmMethod method;
     private final MethodVisitor write;
-    private int maxArglen = 0;
-    private boolean accessorLoad = false;
 
-    public InvokeCodeConvertor(AsmMethod method, MethodVisitor write) {
+    /**
+     * 所在类的class文件版本
+     */
+    private final int classVersion;
+
+    /**
+     * 是否有调用点退化成了参数装箱的静态调用, 需要额外的操作数栈
+     */
+    private boolean boxedInvoke;
+
+    public InvokeCodeConvertor(AsmMethod method, MethodVisitor write, int classVersion) {
         super(Opcodes.ASM9);
         this.method = method;
         this.write = write;
+        this.classVersion = classVersion;
     }
 
     @Override
@@ -30,19 +38,21 @@ public class InvokeCodeConvertor extends MethodNode {
         MethodBindInfo bindInfo = MethodBindManager.getBindInfo(ClassUtil.classpath2name(owner), name,
                 desc, opcode == Opcodes.INVOKESTATIC);
         if (bindInfo != null) {
-            this.maxArglen = Math.max(Type.getArgumentTypes(desc).length, maxArglen);
-            this.accessorLoad = opcode != Opcodes.INVOKESTATIC;
-            MethodAccessRule accessRule = bindInfo.getAccessRule(false);
+            MethodAccessRule accessRule = bindInfo.getAccessRule(false, classVersion);
             accessRule.access(this.instructions, opcode, owner, name, desc, itf);
+            boxedInvoke |= (classVersion & 0xFFFF) < Opcodes.V1_7;
             return;
         }
         super.visitMethodInsn(opcode, owner, name, desc, itf);
     }
 
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        super.visitMaxs(boxedInvoke ? maxStack + 4 : maxStack, maxLocals);
+    }
+
     @Override
     public void visitEnd() {
-        int minStack = maxArglen + (accessorLoad ? 3 : 0);
-        this.maxStack = Math.max(minStack, maxStack);
         super.visitEnd();
         this.accept(write);
     }
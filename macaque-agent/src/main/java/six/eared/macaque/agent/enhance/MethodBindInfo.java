@@ -1,6 +1,7 @@
 package six.eared.macaque.agent.enhance;
 
 import lombok.Data;
+import org.objectweb.asm.Opcodes;
 import six.eared.macaque.agent.accessor.MethodAccessRule;
 import six.eared.macaque.agent.accessor.NewMethodAccessRule;
 import six.eared.macaque.agent.asm2.classes.AsmMethodVisitorCaller;
@@ -12,7 +13,7 @@ import java.util.Objects;
 public class MethodBindInfo implements Cloneable {
 
     /**
-     * 目标类
+     * 当前所在的holder类, 每次热加载都会变化
      */
     private String bindClass;
 
@@ -27,9 +28,9 @@ public class MethodBindInfo implements Cloneable {
     private String bindMethodDesc;
 
     /**
-     * 访问器名称
+     * 调用点的key, 新方法重新绑定到其他holder类时保持不变
      */
-    private String accessorClass;
+    private String callSiteKey;
 
     /**
      * 是否是静态方法
@@ -67,9 +68,13 @@ public class MethodBindInfo implements Cloneable {
     }
 
     public MethodAccessRule getAccessRule(boolean bindAccess) {
-        if (isStatic) {
-            return MethodAccessRule.forward(true, bindClass, bindMethod, bindMethodDesc);
-        }
-        return new NewMethodAccessRule(this, bindAccess);
+        return new NewMethodAccessRule(this, bindAccess, true);
+    }
+
+    /**
+     * @param classVersion 调用方的class文件版本, 低于51(java7)时不能使用invokedynamic
+     */
+    public MethodAccessRule getAccessRule(boolean bindAccess, int classVersion) {
+        return new NewMethodAccessRule(this, bindAccess, (classVersion & 0xFFFF) >= Opcodes.V1_7);
     }
 }
@@ -2,49 +2,76 @@ package six.eared.macaque.agent.enhance;
 
 import six.eared.macaque.agent.asm2.AsmMethod;
 import six.eared.macaque.agent.asm2.AsmUtil;
-import six.eared.macaque.agent.asm2.ClassMethodUniqueDesc;
+import six.eared.macaque.agent.asm2.MethodUniqueDesc;
 import six.eared.macaque.agent.asm2.classes.AsmMethodVisitorCaller;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MethodBindManager {
 
-    private static final BindMethodNameGenerator CLASS_NAME_GENERATOR = new BindMethodNameGenerator();
-
     /**
      * 只有新方法才有bind info
+     * key: 类名, value: 这个类所有新方法的bind info, 新的类定义的成员签名变化时整体失效
+     */
+    private static final StampedCache<String, Map<MethodUniqueDesc, MethodBindInfo>> BIND_INFOS = new StampedCache<>("BindInfoCache");
+
+    /**
+     * 新的类定义的成员签名变化时, 之前注册的新方法全部作废
+     *
+     * @param clazzName
+     * @param stamp     这次热加载的类定义的成员签名
      */
-    private static final Map<ClassMethodUniqueDesc, MethodBindInfo> BIND_INFO_MAP = new HashMap<>();
+    public static void validate(String clazzName, long stamp) {
+        BIND_INFOS.validate(clazzName, stamp);
+    }
 
-    public static MethodBindInfo createMethodBindInfo(String clazzName, AsmMethod method, String accessorName) {
-        MethodBindInfo bindInfo = getBindInfo(clazzName, method.getMethodName(), method.getDesc(), method.isStatic());
+    /**
+     * 并行增强时多个类会同时注册, 保证同一个方法只生成一个bind info. 已经注册的bind info直接返回, 不会修改,
+     * bind method的描述中访问器擦除成Object, 访问器升级版本时不需要变化
+     */
+    public synchronized static MethodBindInfo createMethodBindInfo(String clazzName, long stamp, AsmMethod method) {
+        Map<MethodUniqueDesc, MethodBindInfo> bindInfos = BIND_INFOS.get(clazzName, stamp);
+        if (bindInfos == null) {
+            bindInfos = new ConcurrentHashMap<>();
+            BIND_INFOS.put(clazzName, stamp, bindInfos);
+        }
+        MethodUniqueDesc uniqueDesc = toUniqueDesc(method.getMethodName(), method.getDesc(), method.isStatic());
+        MethodBindInfo bindInfo = bindInfos.get(uniqueDesc);
         if (bindInfo != null) {
             return bindInfo;
         }
 
+        // bind class和bind method在转换阶段生成holder类时确定
         String bindMethodName = method.getMethodName();
-        String bindClassName = CLASS_NAME_GENERATOR.generate(clazzName, bindMethodName);
-
         MethodBindInfo methodBindInfo = new MethodBindInfo();
-        methodBindInfo.setBindClass(bindClassName);
         methodBindInfo.setBindMethod(bindMethodName);
-        methodBindInfo.setBindMethodDesc(method.isStatic()?method.getDesc():AsmUtil.addArgsDesc(method.getDesc(), accessorName, true));
+        // 访问器擦除成Object, 访问器升级版本时bind method的描述不变
+        methodBindInfo.setBindMethodDesc(method.isStatic()?method.getDesc():AsmUtil.addArgsDesc(method.getDesc(), Object.class.getName(), true));
         methodBindInfo.setStatic(method.isStatic());
-        methodBindInfo.setAccessorClass(accessorName);
+        methodBindInfo.setCallSiteKey(clazzName + "#" + (method.isStatic() ? "static#" : "") + bindMethodName + method.getDesc());
         methodBindInfo.setVisitorCaller(new AsmMethodVisitorCaller());
 
-        putBindInfo(clazzName, bindMethodName, method.getDesc(), method.isStatic(), methodBindInfo);
+        bindInfos.put(uniqueDesc, methodBindInfo);
         return methodBindInfo;
     }
 
-    private static void putBindInfo(String clazzName, String methodName, String desc, boolean isStatic, MethodBindInfo methodBindInfo) {
-        if (isStatic) methodName = "static#"+methodName;
-        BIND_INFO_MAP.put(ClassMethodUniqueDesc.of(clazzName, methodName, desc), methodBindInfo);
+    /**
+     * 转换每一条方法调用指令时都会查询, 不加锁
+     */
+    public static MethodBindInfo getBindInfo(String clazzName, String methodName, String desc, boolean isStatic) {
+        Map<MethodUniqueDesc, MethodBindInfo> bindInfos = BIND_INFOS.get(clazzName);
+        if (bindInfos == null) {
+            return null;
+        }
+        return bindInfos.get(toUniqueDesc(methodName, desc, isStatic));
+    }
+
+    public static String getStats() {
+        return BIND_INFOS.getStats();
     }
 
-    public static MethodBindInfo getBindInfo(String clazzName, String methodName, String desc, boolean isStatic) {
-        if (isStatic) methodName = "static#"+methodName;
-        return BIND_INFO_MAP.get(ClassMethodUniqueDesc.of(clazzName, methodName, desc));
+    private static MethodUniqueDesc toUniqueDesc(String methodName, String desc, boolean isStatic) {
+        return MethodUniqueDesc.of(isStatic ? "static#" + methodName : methodName, desc);
     }
 }
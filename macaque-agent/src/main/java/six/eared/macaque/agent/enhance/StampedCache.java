@@ -0,0 +1,139 @@
+package six.eared.macaque.agent.enhance;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带版本戳的并发缓存
+ * <p>
+ * 每个条目记录创建时目标类的成员签名(见 {@link six.eared.macaque.agent.asm2.classes.ClazzDefinition#getMemberSignature()})和写入时的代数.
+ * 读取不加锁, 带签名读取时签名不一致的条目直接失效. 命中、未命中、失效和重建的次数通过 {@link #getStats()} 输出.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class StampedCache<K, V> {
+
+    private final String name;
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    private final LongAdder rebuilds = new LongAdder();
+
+    public StampedCache(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 不校验签名的读取
+     *
+     * @param key
+     * @return 不存在时返回null
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * 签名不一致时条目失效
+     *
+     * @param key
+     * @param stamp 目标类当前的成员签名
+     * @return 不存在或者已经失效时返回null
+     */
+    public V get(K key, long stamp) {
+        validate(key, stamp);
+        return get(key);
+    }
+
+    /**
+     * 校验条目的签名, 不一致时移除, 不计入命中和未命中
+     *
+     * @param key
+     * @param stamp 目标类当前的成员签名
+     * @return 条目是否仍然有效, 不存在时返回false
+     */
+    public boolean validate(K key, long stamp) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.stamp != stamp) {
+            if (entries.remove(key, entry)) {
+                invalidations.increment();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 写入新的条目, 替换已有条目时记为一次重建
+     *
+     * @param key
+     * @param stamp 目标类当前的成员签名
+     * @param value
+     * @return 写入时的代数
+     */
+    public long put(K key, long stamp, V value) {
+        long gen = generation.incrementAndGet();
+        if (entries.put(key, new Entry<>(value, stamp, gen)) != null) {
+            rebuilds.increment();
+        }
+        return gen;
+    }
+
+    /**
+     * @return 条目写入时的代数, 不存在时返回-1
+     */
+    public long getGeneration(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null ? -1 : entry.generation;
+    }
+
+    public void invalidate(K key) {
+        if (entries.remove(key) != null) {
+            invalidations.increment();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public String getStats() {
+        return String.format("[%s] size: %d, generation: %d, hit: %d, miss: %d, invalidate: %d, rebuild: %d",
+                name, entries.size(), generation.get(), hits.sum(), misses.sum(), invalidations.sum(), rebuilds.sum());
+    }
+
+    static class Entry<V> {
+
+        private final V value;
+
+        private final long stamp;
+
+        private final long generation;
+
+        Entry(V value, long stamp, long generation) {
+            this.value = value;
+            this.stamp = stamp;
+            this.generation = generation;
+        }
+    }
+}
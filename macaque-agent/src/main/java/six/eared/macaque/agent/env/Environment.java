@@ -1,6 +1,7 @@
 package six.eared.macaque.agent.env;
 
 import six.eared.macaque.common.util.FileUtil;
+import six.eared.macaque.common.util.LoadedClassIndex;
 
 import java.io.File;
 import java.io.IOException;
@@ -46,6 +47,12 @@ public class Environment {
         Environment.DEBUG = debug;
         Environment.INST = inst;
 
+        // 已加载类的索引, 替代 inst.getAllLoadedClasses() 的全量扫描
+        LoadedClassIndex classIndex = LoadedClassIndex.install(inst);
+        if (debug) {
+            System.out.printf("[Environment] loaded class index ready, size: [%d]%n", classIndex.size());
+        }
+
         INIT_FLAG = true;
     }
 
@@ -0,0 +1,449 @@
+package six.eared.macaque.agent.hotswap;
+
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.common.util.ClassUtil;
+import six.eared.macaque.common.util.CollectionUtil;
+import six.eared.macaque.common.util.FileUtil;
+import six.eared.macaque.common.util.InstrumentationUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 已安装字节码的存储, 按 ClassLoader + 类名 记录
+ * <p>
+ * 注册为可retransform的 {@link ClassFileTransformer}. 通过 {@link ClassHotSwapper} 重定义的类在重定义后记录;
+ * 其他已经加载的类(attach之前加载的类)在第一次查找时retransform一次, 由transformer记录JVM当前持有的字节码, 不提前记录.
+ * 开启 recordOnLoad 时额外在类加载时记录, 这会在每次类加载时压缩一次字节码, 只建议在需要时开启.
+ * 字节码压缩后保存在内存中, 超过上限时按LRU淘汰, 开启spill时被淘汰的条目写入临时目录下的内存映射文件.
+ * ClassLoader被回收后对应的条目(包括spill的索引)随之清除. bootstrap classloader加载的类不记录.
+ */
+public class BytecodeStore implements ClassFileTransformer {
+
+    /**
+     * 默认内存上限, 压缩后的大小
+     */
+    public static final long DEFAULT_MEMORY_LIMIT = 32L * 1024 * 1024;
+
+    /**
+     * 默认spill文件大小
+     */
+    public static final int DEFAULT_SPILL_SIZE = 128 * 1024 * 1024;
+
+    private static volatile BytecodeStore INSTANCE = null;
+
+    private final Instrumentation inst;
+
+    /**
+     * 是否在类加载时记录
+     */
+    private final boolean recordOnLoad;
+
+    private final long memoryLimit;
+
+    private final int spillSize;
+
+    /**
+     * value: 压缩后的字节码, 按访问顺序排列
+     */
+    private final LinkedHashMap<Key, byte[]> memory = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long memorySize = 0;
+
+    /**
+     * value: {offset, length}
+     */
+    private final Map<Key, int[]> spilled = new HashMap<>();
+
+    /**
+     * 被回收的ClassLoader, 对应的条目在下一次访问时清除
+     */
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+
+    /**
+     * 正在通过retransform读取字节码的类
+     */
+    private final Set<Class<?>> capturing = ConcurrentHashMap.newKeySet();
+
+    private MappedByteBuffer spillBuffer;
+
+    private int spillPos = 0;
+
+    private BytecodeStore(Instrumentation inst, boolean recordOnLoad, long memoryLimit, int spillSize) {
+        this.inst = inst;
+        this.recordOnLoad = recordOnLoad;
+        this.memoryLimit = memoryLimit;
+        this.spillSize = spillSize;
+    }
+
+    /**
+     * @param inst
+     * @param recordOnLoad 是否在类加载时记录, 为false时只记录重定义过的类
+     * @param memoryLimit  内存上限, 字节
+     * @param spillSize    spill文件大小, 字节, 小于等于0时不开启spill
+     * @return
+     */
+    public synchronized static BytecodeStore install(Instrumentation inst, boolean recordOnLoad, long memoryLimit, int spillSize) {
+        if (INSTANCE != null && INSTANCE.inst == inst) {
+            return INSTANCE;
+        }
+        BytecodeStore store = new BytecodeStore(inst, recordOnLoad, memoryLimit, spillSize);
+        if (spillSize > 0) {
+            FileUtil.getProcessTmpPath();
+        }
+        // transform中用到的类需要提前加载, 否则在transform中触发类加载会重入自身
+        ClassLoader loader = BytecodeStore.class.getClassLoader();
+        store.put(loader, BytecodeStore.class.getName(), new byte[0]);
+        store.get(loader, BytecodeStore.class.getName());
+        store.remove(loader, BytecodeStore.class.getName());
+        store.capturing.contains(BytecodeStore.class);
+        inst.addTransformer(store, inst.isRetransformClassesSupported());
+        INSTANCE = store;
+        return store;
+    }
+
+    /**
+     * @return 未安装时返回null
+     */
+    public static BytecodeStore getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        boolean record = classBeingRedefined == null ? recordOnLoad : capturing.contains(classBeingRedefined);
+        if (record && loader != null && className != null && classfileBuffer != null) {
+            try {
+                put(loader, ClassUtil.classpath2name(className), classfileBuffer);
+            } catch (Throwable e) {
+                // ignore, transformer中不能抛出异常
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 记录重定义成功的类
+     */
+    public void installed(Class<?> clazz, byte[] bytecode) {
+        if (clazz.getClassLoader() != null) {
+            put(clazz.getClassLoader(), clazz.getName(), bytecode);
+        }
+    }
+
+    /**
+     * 按类名获取当前安装的字节码, 没有记录的类retransform一次读取. 同名的类被多个ClassLoader加载时,
+     * 只有所有的类的字节码相同才返回, 不会返回其他ClassLoader下的字节码
+     *
+     * @param className
+     * @return 没有加载、无法读取或者无法确定时返回null
+     */
+    public byte[] getInstalled(String className) {
+        Set<Class<?>> loadedClass = InstrumentationUtil.findLoadedClass(inst, className);
+        if (!CollectionUtil.isNotEmpty(loadedClass)) {
+            return null;
+        }
+        byte[] installed = null;
+        for (Class<?> clazz : loadedClass) {
+            byte[] bytecode = getInstalled(clazz);
+            if (bytecode == null || (installed != null && !Arrays.equals(installed, bytecode))) {
+                return null;
+            }
+            installed = bytecode;
+        }
+        return installed;
+    }
+
+    /**
+     * @param clazz
+     * @return 类当前安装的字节码, 没有记录时retransform一次读取, 无法读取时返回null
+     */
+    public byte[] getInstalled(Class<?> clazz) {
+        ClassLoader loader = clazz.getClassLoader();
+        if (loader == null) {
+            return null;
+        }
+        byte[] bytecode = get(loader, clazz.getName());
+        if (bytecode == null && capture(clazz)) {
+            bytecode = get(loader, clazz.getName());
+        }
+        return bytecode;
+    }
+
+    /**
+     * 只使用已有的记录判断, 不retransform
+     *
+     * @param className
+     * @param bytecode
+     * @return 所有加载的同名类都有记录并且和给定的字节码相同
+     */
+    public boolean isInstalled(String className, byte[] bytecode) {
+        Set<Class<?>> loadedClass = InstrumentationUtil.findLoadedClass(inst, className);
+        if (!CollectionUtil.isNotEmpty(loadedClass)) {
+            return false;
+        }
+        for (Class<?> clazz : loadedClass) {
+            byte[] installed = clazz.getClassLoader() == null ? null : get(clazz.getClassLoader(), className);
+            if (installed == null || !Arrays.equals(installed, bytecode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * retransform一次, transformer记录JVM当前持有的字节码(最初定义或者最后一次重定义的字节码), 不修改类
+     *
+     * @return 是否执行了retransform
+     */
+    private boolean capture(Class<?> clazz) {
+        if (!inst.isRetransformClassesSupported() || !inst.isModifiableClass(clazz)) {
+            return false;
+        }
+        capturing.add(clazz);
+        try {
+            inst.retransformClasses(clazz);
+            return true;
+        } catch (Throwable e) {
+            if (Environment.isDebug()) {
+                System.out.println("[BytecodeStore] capture error: " + clazz.getName());
+                e.printStackTrace();
+            }
+            return false;
+        } finally {
+            capturing.remove(clazz);
+        }
+    }
+
+    public byte[] get(ClassLoader loader, String className) {
+        Key key = new Key(loader, className, collected);
+        byte[] compressed;
+        synchronized (this) {
+            expunge();
+            compressed = memory.get(key);
+            if (compressed == null) {
+                compressed = readSpilled(key);
+                if (compressed != null) {
+                    // 重新放回内存
+                    spilled.remove(key);
+                    putCompressed(key, compressed);
+                }
+            }
+        }
+        return compressed == null ? null : decompress(compressed);
+    }
+
+    public void put(ClassLoader loader, String className, byte[] bytecode) {
+        Key key = new Key(loader, className, collected);
+        byte[] compressed = compress(bytecode);
+        synchronized (this) {
+            expunge();
+            spilled.remove(key);
+            putCompressed(key, compressed);
+        }
+    }
+
+    public synchronized void remove(ClassLoader loader, String className) {
+        remove(new Key(loader, className, null));
+    }
+
+    private void remove(Key key) {
+        byte[] old = memory.remove(key);
+        if (old != null) {
+            memorySize -= old.length;
+        }
+        spilled.remove(key);
+    }
+
+    /**
+     * 清除ClassLoader已经被回收的条目
+     */
+    private void expunge() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = collected.poll()) != null) {
+            remove(((LoaderRef) ref).key);
+        }
+    }
+
+    public synchronized int size() {
+        expunge();
+        return memory.size() + spilled.size();
+    }
+
+    public boolean isRecordOnLoad() {
+        return recordOnLoad;
+    }
+
+    private void putCompressed(Key key, byte[] compressed) {
+        byte[] old = memory.put(key, compressed);
+        if (old != null) {
+            memorySize -= old.length;
+        }
+        memorySize += compressed.length;
+
+        Iterator<Map.Entry<Key, byte[]>> iterator = memory.entrySet().iterator();
+        while (memorySize > memoryLimit && iterator.hasNext()) {
+            Map.Entry<Key, byte[]> eldest = iterator.next();
+            if (eldest.getKey().equals(key)) {
+                break;
+            }
+            iterator.remove();
+            memorySize -= eldest.getValue().length;
+            spill(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void spill(Key key, byte[] compressed) {
+        if (spillSize <= 0 || compressed.length > spillSize) {
+            return;
+        }
+        try {
+            if (spillBuffer == null) {
+                File file = new File(FileUtil.getProcessTmpPath(), "bytecode-store.bin");
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    spillBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, spillSize);
+                }
+            }
+            if (spillPos + compressed.length > spillSize) {
+                // 写满之后从头开始, 之前spill的条目全部作废
+                spilled.clear();
+                spillPos = 0;
+            }
+            ByteBuffer buffer = spillBuffer.duplicate();
+            buffer.position(spillPos);
+            buffer.put(compressed);
+            spilled.put(key, new int[]{spillPos, compressed.length});
+            spillPos += compressed.length;
+        } catch (IOException e) {
+            if (Environment.isDebug()) {
+                System.out.println("[BytecodeStore] spill error");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private byte[] readSpilled(Key key) {
+        int[] location = spilled.get(key);
+        if (location == null) {
+            return null;
+        }
+        byte[] compressed = new byte[location[1]];
+        ByteBuffer buffer = spillBuffer.duplicate();
+        buffer.position(location[0]);
+        buffer.get(compressed);
+        return compressed;
+    }
+
+    private static byte[] compress(byte[] bytecode) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytecode);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytecode.length / 2 + 16);
+            // 前4个字节记录原始长度
+            out.write(bytecode.length >>> 24);
+            out.write(bytecode.length >>> 16);
+            out.write(bytecode.length >>> 8);
+            out.write(bytecode.length);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buffer);
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed) {
+        int length = ((compressed[0] & 0xFF) << 24) | ((compressed[1] & 0xFF) << 16)
+                | ((compressed[2] & 0xFF) << 8) | (compressed[3] & 0xFF);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, 4, compressed.length - 4);
+            byte[] bytecode = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                offset += inflater.inflate(bytecode, offset, length - offset);
+            }
+            return bytecode;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * ClassLoader只持有弱引用, 被回收后的条目不会再命中, 引用进入队列后清除
+     */
+    static class Key {
+
+        private final LoaderRef loader;
+
+        private final String className;
+
+        private final int hash;
+
+        /**
+         * @param queue 为null时不跟踪回收, 只用于查找
+         */
+        Key(ClassLoader loader, String className, ReferenceQueue<ClassLoader> queue) {
+            this.loader = new LoaderRef(loader, queue, this);
+            this.className = className;
+            this.hash = System.identityHashCode(loader) * 31 + className.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            ClassLoader classLoader = loader.get();
+            return hash == other.hash && className.equals(other.className)
+                    && classLoader != null && classLoader == other.loader.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    static class LoaderRef extends WeakReference<ClassLoader> {
+
+        private final Key key;
+
+        LoaderRef(ClassLoader loader, ReferenceQueue<ClassLoader> queue, Key key) {
+            super(loader, queue);
+            this.key = key;
+        }
+    }
+}
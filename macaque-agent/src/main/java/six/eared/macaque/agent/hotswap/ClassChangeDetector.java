@@ -0,0 +1,133 @@
+package six.eared.macaque.agent.hotswap;
+
+import six.eared.macaque.agent.asm2.AsmField;
+import six.eared.macaque.agent.asm2.AsmMethod;
+import six.eared.macaque.agent.asm2.AsmUtil;
+import six.eared.macaque.agent.asm2.classes.ClazzDefinition;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * 方法级别的结构化对比
+ * <p>
+ * 对比新字节码和当前安装的版本, 按方法比较归一化之后的指令流, 常量池顺序、行号表、局部变量表的差异不算做方法体变更.
+ * 当前安装的版本只从 {@link BytecodeStore} 读取, 没有记录的类由它retransform一次得到JVM当前持有的字节码,
+ * 第一次热加载也可以对比. 无法读取时按有变化处理, 不读取类加载器中的class文件.
+ */
+public class ClassChangeDetector {
+
+    public enum ChangeType {
+
+        /**
+         * 结构和调试信息都没有变化
+         */
+        UNCHANGED,
+
+        /**
+         * 只有行号表、局部变量表、源文件名等调试信息变化
+         */
+        DEBUG_ONLY,
+
+        /**
+         * 方法体、注解、泛型签名等变化, 可以直接重定义
+         */
+        BODY_CHANGED,
+
+        /**
+         * 字段、方法、父类、接口或者修饰符变化
+         */
+        SCHEMA_CHANGED,
+        ;
+
+        /**
+         * 是否可以跳过重定义
+         */
+        public boolean skippable() {
+            return this == UNCHANGED || this == DEBUG_ONLY;
+        }
+    }
+
+    /**
+     * 和当前安装的版本对比
+     *
+     * @param className
+     * @param bytecode  新的字节码
+     * @return 找不到当前安装的版本时返回 {@link ChangeType#BODY_CHANGED}
+     */
+    public static ChangeType detect(String className, byte[] bytecode) {
+        ClazzDefinition installed = getInstalledDefinition(className);
+        if (installed == null) {
+            return ChangeType.BODY_CHANGED;
+        }
+        return diff(installed, AsmUtil.readClassDigest(bytecode));
+    }
+
+    /**
+     * @param installed 需要通过 {@link AsmUtil#readClassDigest(byte[])} 读取
+     * @param updated   需要通过 {@link AsmUtil#readClassDigest(byte[])} 读取
+     * @return
+     */
+    public static ChangeType diff(ClazzDefinition installed, ClazzDefinition updated) {
+        if (schemaChanged(installed, updated)) {
+            return ChangeType.SCHEMA_CHANGED;
+        }
+        if (!Objects.equals(installed.getSign(), updated.getSign())
+                || !Objects.equals(installed.getAnnotationDigest(), updated.getAnnotationDigest())) {
+            return ChangeType.BODY_CHANGED;
+        }
+
+        boolean debugChanged = !Objects.equals(installed.getDebugDigest(), updated.getDebugDigest());
+        for (AsmMethod method : updated.getAsmMethods()) {
+            AsmMethod origin = installed.getMethod(method.getMethodName(), method.getDesc());
+            if (!Objects.equals(origin.getCodeDigest(), method.getCodeDigest())
+                    || !Objects.equals(origin.getMethodSign(), method.getMethodSign())
+                    || !Arrays.equals(origin.getExceptions(), method.getExceptions())) {
+                return ChangeType.BODY_CHANGED;
+            }
+            debugChanged |= !Objects.equals(origin.getDebugDigest(), method.getDebugDigest());
+        }
+        return debugChanged ? ChangeType.DEBUG_ONLY : ChangeType.UNCHANGED;
+    }
+
+    private static boolean schemaChanged(ClazzDefinition installed, ClazzDefinition updated) {
+        if (installed.getModifiers() != updated.getModifiers()
+                || !Objects.equals(installed.getSuperClassName(), updated.getSuperClassName())
+                || !Arrays.equals(installed.getInterfaces(), updated.getInterfaces())) {
+            return true;
+        }
+
+        if (installed.getAsmFields().size() != updated.getAsmFields().size()) {
+            return true;
+        }
+        for (AsmField field : updated.getAsmFields()) {
+            AsmField origin = installed.getField(field.getFieldName(), field.getDesc());
+            if (origin == null || origin.getModifier() != field.getModifier()
+                    || !Objects.equals(origin.getFieldSign(), field.getFieldSign())
+                    || !Objects.equals(origin.getValue(), field.getValue())) {
+                return true;
+            }
+        }
+
+        if (installed.getAsmMethods().size() != updated.getAsmMethods().size()) {
+            return true;
+        }
+        for (AsmMethod method : updated.getAsmMethods()) {
+            AsmMethod origin = installed.getMethod(method.getMethodName(), method.getDesc());
+            if (origin == null || origin.getModifier() != method.getModifier()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 只使用JVM中安装的字节码作为对比的基准. 类加载器中的class文件(比如 build/classes 目录)可能已经是新的字节码,
+     * 用它对比会把真正的修改误判为没有变化
+     */
+    private static ClazzDefinition getInstalledDefinition(String className) {
+        BytecodeStore bytecodeStore = BytecodeStore.getInstance();
+        byte[] bytecode = bytecodeStore == null ? null : bytecodeStore.getInstalled(className);
+        return bytecode == null ? null : AsmUtil.readClassDigest(bytecode);
+    }
+}
@@ -1,11 +1,13 @@
 package six.eared.macaque.agent.hotswap;
 
 import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.common.util.InstrumentationUtil;
 
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 public class ClassHotSwapper {
@@ -17,11 +19,22 @@ public class ClassHotSwapper {
         }
 
         Instrumentation inst = Environment.getInst();
-        ClassDefinition[] classDefinitions = Arrays.stream(inst.getAllLoadedClasses())
-                .filter(item -> definitions.containsKey(item.getName()))
-                .map(clazz -> new ClassDefinition(clazz, definitions.get(clazz.getName())))
-                .toArray(ClassDefinition[]::new);
-        inst.redefineClasses(classDefinitions);
-        return classDefinitions.length;
+        List<ClassDefinition> classDefinitions = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : definitions.entrySet()) {
+            for (Class<?> clazz : InstrumentationUtil.findLoadedClass(inst, entry.getKey())) {
+                classDefinitions.add(new ClassDefinition(clazz, entry.getValue()));
+            }
+        }
+        // 经过调度器合并并发的请求
+        int count = HotSwapScheduler.getInstance()
+                .submit(classDefinitions.toArray(new ClassDefinition[0]));
+        // 只记录真正重定义成功的类(按ClassLoader), 还没有加载的类之后加载时仍然需要重定义
+        BytecodeStore bytecodeStore = BytecodeStore.getInstance();
+        if (bytecodeStore != null) {
+            for (ClassDefinition definition : classDefinitions) {
+                bytecodeStore.installed(definition.getDefinitionClass(), definition.getDefinitionClassFile());
+            }
+        }
+        return count;
     }
 }
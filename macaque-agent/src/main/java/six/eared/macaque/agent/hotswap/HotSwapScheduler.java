@@ -0,0 +1,214 @@
+package six.eared.macaque.agent.hotswap;
+
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.exceptions.HotswapException;
+
+import java.lang.instrument.ClassDefinition;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 热加载调度器
+ * <p>
+ * 并发的热加载请求在一个很短的窗口期内合并, 共用一次 {@link Instrumentation#redefineClasses(ClassDefinition...)},
+ * 只进入一次safepoint. 不使用额外的线程, 最先到达的请求作为leader负责提交整个批次, 其余请求等待结果.
+ * 批量提交失败时退化为逐个请求提交, 一个请求中的错误类不会影响同批次的其他请求.
+ * leader在自己的请求完成后即返回, 剩余的请求由仍在等待的调用方接手.
+ */
+public class HotSwapScheduler {
+
+    private static final HotSwapScheduler INSTANCE = new HotSwapScheduler();
+
+    /**
+     * 默认的合并窗口期, 毫秒
+     */
+    public static final long DEFAULT_BATCH_WINDOW = 10;
+
+    private volatile long batchWindow = DEFAULT_BATCH_WINDOW;
+
+    private final Deque<SwapRequest> pending = new ConcurrentLinkedDeque<>();
+
+    private final ReentrantLock leaderLock = new ReentrantLock();
+
+    public static HotSwapScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    public void setBatchWindow(long batchWindow) {
+        this.batchWindow = Math.max(batchWindow, 0);
+    }
+
+    public long getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * 提交并等待本次请求的重定义完成
+     *
+     * @param classDefinitions 同一个请求内的类, 会在同一次redefineClasses中提交
+     * @return 重定义的类数量
+     */
+    public int submit(ClassDefinition[] classDefinitions) throws UnmodifiableClassException, ClassNotFoundException {
+        if (classDefinitions.length == 0) {
+            return 0;
+        }
+        SwapRequest request = new SwapRequest(classDefinitions);
+        pending.add(request);
+
+        while (!request.future.isDone()) {
+            if (leaderLock.tryLock()) {
+                try {
+                    if (!request.future.isDone()) {
+                        waitWindow();
+                        runBatches(request);
+                    }
+                } finally {
+                    leaderLock.unlock();
+                }
+            } else {
+                try {
+                    request.future.get(Math.max(batchWindow, 1), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | ExecutionException ignored) {
+                    // leader可能已经结束, 重新竞争
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new HotswapException(e);
+                }
+            }
+        }
+        return getResult(request);
+    }
+
+    private void waitWindow() {
+        if (batchWindow > 0) {
+            try {
+                Thread.sleep(batchWindow);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 按提交顺序处理队列中的请求, 直到当前请求完成.
+     * 同一个类出现在多个请求中时, 后面的请求放到下一批; 被推迟的请求中的类也会阻塞之后的请求,
+     * 保证同一个类总是按提交顺序重定义, 较早的请求不会覆盖较新的请求
+     */
+    private void runBatches(SwapRequest own) {
+        while (!own.future.isDone()) {
+            List<SwapRequest> batch = new ArrayList<>();
+            Set<Class<?>> batchClasses = new HashSet<>();
+
+            List<SwapRequest> deferred = new ArrayList<>();
+            Set<Class<?>> blockedClasses = new HashSet<>();
+            SwapRequest request;
+            while ((request = pending.poll()) != null) {
+                if (request.conflict(batchClasses) || request.conflict(blockedClasses)) {
+                    deferred.add(request);
+                    request.addClasses(blockedClasses);
+                    continue;
+                }
+                request.addClasses(batchClasses);
+                batch.add(request);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            // 推迟的请求比之后新到达的请求更早, 放回队首并保持原来的顺序
+            for (int i = deferred.size() - 1; i >= 0; i--) {
+                pending.addFirst(deferred.get(i));
+            }
+            redefineBatch(batch);
+        }
+    }
+
+    private void redefineBatch(List<SwapRequest> batch) {
+        Instrumentation inst = Environment.getInst();
+        if (batch.size() > 1) {
+            List<ClassDefinition> merged = new ArrayList<>();
+            for (SwapRequest request : batch) {
+                merged.addAll(Arrays.asList(request.classDefinitions));
+            }
+            try {
+                inst.redefineClasses(merged.toArray(new ClassDefinition[0]));
+                if (Environment.isDebug()) {
+                    System.out.printf("[HotSwapScheduler] merged %d requests, redefines class count: [%d]%n",
+                            batch.size(), merged.size());
+                }
+                for (SwapRequest request : batch) {
+                    request.future.complete(request.classDefinitions.length);
+                }
+                return;
+            } catch (Throwable e) {
+                if (Environment.isDebug()) {
+                    System.out.println("[HotSwapScheduler] batch redefine error, fallback to single request");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // 逐个请求提交, 隔离出错的请求
+        for (SwapRequest request : batch) {
+            try {
+                inst.redefineClasses(request.classDefinitions);
+                request.future.complete(request.classDefinitions.length);
+            } catch (Throwable e) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private int getResult(SwapRequest request) throws UnmodifiableClassException, ClassNotFoundException {
+        try {
+            return request.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HotswapException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnmodifiableClassException) {
+                throw (UnmodifiableClassException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new HotswapException(cause);
+        }
+    }
+
+    static class SwapRequest {
+
+        private final ClassDefinition[] classDefinitions;
+
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        SwapRequest(ClassDefinition[] classDefinitions) {
+            this.classDefinitions = classDefinitions;
+        }
+
+        boolean conflict(Set<Class<?>> classes) {
+            for (ClassDefinition definition : classDefinitions) {
+                if (classes.contains(definition.getDefinitionClass())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void addClasses(Set<Class<?>> classes) {
+            for (ClassDefinition definition : classDefinitions) {
+                classes.add(definition.getDefinitionClass());
+            }
+        }
+    }
+}
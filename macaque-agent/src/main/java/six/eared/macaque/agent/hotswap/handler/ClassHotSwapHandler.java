@@ -1,21 +1,28 @@
 package six.eared.macaque.agent.hotswap.handler;
 
+import org.objectweb.asm.ClassReader;
 import six.eared.macaque.agent.annotation.HotSwapFileType;
 import six.eared.macaque.agent.asm2.AsmUtil;
 import six.eared.macaque.agent.enhance.ClassIncrementUpdate;
 import six.eared.macaque.agent.enhance.ClazzDataDefinition;
 import six.eared.macaque.agent.enhance.CompatibilityModeByteCodeEnhancer;
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.hotswap.BytecodeStore;
+import six.eared.macaque.agent.hotswap.ClassChangeDetector;
+import six.eared.macaque.agent.hotswap.ClassChangeDetector.ChangeType;
 import six.eared.macaque.agent.hotswap.ClassHotSwapper;
 import six.eared.macaque.agent.vcs.VersionChainTool;
 import six.eared.macaque.agent.vcs.VersionView;
 import six.eared.macaque.common.ExtPropertyName;
 import six.eared.macaque.common.type.FileType;
+import six.eared.macaque.common.util.ClassBundle;
+import six.eared.macaque.common.util.ClassUtil;
+import six.eared.macaque.common.util.CollectionUtil;
+import six.eared.macaque.mbean.rmi.HotSwapResult;
 import six.eared.macaque.mbean.rmi.HotSwapRmiData;
 import six.eared.macaque.mbean.rmi.RmiResult;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 
 @HotSwapFileType(fileType = FileType.Class)
@@ -23,23 +30,73 @@ public class ClassHotSwapHandler extends FileHookHandler {
 
     @Override
     public RmiResult doHandler(HotSwapRmiData rmiData) throws Exception {
+        if (rmiData.isBatch()) {
+            // 批量的class文件合并后一次重定义
+            return handler(mergeClassData(new ArrayList<>(rmiData.getFiles().values())), rmiData.getExtProperties());
+        }
         return handler(rmiData.getFileData(), rmiData.getExtProperties());
     }
 
+    /**
+     * 合并成 {@link ClassBundle}, 只分配一次
+     */
+    public static byte[] mergeClassData(List<byte[]> byteList) {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (byte[] bytecode : byteList) {
+            classes.put(ClassUtil.classpath2name(new ClassReader(bytecode).getClassName()), bytecode);
+        }
+        return ClassBundle.write(classes);
+    }
+
     @SuppressWarnings("unchecked")
     public RmiResult handler(byte[] bytes, Map<String, String> extProperties) throws Exception {
         List<ClazzDataDefinition> definitions = AsmUtil.readMultiClass(bytes);
 
         boolean compatibilityMode = Boolean.TRUE.toString()
                 .equalsIgnoreCase(extProperties.get(ExtPropertyName.COMPATIBILITY_MODE));
+        boolean structuralDiff = Boolean.TRUE.toString()
+                .equalsIgnoreCase(extProperties.get(ExtPropertyName.STRUCTURAL_DIFF));
 
         if (compatibilityMode) {
             List<ClassIncrementUpdate> enhanced = CompatibilityModeByteCodeEnhancer.enhance(definitions);
-            return RmiResult.success().data(ClassHotSwapper.redefines(flatClassDefinition2(enhanced)));
+            return redefines(flatClassDefinition2(enhanced), structuralDiff);
         } else {
-            return RmiResult.success().data(ClassHotSwapper
-                    .redefines(flatClassDefinition(definitions)));
+            return redefines(flatClassDefinition(definitions), structuralDiff);
+        }
+    }
+
+    /**
+     * 跳过和已安装版本一致的类, 剩下的类重定义
+     *
+     * @param structuralDiff 是否同时跳过方法体没有变化的类
+     */
+    private RmiResult redefines(Map<String, byte[]> definitions, boolean structuralDiff) throws Exception {
+        HotSwapResult result = new HotSwapResult();
+        BytecodeStore bytecodeStore = BytecodeStore.getInstance();
+        Iterator<Map.Entry<String, byte[]>> iterator = definitions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            if (bytecodeStore != null && bytecodeStore.isInstalled(entry.getKey(), entry.getValue())) {
+                result.addSkippedClass(entry.getKey());
+                iterator.remove();
+                continue;
+            }
+            if (structuralDiff) {
+                ChangeType changeType = ClassChangeDetector.detect(entry.getKey(), entry.getValue());
+                result.addChangeType(entry.getKey(), changeType.name());
+                if (changeType.skippable()) {
+                    result.addSkippedClass(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        if (Environment.isDebug() && CollectionUtil.isNotEmpty(result.getSkippedClasses())) {
+            System.out.printf("[ClassHotSwapHandler] skip unchanged classes: %s%n", result.getSkippedClasses());
+        }
+        if (!definitions.isEmpty()) {
+            result.setRedefinedCount(ClassHotSwapper.redefines(definitions));
         }
+        return RmiResult.success().data(result);
     }
 
     private Map<String, byte[]> flatClassDefinition2(List<ClassIncrementUpdate> enhanced) {
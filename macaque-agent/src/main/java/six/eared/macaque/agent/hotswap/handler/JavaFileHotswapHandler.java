@@ -28,17 +28,23 @@ public class JavaFileHotswapHandler implements HotSwapHandler {
         if (!JavaSourceCompiler.getInstance().isPrepared()) {
             throw new HotswapException("current JDK env not support memory compile");
         }
-        if (StringUtil.isEmpty(request.getFileName())) {
+        if (!request.isBatch() && StringUtil.isEmpty(request.getFileName())) {
             throw new HotswapException("file type is 'java', fileName must not be null");
         }
 
         try {
             Map<String, byte[]> sources = new HashMap<>();
-            sources.put(request.getFileName(), request.getFileData());
+            if (request.isBatch()) {
+                // 批量的文件在一次编译中完成, 互相依赖的文件可以一起修改
+                sources.putAll(request.getFiles());
+            } else {
+                sources.put(request.getFileName(), request.getFileData());
+            }
 
             List<byte[]> compiled = JavaSourceCompiler.getInstance().compile(sources);
             if (CollectionUtil.isNotEmpty(compiled)) {
-                request.setFileData(mergeClassData(compiled));
+                request.setFileData(ClassHotSwapHandler.mergeClassData(compiled));
+                request.setFiles(null);
                 request.setFileType(FileType.Class.getType());
                 return classHotSwapHandler.handlerRequest(request);
             }
@@ -50,15 +56,4 @@ public class JavaFileHotswapHandler implements HotSwapHandler {
             throw new HotswapException(e);
         }
     }
-
-    public static byte[] mergeClassData(List<byte[]> byteList) {
-        return byteList.stream().reduce((b1, b2) -> {
-            int len = b1.length + b2.length;
-            byte[] bytes = new byte[len];
-
-            System.arraycopy(b1, 0, bytes, 0, b1.length);
-            System.arraycopy(b2, 0, bytes, b1.length, b2.length);
-            return bytes;
-        }).get();
-    }
 }
@@ -2,6 +2,7 @@ package six.eared.macaque.agent.jmx;
 
 
 import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.jmx.mbeans.Classpath;
 import six.eared.macaque.agent.jmx.mbeans.HotSwap;
 import six.eared.macaque.agent.jmx.mbeans.JmxHeartbeat;
 import six.eared.macaque.mbean.MBean;
@@ -47,20 +48,35 @@ public class JmxMBeanManager {
         // registerMBean
         for (Class<? extends MBean<? extends RmiData>> clazz : classes) {
             // 创建MBean实例
-            MBean<? extends RmiData> mBean = createMBean(clazz);
-            try {
-                // 注册MBean
-                M_BEAN_MAP.put(mBean.getMBeanName().toString(), mBean);
-                mBeanServer.registerMBean(mBean, mBean.getMBeanName());
-            } catch (Exception e) {
-                if (Environment.isDebug()) {
-                    System.out.println("registerMBean error");
-                    e.printStackTrace();
-                }
+            registerMBean(createMBean(clazz));
+        }
+    }
+
+    /**
+     * 注册MBean
+     *
+     * @param mBean MBean实例
+     */
+    public void registerMBean(MBean<? extends RmiData> mBean) {
+        try {
+            M_BEAN_MAP.put(mBean.getMBeanName().toString(), mBean);
+            mBeanServer.registerMBean(mBean, mBean.getMBeanName());
+        } catch (Exception e) {
+            if (Environment.isDebug()) {
+                System.out.println("registerMBean error");
+                e.printStackTrace();
             }
         }
     }
 
+    /**
+     * @param objectName MBean的名称
+     * @return 未注册时返回null
+     */
+    public MBean getMBean(String objectName) {
+        return M_BEAN_MAP.get(objectName);
+    }
+
     /**
      * 所有需要加载的MBean类
      *
@@ -69,7 +85,8 @@ public class JmxMBeanManager {
     private List<Class<? extends MBean<? extends RmiData>>> loadMBeanClass() {
         return Arrays.asList(
                 JmxHeartbeat.class,
-                HotSwap.class);
+                HotSwap.class,
+                Classpath.class);
     }
 
 
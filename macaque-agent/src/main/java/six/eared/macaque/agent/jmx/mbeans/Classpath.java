@@ -0,0 +1,40 @@
+package six.eared.macaque.agent.jmx.mbeans;
+
+import six.eared.macaque.agent.compiler.java.ClasspathManifestExporter;
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.mbean.MBeanObjectName;
+import six.eared.macaque.mbean.rmi.EmptyRmiData;
+import six.eared.macaque.mbean.rmi.RmiResult;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * classpath清单MBean
+ * 服务端编译模式下, 服务端按照清单编译java文件, 只把class文件发送给目标进程
+ */
+public class Classpath implements ClasspathMBean {
+
+    /**
+     * 导出classpath清单
+     *
+     * @param data 空
+     * @return {@link six.eared.macaque.mbean.rmi.ClasspathManifest}
+     */
+    @Override
+    public RmiResult process(EmptyRmiData data) {
+        try {
+            return RmiResult.success().data(ClasspathManifestExporter.export());
+        } catch (Throwable e) {
+            if (Environment.isDebug()) {
+                e.printStackTrace();
+            }
+            return RmiResult.error(e.getMessage());
+        }
+    }
+
+    @Override
+    public ObjectName getMBeanName() throws MalformedObjectNameException {
+        return new ObjectName(MBeanObjectName.CLASSPATH_MBEAN);
+    }
+}
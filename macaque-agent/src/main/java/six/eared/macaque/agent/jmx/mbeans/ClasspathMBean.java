@@ -0,0 +1,12 @@
+package six.eared.macaque.agent.jmx.mbeans;
+
+
+import six.eared.macaque.mbean.MBean;
+import six.eared.macaque.mbean.rmi.EmptyRmiData;
+
+/**
+ * classpath清单MBean
+ */
+public interface ClasspathMBean extends MBean<EmptyRmiData> {
+
+}
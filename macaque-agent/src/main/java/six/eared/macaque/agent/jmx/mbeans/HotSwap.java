@@ -4,6 +4,7 @@ import six.eared.macaque.agent.env.Environment;
 import six.eared.macaque.agent.exceptions.HotswapException;
 import six.eared.macaque.agent.hotswap.HandlerRegister;
 import six.eared.macaque.agent.hotswap.handler.HotSwapHandler;
+import six.eared.macaque.common.type.FileType;
 import six.eared.macaque.common.util.StringUtil;
 import six.eared.macaque.mbean.MBeanObjectName;
 import six.eared.macaque.mbean.rmi.HotSwapRmiData;
@@ -28,12 +29,15 @@ public class HotSwap implements HotSwapMBean {
     public RmiResult process(HotSwapRmiData request) {
         String errMsg = null;
         try {
-            if (request.getFileData() == null || request.getFileData().length == 0) {
+            if (!request.isBatch() && (request.getFileData() == null || request.getFileData().length == 0)) {
                 return RmiResult.error("filData is not be null");
             }
             if (StringUtil.isEmpty(request.getFileType())) {
                 return RmiResult.error("fileType is not be null");
             }
+            if (request.isBatch() && !FileType.Java.match(request.getFileType()) && !FileType.Class.match(request.getFileType())) {
+                return RmiResult.error("batch hotswap only support java and class file");
+            }
 
             HotSwapHandler handler = HandlerRegister.getHandler(request.getFileType());
             if (handler == null) {
@@ -0,0 +1,35 @@
+package six.eared.macaque.agent.transport;
+
+import six.eared.macaque.agent.jmx.JmxMBeanManager;
+
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.rmi.registry.LocateRegistry;
+
+/**
+ * JMX/RMI 传输
+ */
+public class JmxTransportServer implements TransportServer {
+
+    private JMXConnectorServer connectorServer;
+
+    @Override
+    public void start(JmxMBeanManager mBeanManager, int port) throws IOException {
+        LocateRegistry.createRegistry(port);
+        JMXServiceURL url = new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://127.0.0.1:%d/macaque", port));
+        this.connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(url,
+                null, mBeanManager.getMBeanServer());
+        this.connectorServer.start();
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if (connectorServer != null) {
+                connectorServer.stop();
+            }
+        } catch (IOException ignored) {}
+    }
+}
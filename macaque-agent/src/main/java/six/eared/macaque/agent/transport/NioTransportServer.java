@@ -0,0 +1,297 @@
+package six.eared.macaque.agent.transport;
+
+import six.eared.macaque.agent.env.Environment;
+import six.eared.macaque.agent.jmx.JmxMBeanManager;
+import six.eared.macaque.mbean.MBean;
+import six.eared.macaque.mbean.rmi.RmiResult;
+import six.eared.macaque.mbean.transport.FrameDecoder;
+import six.eared.macaque.mbean.transport.PayloadCodec;
+import six.eared.macaque.mbean.transport.TransportProtocol;
+import six.eared.macaque.mbean.transport.UnixDomainSockets;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于NIO的二进制传输, 协议见 {@link TransportProtocol}
+ * <p>
+ * 一个selector线程负责所有连接的读写, 完整的请求交给工作线程调用MBean, 响应写入连接的发送队列后唤醒selector线程发送.
+ * 同一个连接上的请求可以并发处理, 响应按完成的顺序返回.
+ * <p>
+ * 指定了socket文件时监听Unix domain socket(JDK16+), 不占用端口. socket文件所在的目录在绑定之前以0700权限创建,
+ * 只有同一个用户的进程可以连接, 不存在先绑定再修改权限的时间窗口.
+ */
+public class NioTransportServer implements TransportServer {
+
+    private static final int WORKER_COUNT = 4;
+
+    private JmxMBeanManager mBeanManager;
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private ExecutorService workers;
+
+    /**
+     * 有数据等待发送的连接, 由selector线程注册写事件
+     */
+    private final Queue<Connection> writeReady = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running;
+
+    /**
+     * Unix domain socket 文件, 为null时监听TCP端口
+     */
+    private final File socketFile;
+
+    public NioTransportServer() {
+        this(null);
+    }
+
+    public NioTransportServer(File socketFile) {
+        this.socketFile = socketFile;
+    }
+
+    @Override
+    public void start(JmxMBeanManager mBeanManager, int port) throws IOException {
+        this.mBeanManager = mBeanManager;
+        this.selector = Selector.open();
+        if (socketFile != null) {
+            createOwnerOnlyDirectory(socketFile.getAbsoluteFile().getParentFile().toPath());
+            // 同一个pid上次没有清理的socket文件
+            Files.deleteIfExists(socketFile.toPath());
+            this.serverChannel = UnixDomainSockets.openServer();
+            this.serverChannel.bind(UnixDomainSockets.address(socketFile.getAbsolutePath()));
+        } else {
+            this.serverChannel = ServerSocketChannel.open();
+            this.serverChannel.bind(new InetSocketAddress("127.0.0.1", port));
+        }
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        AtomicInteger workerIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(WORKER_COUNT, r -> {
+            Thread thread = new Thread(r, "macaque-transport-worker-" + workerIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.running = true;
+        Thread thread = new Thread(this::loop, "macaque-transport-selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (socketFile != null) {
+            socketFile.delete();
+            socketFile.getAbsoluteFile().getParentFile().delete();
+        }
+    }
+
+    /**
+     * 创建只有当前用户可以访问的目录, 目录已经存在时必须是当前用户所有并且权限为0700
+     *
+     * @throws IOException 目录无法创建、不安全或者不是posix文件系统
+     */
+    private static void createOwnerOnlyDirectory(Path directory) throws IOException {
+        EnumSet<PosixFilePermission> ownerOnly = EnumSet.of(PosixFilePermission.OWNER_READ,
+                PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+        try {
+            if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(ownerOnly));
+                    return;
+                } catch (FileAlreadyExistsException ignored) {
+                    // 并发创建, 按已经存在的目录校验
+                }
+            }
+            if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)
+                    || !Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).getName().equals(System.getProperty("user.name"))
+                    || !Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS).equals(ownerOnly)) {
+                throw new IOException("unsafe socket directory: " + directory);
+            }
+        } catch (UnsupportedOperationException e) {
+            // 非posix文件系统, 退化为TCP
+            throw new IOException(e);
+        }
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+                Connection ready;
+                while ((ready = writeReady.poll()) != null) {
+                    if (ready.key.isValid()) {
+                        ready.key.interestOps(ready.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (Environment.isDebug()) {
+                System.out.println("[NioTransportServer] selector error");
+                e.printStackTrace();
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        if (socketFile == null) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {}
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(Connection connection, TransportProtocol.Message message) {
+        RmiResult result;
+        try {
+            PayloadCodec.Request request = PayloadCodec.decodeRequest(message.getPayload());
+            MBean mBean = mBeanManager.getMBean(request.getTarget());
+            result = mBean == null
+                    ? RmiResult.error("MBean not found: " + request.getTarget())
+                    : mBean.process(request.getData());
+        } catch (Throwable e) {
+            if (Environment.isDebug()) {
+                e.printStackTrace();
+            }
+            result = RmiResult.error(e.getMessage());
+        }
+        try {
+            connection.send(TransportProtocol.encode(message.getStreamId(), TransportProtocol.TYPE_RESPONSE,
+                    PayloadCodec.encodeResult(result)));
+        } catch (IOException e) {
+            if (Environment.isDebug()) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    class Connection {
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        private final FrameDecoder decoder = new FrameDecoder();
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(TransportProtocol.MAX_CHUNK_SIZE);
+
+        private final Queue<ByteBuffer> writes = new ConcurrentLinkedQueue<>();
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            int n;
+            while ((n = channel.read(readBuffer)) > 0) {
+                readBuffer.flip();
+                decoder.decode(readBuffer, message -> workers.execute(() -> handle(this, message)));
+                readBuffer.clear();
+            }
+            if (n == -1) {
+                throw new IOException("closed");
+            }
+        }
+
+        /**
+         * 工作线程调用, 一个响应的所有frame连续写入队列
+         */
+        void send(Iterable<ByteBuffer> frames) {
+            synchronized (writes) {
+                for (ByteBuffer frame : frames) {
+                    writes.add(frame);
+                }
+            }
+            writeReady.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * selector线程调用
+         */
+        void flush() throws IOException {
+            ByteBuffer head;
+            while ((head = writes.peek()) != null) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    return;
+                }
+                writes.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            // 清除写事件和新的响应入队之间的竞争
+            if (!writes.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package six.eared.macaque.agent.transport;
+
+import six.eared.macaque.agent.jmx.JmxMBeanManager;
+
+import java.io.IOException;
+
+/**
+ * agent端的传输, 接收客户端的请求并交给MBean处理
+ */
+public interface TransportServer {
+
+    /**
+     * @param mBeanManager
+     * @param port
+     * @throws IOException
+     */
+    void start(JmxMBeanManager mBeanManager, int port) throws IOException;
+
+    void stop();
+}
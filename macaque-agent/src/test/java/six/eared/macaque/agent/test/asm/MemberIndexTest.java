@@ -0,0 +1,123 @@
+package six.eared.macaque.agent.test.asm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import six.eared.macaque.agent.asm2.AsmField;
+import six.eared.macaque.agent.asm2.AsmMethod;
+import six.eared.macaque.agent.asm2.AsmUtil;
+import six.eared.macaque.agent.asm2.classes.AsmMethodVisitorCaller;
+import six.eared.macaque.agent.enhance.ClassIncrementUpdate;
+import six.eared.macaque.agent.enhance.ClazzDataDefinition;
+import six.eared.macaque.agent.enhance.FieldUpdateInfo;
+import six.eared.macaque.agent.enhance.MethodUpdateInfo;
+
+import java.util.function.Consumer;
+
+public class MemberIndexTest {
+
+    @Test
+    public void testDuplicateMethod() {
+        ClazzDataDefinition definition = read(writer -> {
+            writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "test", "()V", null, null).visitEnd();
+            writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_ABSTRACT, "test", "()V", null, null).visitEnd();
+        });
+
+        // 和原来的线性查找一样, 重复的 name+desc 返回第一个
+        Assert.assertSame(definition.getAsmMethods().get(0), definition.getMethod("test", "()V"));
+        Assert.assertFalse(definition.getMethod("test", "()V").isStatic());
+        Assert.assertTrue(definition.hasMethod("test", "()V"));
+        Assert.assertEquals(2, definition.getAsmMethods().size());
+        Assert.assertFalse(definition.hasMethod("test", "()I"));
+        Assert.assertNull(definition.getMethod("test1", "()V"));
+    }
+
+    @Test
+    public void testStaticAndInstanceMethod() {
+        ClazzDataDefinition definition = read(writer -> {
+            writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "instance", "()V", null, null).visitEnd();
+            writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_ABSTRACT, "staticMethod", "()V", null, null).visitEnd();
+        });
+
+        Assert.assertTrue(definition.hasMethod(method(Opcodes.ACC_PRIVATE, "instance", "()V")));
+        Assert.assertFalse(definition.hasMethod(method(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "instance", "()V")));
+        Assert.assertTrue(definition.hasMethod(method(Opcodes.ACC_STATIC, "staticMethod", "()V")));
+        Assert.assertFalse(definition.hasMethod(method(Opcodes.ACC_PUBLIC, "staticMethod", "()V")));
+        Assert.assertFalse(definition.hasMethod(method(Opcodes.ACC_PUBLIC, "instance", "(I)V")));
+    }
+
+    @Test
+    public void testDuplicateField() {
+        ClazzDataDefinition definition = read(writer -> {
+            writer.visitField(Opcodes.ACC_PRIVATE, "value", "I", null, null).visitEnd();
+            writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "value", "I", null, null).visitEnd();
+        });
+
+        Assert.assertSame(definition.getAsmFields().get(0), definition.getField("value", "I"));
+        Assert.assertFalse(definition.getField("value", "I").isStatic());
+        Assert.assertNull(definition.getField("value", "J"));
+        Assert.assertEquals(2, definition.getAsmFields().size());
+    }
+
+    @Test
+    public void testIncrementUpdate() {
+        ClazzDataDefinition definition = read(writer -> {
+        });
+        ClassIncrementUpdate incrementUpdate = new ClassIncrementUpdate(definition, definition, null);
+        MethodUpdateInfo first = new MethodUpdateInfo(method(Opcodes.ACC_PUBLIC, "test", "()V"), new AsmMethodVisitorCaller());
+        MethodUpdateInfo second = new MethodUpdateInfo(method(Opcodes.ACC_STATIC, "test", "()V"), new AsmMethodVisitorCaller());
+        MethodUpdateInfo other = new MethodUpdateInfo(method(Opcodes.ACC_PUBLIC, "test", "(I)V"), new AsmMethodVisitorCaller());
+        incrementUpdate.addMethod(first);
+        incrementUpdate.addMethod(second);
+        incrementUpdate.addMethod(other);
+
+        Assert.assertSame(first, incrementUpdate.getMethod("test", "()V"));
+        Assert.assertSame(other, incrementUpdate.getMethod("test", "(I)V"));
+
+        incrementUpdate.remove(incrementUpdate.getMethod("test", "()V"));
+        Assert.assertNull(incrementUpdate.getMethod("test", "()V"));
+        Assert.assertEquals(1, incrementUpdate.getMethods().size());
+        Assert.assertSame(other, incrementUpdate.getMethods().iterator().next());
+
+        FieldUpdateInfo field = new FieldUpdateInfo(field(Opcodes.ACC_PRIVATE, "value", "I"));
+        incrementUpdate.addField(field);
+        Assert.assertSame(field, incrementUpdate.getField("value", "I"));
+        Assert.assertNull(incrementUpdate.getField("value", "J"));
+        incrementUpdate.remove(field);
+        Assert.assertTrue(incrementUpdate.getFields().isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutableMembers() {
+        read(writer -> {
+        }).getAsmMethods().add(method(Opcodes.ACC_PUBLIC, "test", "()V"));
+    }
+
+    /**
+     * 定义只能通过解析字节码生成
+     */
+    private static ClazzDataDefinition read(Consumer<ClassWriter> members) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "test/Members", null, "java/lang/Object", null);
+        members.accept(writer);
+        writer.visitEnd();
+        return AsmUtil.readClass(writer.toByteArray());
+    }
+
+    private static AsmMethod method(int modifier, String name, String desc) {
+        return AsmMethod.AsmMethodBuilder.builder()
+                .modifier(modifier)
+                .methodName(name)
+                .desc(desc)
+                .build();
+    }
+
+    private static AsmField field(int modifier, String name, String desc) {
+        return AsmField.AsmFieldBuilder.builder()
+                .modifier(modifier)
+                .fieldName(name)
+                .fieldDesc(desc)
+                .build();
+    }
+}
@@ -0,0 +1,161 @@
+package six.eared.macaque.agent.test.benchmark;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import six.eared.macaque.agent.asm2.AsmField;
+import six.eared.macaque.agent.asm2.AsmMethod;
+import six.eared.macaque.agent.asm2.AsmUtil;
+import six.eared.macaque.agent.asm2.classes.AsmMethodVisitorCaller;
+import six.eared.macaque.agent.enhance.ClassIncrementUpdate;
+import six.eared.macaque.agent.enhance.ClazzDataDefinition;
+import six.eared.macaque.agent.enhance.FieldUpdateInfo;
+import six.eared.macaque.agent.enhance.MethodUpdateInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 成员查找的耗时曲线
+ * <p>
+ * 模拟兼容模式增强时 prepare 和 generateNewByteCode 中按 name+desc 查找成员的过程, 不需要 Instrumentation, 直接运行main方法.
+ * linear 一列用列表线性查找重放同样的过程, 对应建立索引之前的实现
+ */
+public class MemberIndexBenchmark {
+
+    private static final int[] MEMBER_COUNTS = {250, 500, 1000, 2000, 4000, 8000};
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        // 预热
+        for (int i = 0; i < 3; i++) {
+            run(2000);
+            runLinear(2000);
+        }
+        System.out.println("members\tlinear(ms)\tindexed(ms)");
+        for (int count : MEMBER_COUNTS) {
+            long linear = 0;
+            long indexed = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                linear += runLinear(count);
+                indexed += run(count);
+            }
+            System.out.printf("%d\t%.2f\t%.2f%n", count,
+                    linear / ROUNDS / 1_000_000.0, indexed / ROUNDS / 1_000_000.0);
+        }
+    }
+
+    private static long run(int memberCount) {
+        ClazzDataDefinition definition = AsmUtil.readClass(generateClass(memberCount));
+        ClazzDataDefinition origin = AsmUtil.readClass(generateClass(memberCount));
+
+        long start = System.nanoTime();
+        // prepare
+        ClassIncrementUpdate incrementUpdate = new ClassIncrementUpdate(definition, origin, null);
+        for (AsmMethod method : definition.getAsmMethods()) {
+            AsmMethod asmMethod = definition.getMethod(method.getMethodName(), method.getDesc());
+            if (origin.hasMethod(asmMethod)) {
+                incrementUpdate.addMethod(new MethodUpdateInfo(asmMethod, new AsmMethodVisitorCaller()));
+            }
+        }
+        for (AsmField field : definition.getAsmFields()) {
+            incrementUpdate.addField(new FieldUpdateInfo(definition.getField(field.getFieldName(), field.getDesc())));
+        }
+
+        // generateNewByteCode
+        for (AsmField field : origin.getAsmFields()) {
+            incrementUpdate.remove(incrementUpdate.getField(field.getFieldName(), field.getDesc()));
+        }
+        for (AsmMethod method : origin.getAsmMethods()) {
+            incrementUpdate.remove(incrementUpdate.getMethod(method.getMethodName(), method.getDesc()));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 和 {@link #run(int)} 相同的查找, 成员保存在列表中, 每次查找都遍历列表
+     */
+    private static long runLinear(int memberCount) {
+        ClazzDataDefinition definition = AsmUtil.readClass(generateClass(memberCount));
+        ClazzDataDefinition origin = AsmUtil.readClass(generateClass(memberCount));
+        List<AsmMethod> definitionMethods = definition.getAsmMethods();
+        List<AsmMethod> originMethods = origin.getAsmMethods();
+
+        long start = System.nanoTime();
+        // prepare
+        List<MethodUpdateInfo> methods = new ArrayList<>();
+        List<FieldUpdateInfo> fields = new ArrayList<>();
+        for (AsmMethod method : definitionMethods) {
+            AsmMethod asmMethod = findMethod(definitionMethods, method.getMethodName(), method.getDesc());
+            AsmMethod originMethod = findMethod(originMethods, asmMethod.getMethodName(), asmMethod.getDesc());
+            if (originMethod != null && originMethod.isStatic() == asmMethod.isStatic()) {
+                methods.add(new MethodUpdateInfo(asmMethod, new AsmMethodVisitorCaller()));
+            }
+        }
+        for (AsmField field : definition.getAsmFields()) {
+            fields.add(new FieldUpdateInfo(findField(definition.getAsmFields(), field.getFieldName(), field.getDesc())));
+        }
+
+        // generateNewByteCode
+        for (AsmField field : origin.getAsmFields()) {
+            fields.remove(findFieldUpdate(fields, field.getFieldName(), field.getDesc()));
+        }
+        for (AsmMethod method : originMethods) {
+            methods.remove(findMethodUpdate(methods, method.getMethodName(), method.getDesc()));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static AsmMethod findMethod(List<AsmMethod> methods, String name, String desc) {
+        for (AsmMethod method : methods) {
+            if (method.getMethodName().equals(name) && method.getDesc().equals(desc)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static AsmField findField(List<AsmField> fields, String name, String desc) {
+        for (AsmField field : fields) {
+            if (field.getFieldName().equals(name) && field.getDesc().equals(desc)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static MethodUpdateInfo findMethodUpdate(List<MethodUpdateInfo> methods, String name, String desc) {
+        for (MethodUpdateInfo method : methods) {
+            if (method.getMethodName().equals(name) && method.getDesc().equals(desc)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static FieldUpdateInfo findFieldUpdate(List<FieldUpdateInfo> fields, String name, String desc) {
+        for (FieldUpdateInfo field : fields) {
+            if (field.getFieldName().equals(name) && field.getDesc().equals(desc)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] generateClass(int memberCount) {
+        ClassWriter classWriter = new ClassWriter(0);
+        classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "benchmark/Members", null, "java/lang/Object", null);
+        for (int i = 0; i < memberCount; i++) {
+            classWriter.visitField(Opcodes.ACC_PRIVATE, "field" + i, "I", null, null).visitEnd();
+            MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "()I", null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitInsn(Opcodes.ICONST_0);
+            methodVisitor.visitInsn(Opcodes.IRETURN);
+            methodVisitor.visitMaxs(1, 1);
+            methodVisitor.visitEnd();
+        }
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+}
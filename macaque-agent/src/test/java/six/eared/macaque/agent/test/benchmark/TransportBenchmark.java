@@ -0,0 +1,135 @@
+package six.eared.macaque.agent.test.benchmark;
+
+import six.eared.macaque.agent.jmx.JmxMBeanManager;
+import six.eared.macaque.agent.jmx.mbeans.JmxHeartbeat;
+import six.eared.macaque.agent.transport.JmxTransportServer;
+import six.eared.macaque.agent.transport.NioTransportServer;
+import six.eared.macaque.core.jmx.JmxClient;
+import six.eared.macaque.core.transport.NioTransportClient;
+import six.eared.macaque.core.transport.Transport;
+import six.eared.macaque.mbean.MBean;
+import six.eared.macaque.mbean.MBeanObjectName;
+import six.eared.macaque.mbean.rmi.EmptyRmiData;
+import six.eared.macaque.mbean.rmi.HotSwapRmiData;
+import six.eared.macaque.mbean.rmi.RmiResult;
+import six.eared.macaque.mbean.transport.UnixDomainSockets;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * JMX/RMI、NIO(TCP) 和 NIO(Unix domain socket) 传输的延迟和吞吐
+ * <p>
+ * agent端和客户端在同一个进程中, 通过本地回环或者socket文件通信, JDK16以下跳过Unix domain socket. 延迟使用心跳请求, 吞吐使用带1MB文件的热加载请求(由Echo MBean处理, 不做热加载),
+ * 直接运行main方法
+ */
+public class TransportBenchmark {
+
+    private static final String ECHO_MBEAN = "MACAQUE:type=EchoMBean";
+
+    private static final int LATENCY_ROUNDS = 5000;
+
+    private static final int PAYLOAD_SIZE = 1024 * 1024;
+
+    private static final int THROUGHPUT_ROUNDS = 200;
+
+    private static final int CONCURRENCY = 8;
+
+    public static void main(String[] args) throws Exception {
+        JmxMBeanManager mBeanManager = new JmxMBeanManager();
+        mBeanManager.registerMBean(new JmxHeartbeat());
+        mBeanManager.registerMBean(new Echo());
+        new JmxTransportServer().start(mBeanManager, 23030);
+        new NioTransportServer().start(mBeanManager, 23031);
+
+        List<Transport> transports = new ArrayList<>();
+        transports.add(new JmxClient("127.0.0.1", 23030));
+        transports.add(new NioTransportClient("127.0.0.1", 23031));
+        if (UnixDomainSockets.isSupported()) {
+            File socketFile = new File(System.getProperty("java.io.tmpdir"), "macaque-benchmark.sock");
+            new NioTransportServer(socketFile).start(mBeanManager, 0);
+            transports.add(new NioTransportClient(socketFile.getAbsolutePath()));
+        }
+
+        for (Transport transport : transports) {
+            transport.connect();
+            // 预热
+            latency(transport, 2000);
+            throughput(transport, 50, 1);
+        }
+
+        System.out.println("transport\tp50(us)\tp99(us)\tserial(MB/s)\tconcurrent(MB/s)");
+        for (Transport transport : transports) {
+            long[] latencies = latency(transport, LATENCY_ROUNDS);
+            String name = transport instanceof NioTransportClient
+                    ? "nio(" + ((NioTransportClient) transport).getAddress() + ")" : "jmx";
+            System.out.printf("%s\t%d\t%d\t%.1f\t%.1f%n", name,
+                    latencies[latencies.length / 2] / 1000, latencies[latencies.length * 99 / 100] / 1000,
+                    throughput(transport, THROUGHPUT_ROUNDS, 1), throughput(transport, THROUGHPUT_ROUNDS, CONCURRENCY));
+        }
+        System.exit(0);
+    }
+
+    private static long[] latency(Transport transport, int rounds) throws Exception {
+        long[] latencies = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            transport.request(MBeanObjectName.HEART_BEAT_MBEAN, new EmptyRmiData());
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * @return MB/s
+     */
+    private static double throughput(Transport transport, int rounds, int concurrency) throws Exception {
+        HotSwapRmiData data = new HotSwapRmiData("Bench.class", "class", new byte[PAYLOAD_SIZE], new HashMap<>());
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        Future<?>[] futures = new Future[concurrency];
+        for (int t = 0; t < concurrency; t++) {
+            futures[t] = executor.submit(() -> {
+                for (int i = 0; i < rounds / concurrency; i++) {
+                    RmiResult result = transport.request(ECHO_MBEAN, data);
+                    if (!result.isSuccess() || (Integer) result.getData() != PAYLOAD_SIZE) {
+                        throw new IllegalStateException(result.getMessage());
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return (double) rounds / concurrency * concurrency * PAYLOAD_SIZE / 1024 / 1024 / seconds;
+    }
+
+    public interface EchoMBean extends MBean<HotSwapRmiData> {
+
+    }
+
+    public static class Echo implements EchoMBean {
+
+        @Override
+        public RmiResult process(HotSwapRmiData data) {
+            return RmiResult.success().data(data.getFileData().length);
+        }
+
+        @Override
+        public ObjectName getMBeanName() throws MalformedObjectNameException {
+            return new ObjectName(ECHO_MBEAN);
+        }
+    }
+}
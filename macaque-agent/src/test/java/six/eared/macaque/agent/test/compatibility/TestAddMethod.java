@@ -40,6 +40,26 @@ public class TestAddMethod extends Env {
         Assert.assertEquals("12345678test1test390", invoke(INSTANCE, "test2"));
     }
 
+    /**
+     * 测试新增方法之后, 再次热加载时换成另一组新方法, 然后换回来
+     */
+    @Test
+    public void testAddInstanceMethodThenChangeMembers() {
+        byte[] bytes = compileToClass("TestAddMethodClass.java", FileUtil.is2bytes(TestAddMethod.class.getClassLoader()
+                .getResourceAsStream("compatibility/add/AddInstanceMethod.java"))).get(0);
+        byte[] changed = compileToClass("TestAddMethodClass.java", FileUtil.is2bytes(TestAddMethod.class.getClassLoader()
+                .getResourceAsStream("compatibility/add/AddInstanceMethodChangeMembers.java"))).get(0);
+
+        classHotSwapHandler.handlerRequest(new HotSwapRmiData("class", bytes, compatibilityMode()));
+        Assert.assertEquals("12345678test1test390", invoke(INSTANCE, "test2"));
+
+        classHotSwapHandler.handlerRequest(new HotSwapRmiData("class", changed, compatibilityMode()));
+        Assert.assertEquals("5test11234test690", invoke(INSTANCE, "test2"));
+
+        classHotSwapHandler.handlerRequest(new HotSwapRmiData("class", bytes, compatibilityMode()));
+        Assert.assertEquals("12345678test1test390", invoke(INSTANCE, "test2"));
+    }
+
 //    @Test
 //    public void testAddInstanceMethod2() throws Throwable {
 //        byte[] bytes = compileToClass("TestAddMethodClass2.java", FileUtil.is2bytes(TestAddMethod.class.getClassLoader()
@@ -145,4 +165,20 @@ public class TestAddMethod extends Env {
         classHotSwapHandler.handlerRequest(new HotSwapRmiData("class", bytes, compatibilityMode()));
         Assert.assertEquals("static test3", invoke(o, "test2"));
     }
+
+    /**
+     * 测试新增方法, 新方法里面调用继承自父类的protected方法和字段
+     */
+    @Test
+    public void testAddMethodCallInheritedMethod() {
+        byte[] bytes = compileToClass("TestInheritClass.java", FileUtil.is2bytes(TestAddMethod.class.getClassLoader()
+                .getResourceAsStream("compatibility/add/AddMethodCallInheritedMethod.java"))).get(0);
+        Object o = newInstance("six.eared.macaque.agent.test.TestInheritClass");
+
+        classHotSwapHandler.handlerRequest(new HotSwapRmiData("class", bytes, compatibilityMode()));
+        Assert.assertEquals("parentMethod,parentField", invoke(o, "test1"));
+
+        classHotSwapHandler.handlerRequest(new HotSwapRmiData("class", bytes, compatibilityMode()));
+        Assert.assertEquals("parentMethod,parentField", invoke(o, "test1"));
+    }
 }
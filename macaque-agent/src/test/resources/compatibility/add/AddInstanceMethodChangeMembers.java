@@ -0,0 +1,41 @@
+package six.eared.macaque.agent.test;
+
+public class TestAddMethodClass {
+    public Object field1 = "1234";
+    public static Object field2 = "1234";
+    private static String field3 = "1234";
+
+    public String test1() {
+        return "test1";
+    }
+
+    public String test2() {
+        return test5("5") + test6();
+    }
+
+    private static String test3() {
+        return "test3";
+    }
+
+    private static String testStaic(String a, String b, String c) {
+        return a+b+c;
+    }
+
+    /**
+     * new method, 和 AddInstanceMethod 中的新方法不同
+     *
+     * @return
+     */
+    public String test5(String arg) {
+        return arg + test1() + field1;
+    }
+
+    /**
+     * new static method
+     *
+     * @return
+     */
+    public static String test6() {
+        return "test6" + field3;
+    }
+}
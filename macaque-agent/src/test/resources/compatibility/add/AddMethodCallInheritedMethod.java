@@ -0,0 +1,17 @@
+package six.eared.macaque.agent.test;
+
+public class TestInheritClass extends TestInheritParentClass {
+
+    public String test1() {
+        return newMethod();
+    }
+
+    /**
+     * new method, 调用父类中的protected方法和字段
+     *
+     * @return
+     */
+    public String newMethod() {
+        return parentMethod() + "," + parentField;
+    }
+}
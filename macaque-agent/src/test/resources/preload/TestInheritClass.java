@@ -0,0 +1,8 @@
+package six.eared.macaque.agent.test;
+
+public class TestInheritClass extends TestInheritParentClass {
+
+    public String test1() {
+        return "test1";
+    }
+}
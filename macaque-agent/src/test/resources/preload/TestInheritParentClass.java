@@ -0,0 +1,10 @@
+package six.eared.macaque.agent.test;
+
+public class TestInheritParentClass {
+
+    protected String parentField = "parentField";
+
+    protected String parentMethod() {
+        return "parentMethod";
+    }
+}
@@ -11,4 +11,9 @@ public class ExtPropertyName {
      * api模式
      */
     public static final String MODE = "mode";
+
+    /**
+     * 结构化对比, 跳过方法体没有变化(包括只有调试信息变化)的类
+     */
+    public static final String STRUCTURAL_DIFF = "structuralDiff";
 }
@@ -0,0 +1,138 @@
+package six.eared.macaque.common.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 多个class文件的容器格式
+ * <pre>
+ * magic    u4  0x4D434C53 ("MCLS")
+ * version  u2
+ * count    u4
+ * entries  count * { nameLength u2, name utf8, offset u4, length u4 }
+ * data     每个class文件的字节码, offset是相对整个容器的偏移
+ * </pre>
+ * 写入时只分配一次, 读取时只校验名称表, 每个class通过偏移量直接访问, 不复制字节码. 类名由读取方从字节码中解析.
+ * 和直接拼接多个class文件的旧格式通过magic区分, class文件的magic是0xCAFEBABE.
+ */
+public class ClassBundle {
+
+    public static final int MAGIC = 0x4D434C53;
+
+    public static final short VERSION = 1;
+
+    private final byte[] data;
+
+    private final int[] offsets;
+
+    private final int[] lengths;
+
+    private ClassBundle(byte[] data, int[] offsets, int[] lengths) {
+        this.data = data;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    public static boolean isBundle(byte[] data) {
+        return data != null && data.length >= 4 && ByteBuffer.wrap(data).getInt(0) == MAGIC;
+    }
+
+    /**
+     * @param classes key: className, value: 字节码, 写入顺序和迭代顺序一致
+     * @return
+     */
+    public static byte[] write(Map<String, byte[]> classes) {
+        int count = classes.size();
+        byte[][] names = new byte[count][];
+        int headerSize = 4 + 2 + 4;
+        long dataSize = 0;
+        int i = 0;
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            names[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            headerSize += 2 + names[i].length + 4 + 4;
+            dataSize += entry.getValue().length;
+            i++;
+        }
+        if (headerSize + dataSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("class bundle too large");
+        }
+
+        byte[] bundle = new byte[headerSize + (int) dataSize];
+        ByteBuffer buffer = ByteBuffer.wrap(bundle);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putInt(count);
+        int offset = headerSize;
+        i = 0;
+        for (byte[] bytecode : classes.values()) {
+            buffer.putShort((short) names[i].length);
+            buffer.put(names[i]);
+            buffer.putInt(offset);
+            buffer.putInt(bytecode.length);
+            System.arraycopy(bytecode, 0, bundle, offset, bytecode.length);
+            offset += bytecode.length;
+            i++;
+        }
+        return bundle;
+    }
+
+    /**
+     * 只解析名称表, 不复制字节码
+     *
+     * @param data
+     * @return
+     */
+    public static ClassBundle read(byte[] data) {
+        if (!isBundle(data)) {
+            throw new IllegalArgumentException("not a class bundle");
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.position(4);
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported class bundle version: " + version);
+            }
+            int count = buffer.getInt();
+            if (count < 0) {
+                throw new IllegalArgumentException("illegal class count: " + count);
+            }
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                int nameLength = buffer.getShort() & 0xFFFF;
+                String name = new String(data, buffer.position(), nameLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + nameLength);
+                offsets[i] = buffer.getInt();
+                lengths[i] = buffer.getInt();
+                if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] > data.length - lengths[i]) {
+                    throw new IllegalArgumentException("illegal entry: " + name);
+                }
+            }
+            return new ClassBundle(data, offsets, lengths);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated class bundle", e);
+        }
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * 容器的底层数组, 配合 {@link #getOffset(int)} 和 {@link #getLength(int)} 使用
+     */
+    public byte[] getData() {
+        return data;
+    }
+}
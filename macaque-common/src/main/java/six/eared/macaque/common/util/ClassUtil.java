@@ -1,5 +1,7 @@
 package six.eared.macaque.common.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
@@ -58,4 +60,87 @@ public class ClassUtil {
         charArray[0] -= 32;
         return new String(charArray);
     }
+
+    /**
+     * 从class文件的常量池中读取类名, 不解析类的其他部分
+     *
+     * @param bytecode
+     * @return 内部名称, 例如 java/lang/String, 格式不正确时返回null
+     */
+    public static String readClassName(byte[] bytecode) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytecode));
+            if (in.readInt() != 0xCAFEBABE) {
+                return null;
+            }
+            in.skipBytes(4);
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] classNames = new int[count];
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 1: // Utf8
+                        utf8[i] = in.readUTF();
+                        break;
+                    case 7: // Class
+                        classNames[i] = in.readUnsignedShort();
+                        break;
+                    case 8: case 16: case 19: case 20: // String, MethodType, Module, Package
+                        in.skipBytes(2);
+                        break;
+                    case 15: // MethodHandle
+                        in.skipBytes(3);
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        in.skipBytes(4);
+                        break;
+                    case 5: case 6: // Long, Double 占两个位置
+                        in.skipBytes(8);
+                        i++;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            in.skipBytes(2);
+            int thisClass = in.readUnsignedShort();
+            return thisClass > 0 && thisClass < count ? utf8[classNames[thisClass]] : null;
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 读取java源文件中的包名, 跳过包声明之前的空白和注释
+     *
+     * @param source
+     * @return 默认包返回空字符串
+     */
+    public static String readPackageName(String source) {
+        int i = 0;
+        int length = source.length();
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c) || c == '\uFEFF') {
+                i++;
+            } else if (source.startsWith("//", i)) {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else {
+                break;
+            }
+        }
+        if (!source.startsWith("package", i) || i + 7 >= length || Character.isJavaIdentifierPart(source.charAt(i + 7))) {
+            return "";
+        }
+        int end = source.indexOf(';', i);
+        if (end < 0) {
+            return "";
+        }
+        return source.substring(i + 7, end).replaceAll("\\s+", "");
+    }
 }
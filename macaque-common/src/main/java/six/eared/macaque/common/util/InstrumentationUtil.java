@@ -7,14 +7,19 @@ import java.util.Set;
 public class InstrumentationUtil {
 
     /**
+     * 优先从 {@link LoadedClassIndex} 中查找, 未安装索引时全量扫描
      *
      * @param inst
      * @param className
      * @return
      */
     public static Set<Class<?>> findLoadedClass(Instrumentation inst, String className) {
-        Set<Class<?>> classSet = new HashSet<>();
+        LoadedClassIndex classIndex = LoadedClassIndex.getInstance(inst);
+        if (classIndex != null) {
+            return classIndex.find(className);
+        }
 
+        Set<Class<?>> classSet = new HashSet<>();
         for (Class<?> clazz : inst.getAllLoadedClasses()) {
             if (clazz.getName().equals(className)) {
                 classSet.add(clazz);
@@ -0,0 +1,282 @@
+package six.eared.macaque.common.util;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 已加载类的索引
+ * <p>
+ * attach时通过 {@link Instrumentation#getAllLoadedClasses()} 初始化一次, 之后新加载的类通过 {@link ClassFileTransformer} 登记,
+ * 查询时按类名直接命中, 避免每次全量扫描所有已加载的类.
+ * 索引只持有 ClassLoader 和 Class 的弱引用, 被回收的 ClassLoader 在查询时清理, 每登记 {@link #PRUNE_INTERVAL} 个类全量清理一次.
+ * transform中登记的类在第一次查询时解析, 需要扫描一次该ClassLoader下的类; 登记超过 {@link #PENDING_TIMEOUT} 仍然解析不到的
+ * (定义失败的类)直接删除, 不会在之后的每次查询中重复扫描.
+ */
+public class LoadedClassIndex implements ClassFileTransformer {
+
+    private static volatile LoadedClassIndex INSTANCE = null;
+
+    /**
+     * 每登记多少个新加载的类清理一次被回收的ClassLoader
+     */
+    static final int PRUNE_INTERVAL = 4096;
+
+    /**
+     * transform之后到类定义完成之间的宽限时间, 纳秒, 超过之后仍然解析不到的登记视为定义失败
+     */
+    static final long PENDING_TIMEOUT = 1_000_000_000L;
+
+    private final Instrumentation inst;
+
+    /**
+     * key: 类名(binary name), value: 各个ClassLoader下的同名类
+     */
+    private final Map<String, List<ClassRef>> index = new ConcurrentHashMap<>();
+
+    private final AtomicInteger registered = new AtomicInteger();
+
+    private LoadedClassIndex(Instrumentation inst) {
+        this.inst = inst;
+    }
+
+    /**
+     * 安装索引, 重复安装返回已有的实例
+     *
+     * @param inst
+     * @return
+     */
+    public synchronized static LoadedClassIndex install(Instrumentation inst) {
+        if (INSTANCE != null && INSTANCE.inst == inst) {
+            return INSTANCE;
+        }
+        LoadedClassIndex classIndex = new LoadedClassIndex(inst);
+        // transform中用到的类需要提前加载, 否则在transform中触发类加载会重入自身
+        classIndex.register(LoadedClassIndex.class);
+        classIndex.register(ClassUtil.class);
+        classIndex.prune();
+        // 先注册transformer再初始化, 防止两步之间加载的类被遗漏
+        inst.addTransformer(classIndex, false);
+        classIndex.seed();
+        INSTANCE = classIndex;
+        return classIndex;
+    }
+
+    /**
+     * @param inst
+     * @return 未安装时返回null
+     */
+    public static LoadedClassIndex getInstance(Instrumentation inst) {
+        LoadedClassIndex classIndex = INSTANCE;
+        return classIndex != null && classIndex.inst == inst ? classIndex : null;
+    }
+
+    private void seed() {
+        for (Class<?> clazz : inst.getAllLoadedClasses()) {
+            register(clazz);
+        }
+    }
+
+    /**
+     * 登记一个已经加载完成的类
+     *
+     * @param clazz
+     */
+    public void register(Class<?> clazz) {
+        List<ClassRef> refs = refs(clazz.getName());
+        ClassLoader loader = clazz.getClassLoader();
+        for (ClassRef ref : refs) {
+            if (ref.isLoader(loader)) {
+                ref.resolved(clazz);
+                return;
+            }
+        }
+        refs.add(new ClassRef(loader, clazz));
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        // 只关心首次加载, 此时Class对象还没有定义出来, 先记录ClassLoader, 查询时再解析
+        if (classBeingRedefined == null && className != null) {
+            try {
+                List<ClassRef> refs = refs(ClassUtil.classpath2name(className));
+                for (ClassRef ref : refs) {
+                    if (ref.isLoader(loader)) {
+                        return null;
+                    }
+                }
+                refs.add(new ClassRef(loader, null));
+                if (registered.incrementAndGet() % PRUNE_INTERVAL == 0) {
+                    prune();
+                }
+            } catch (Throwable e) {
+                // ignore, transformer中不能抛出异常
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 不使用lambda, transform中链接lambda会触发额外的类加载
+     */
+    private List<ClassRef> refs(String className) {
+        List<ClassRef> refs = index.get(className);
+        if (refs == null) {
+            List<ClassRef> newRefs = new CopyOnWriteArrayList<>();
+            refs = index.putIfAbsent(className, newRefs);
+            if (refs == null) {
+                refs = newRefs;
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * 按类名查找所有已加载的类
+     *
+     * @param className binary name
+     * @return
+     */
+    public Set<Class<?>> find(String className) {
+        List<ClassRef> refs = index.get(className);
+        if (refs == null || refs.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<Class<?>> classSet = new HashSet<>();
+        for (ClassRef ref : refs) {
+            if (ref.isCollected()) {
+                // 迭代的是快照, 可以直接删除
+                refs.remove(ref);
+                continue;
+            }
+            Class<?> clazz = ref.get();
+            if (clazz == null) {
+                ClassLoader loader = ref.getLoader();
+                if (loader == null && !ref.isBootstrap()) {
+                    continue;
+                }
+                clazz = resolvePending(loader, className);
+                if (clazz == null) {
+                    if (ref.isExpired()) {
+                        refs.remove(ref);
+                    }
+                    continue;
+                }
+                ref.resolved(clazz);
+            }
+            if (clazz != null) {
+                classSet.add(clazz);
+            }
+        }
+        if (refs.isEmpty()) {
+            index.remove(className, refs);
+        }
+        return classSet;
+    }
+
+    /**
+     * transform中只记录了ClassLoader, 通过 {@link Instrumentation#getInitiatedClasses(ClassLoader)} 查找该loader定义的同名类.
+     * 只返回已经定义完成的类, 不会触发类加载
+     *
+     * @return 还没有定义完成或者定义失败时返回null
+     */
+    private Class<?> resolvePending(ClassLoader loader, String className) {
+        for (Class<?> clazz : inst.getInitiatedClasses(loader)) {
+            if (clazz.getClassLoader() == loader && clazz.getName().equals(className)) {
+                return clazz;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 删除被回收的ClassLoader下的类, 不使用lambda和stream, 会在transform中调用
+     */
+    void prune() {
+        for (Map.Entry<String, List<ClassRef>> entry : index.entrySet()) {
+            List<ClassRef> refs = entry.getValue();
+            for (ClassRef ref : refs) {
+                if (ref.isCollected()) {
+                    refs.remove(ref);
+                }
+            }
+            if (refs.isEmpty()) {
+                index.remove(entry.getKey(), refs);
+            }
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    static class ClassRef {
+
+        /**
+         * bootstrap classloader为null, 不需要弱引用
+         */
+        private final boolean bootstrap;
+
+        private final WeakReference<ClassLoader> loader;
+
+        private volatile WeakReference<Class<?>> clazz;
+
+        /**
+         * 在transform中登记的时间, 纳秒
+         */
+        private final long pendingSince;
+
+        ClassRef(ClassLoader loader, Class<?> clazz) {
+            this.bootstrap = loader == null;
+            this.loader = new WeakReference<>(loader);
+            this.clazz = clazz == null ? null : new WeakReference<>(clazz);
+            this.pendingSince = clazz == null ? System.nanoTime() : 0;
+        }
+
+        boolean isLoader(ClassLoader classLoader) {
+            return bootstrap ? classLoader == null : loader.get() == classLoader;
+        }
+
+        boolean isBootstrap() {
+            return bootstrap;
+        }
+
+        boolean isCollected() {
+            return !bootstrap && loader.get() == null;
+        }
+
+        /**
+         * @return 登记之后超过宽限时间仍然没有解析到Class对象
+         */
+        boolean isExpired() {
+            return System.nanoTime() - pendingSince > PENDING_TIMEOUT;
+        }
+
+        void resolved(Class<?> clazz) {
+            this.clazz = new WeakReference<>(clazz);
+        }
+
+        ClassLoader getLoader() {
+            return bootstrap ? null : loader.get();
+        }
+
+        /**
+         * @return 只在transform中登记过, 还没有解析到Class对象时返回null
+         */
+        Class<?> get() {
+            WeakReference<Class<?>> ref = this.clazz;
+            return ref == null ? null : ref.get();
+        }
+    }
+}
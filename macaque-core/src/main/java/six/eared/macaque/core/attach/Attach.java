@@ -1,9 +1,18 @@
 package six.eared.macaque.core.attach;
 
+import java.util.Properties;
+
 public interface Attach {
 
     /**
      * attach process
      */
     public int attach(String agentpath, String property) throws Exception;
+
+    /**
+     * @return attach成功之后目标进程的系统属性, 未attach时返回null
+     */
+    public default Properties getTargetProperties() {
+        return null;
+    }
 }
@@ -4,6 +4,7 @@ import com.sun.tools.attach.*;
 import six.eared.macaque.core.common.AttachResultCode;
 
 import java.io.IOException;
+import java.util.Properties;
 
 
 class RuntimeAttach implements Attach {
@@ -13,6 +14,8 @@ class RuntimeAttach implements Attach {
 
     private VirtualMachine targetVM;
 
+    private Properties targetProperties;
+
 
     public RuntimeAttach(Integer pid) {
         this.pid = pid;
@@ -40,6 +43,7 @@ class RuntimeAttach implements Attach {
             if (this.targetVM != null) {
                 loadAgent(this.targetVM, agentpath, property);
                 result = AttachResultCode.SUCCESS;
+                this.targetProperties = readSystemProperties(this.targetVM);
             }
         } finally {
             if (this.targetVM == null) {
@@ -52,6 +56,19 @@ class RuntimeAttach implements Attach {
         return result;
     }
 
+    @Override
+    public Properties getTargetProperties() {
+        return targetProperties;
+    }
+
+    private Properties readSystemProperties(VirtualMachine virtualMachine) {
+        try {
+            return virtualMachine.getSystemProperties();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     public void loadAgent(VirtualMachine virtualMachine, String agentpath, String property)
             throws AgentLoadException, AgentInitializationException, IOException {
         try {
@@ -0,0 +1,164 @@
+package six.eared.macaque.core.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量热加载多个进程的结果, 每个进程的结果和各阶段耗时
+ */
+public class FleetHotSwapResult {
+
+    /**
+     * 总耗时, 毫秒
+     */
+    private long elapsed;
+
+    private final List<ProcessResult> results = new ArrayList<>();
+
+    public void add(ProcessResult result) {
+        results.add(result);
+    }
+
+    public int getTotal() {
+        return results.size();
+    }
+
+    public int getSucceeded() {
+        return (int) results.stream().filter(ProcessResult::isSuccess).count();
+    }
+
+    public int getFailed() {
+        return getTotal() - getSucceeded();
+    }
+
+    public boolean isAllSuccess() {
+        return getFailed() == 0;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public void setElapsed(long elapsed) {
+        this.elapsed = elapsed;
+    }
+
+    public List<ProcessResult> getResults() {
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "FleetHotSwapResult{" +
+                "total=" + getTotal() +
+                ", succeeded=" + getSucceeded() +
+                ", elapsed=" + elapsed +
+                ", results=" + results +
+                '}';
+    }
+
+    /**
+     * 单个进程的结果, 耗时单位毫秒
+     */
+    public static class ProcessResult {
+
+        private final Integer pid;
+
+        private boolean success;
+
+        private String message;
+
+        private Object data;
+
+        /**
+         * attach和建立连接
+         */
+        private long attachTime;
+
+        /**
+         * 准备热加载的数据, 比如服务端编译
+         */
+        private long prepareTime;
+
+        private long swapTime;
+
+        private long totalTime;
+
+        public ProcessResult(Integer pid) {
+            this.pid = pid;
+        }
+
+        public Integer getPid() {
+            return pid;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public void setSuccess(boolean success) {
+            this.success = success;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        public Object getData() {
+            return data;
+        }
+
+        public void setData(Object data) {
+            this.data = data;
+        }
+
+        public long getAttachTime() {
+            return attachTime;
+        }
+
+        public void setAttachTime(long attachTime) {
+            this.attachTime = attachTime;
+        }
+
+        public long getPrepareTime() {
+            return prepareTime;
+        }
+
+        public void setPrepareTime(long prepareTime) {
+            this.prepareTime = prepareTime;
+        }
+
+        public long getSwapTime() {
+            return swapTime;
+        }
+
+        public void setSwapTime(long swapTime) {
+            this.swapTime = swapTime;
+        }
+
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        public void setTotalTime(long totalTime) {
+            this.totalTime = totalTime;
+        }
+
+        @Override
+        public String toString() {
+            return "ProcessResult{" +
+                    "pid=" + pid +
+                    ", success=" + success +
+                    ", message='" + message + '\'' +
+                    ", attachTime=" + attachTime +
+                    ", prepareTime=" + prepareTime +
+                    ", swapTime=" + swapTime +
+                    ", totalTime=" + totalTime +
+                    '}';
+        }
+    }
+}
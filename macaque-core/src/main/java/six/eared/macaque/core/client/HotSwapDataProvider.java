@@ -0,0 +1,17 @@
+package six.eared.macaque.core.client;
+
+import six.eared.macaque.mbean.rmi.HotSwapRmiData;
+
+/**
+ * 批量热加载多个进程时, 为每个进程提供热加载的数据
+ */
+@FunctionalInterface
+public interface HotSwapDataProvider {
+
+    /**
+     * @param pid 目标进程, 已经attach
+     * @return
+     * @throws Exception 该进程热加载失败
+     */
+    HotSwapRmiData provide(Integer pid) throws Exception;
+}
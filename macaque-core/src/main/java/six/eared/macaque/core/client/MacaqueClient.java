@@ -5,24 +5,37 @@ import six.eared.macaque.core.attach.DefaultAttachFactory;
 import six.eared.macaque.core.common.AttachResultCode;
 import six.eared.macaque.core.common.PortNumberGenerator;
 import six.eared.macaque.core.common.PropertyName;
+import six.eared.macaque.core.connection.AgentConnection;
+import six.eared.macaque.core.connection.ConnectionManager;
 import six.eared.macaque.core.exception.JmxConnectException;
-import six.eared.macaque.core.jmx.JmxClient;
-import six.eared.macaque.core.jmx.JmxResourceManager;
-import six.eared.macaque.mbean.MBean;
+import six.eared.macaque.core.jps.JavaProcessHolder;
+import six.eared.macaque.core.transport.NioTransportClient;
+import six.eared.macaque.core.transport.Transport;
+import six.eared.macaque.core.transport.TransportType;
 import six.eared.macaque.mbean.MBeanObjectName;
+import six.eared.macaque.mbean.rmi.ClasspathManifest;
+import six.eared.macaque.mbean.rmi.EmptyRmiData;
 import six.eared.macaque.mbean.rmi.HotSwapRmiData;
-import six.eared.macaque.mbean.rmi.RmiData;
 import six.eared.macaque.mbean.rmi.RmiResult;
+import six.eared.macaque.mbean.transport.UnixDomainSockets;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class MacaqueClient {
 
     private String agentPath;
 
-    private JmxResourceManager jmxResourceManager = new JmxResourceManager();
+    private ConnectionManager connectionManager = ConnectionManager.getInstance();
+
+    /**
+     * 和agent之间的传输方式
+     */
+    private TransportType transportType = TransportType.JMX;
 
     public MacaqueClient() {
 
@@ -34,17 +47,33 @@ public class MacaqueClient {
             Integer jmxPort = PortNumberGenerator.getPort(pid);
             int attachCode = runtimeAttach.attach(this.agentPath, toPropertyString(jmxPort, true));
             if (attachCode == AttachResultCode.SUCCESS) {
-                JmxClient jmxClient = new JmxClient("127.0.0.1", jmxPort);
-                jmxResourceManager.addResource(pid, jmxClient);
+                connectionManager.register(pid, createTransport(runtimeAttach, jmxPort));
             }
             return attachCode;
         }
         return AttachResultCode.SUCCESS;
     }
 
+    /**
+     * agent监听了Unix domain socket时, socket文件的路径通过目标进程的系统属性传回
+     */
+    private Transport createTransport(Attach attach, Integer port) {
+        Properties properties = attach.getTargetProperties();
+        if (transportType == TransportType.NIO && properties != null) {
+            String socketPath = properties.getProperty(UnixDomainSockets.SOCKET_PATH_PROPERTY);
+            if (socketPath != null && UnixDomainSockets.isSupported()) {
+                return new NioTransportClient(socketPath);
+            }
+        }
+        return transportType.create("127.0.0.1", port);
+    }
+
+    /**
+     * 使用缓存的连接状态, 连接断开时先尝试重连, 重连失败再重新attach
+     */
     private boolean isAttached(Integer pid) {
-        JmxClient resource = jmxResourceManager.getResource(pid);
-        return resource != null && resource.isConnect();
+        AgentConnection connection = connectionManager.get(pid);
+        return connection != null && (connection.isAlive() || connection.tryConnect());
     }
 
     public RmiResult hotswap(Integer pid, HotSwapRmiData data) throws Exception {
@@ -53,9 +82,135 @@ public class MacaqueClient {
             return rmiResult;
         }
 
-        JmxClient jmxClient = jmxResourceManager.getResource(pid);
-        MBean<RmiData> processor = jmxClient.getMBean(MBeanObjectName.HOT_SWAP_MBEAN);
-        return processor.process(data);
+        return connectionManager.get(pid).request(MBeanObjectName.HOT_SWAP_MBEAN, data);
+    }
+
+    /**
+     * 批量热加载, 多个java文件在一次编译中完成, 所有的类一次重定义
+     *
+     * @param pid
+     * @param fileType
+     * @param files    key: 文件名, value: 文件内容
+     * @return
+     * @throws Exception
+     */
+    public RmiResult hotswap(Integer pid, String fileType, Map<String, byte[]> files) throws Exception {
+        return hotswap(pid, new HotSwapRmiData(fileType, files, new HashMap<>()));
+    }
+
+    /**
+     * 并发热加载多个进程, 所有进程使用同一份数据
+     *
+     * @param pids
+     * @param data
+     * @param parallelism 最多同时处理的进程数
+     * @return 每个进程的结果, 按pid的顺序
+     */
+    public FleetHotSwapResult hotswap(Collection<Integer> pids, HotSwapRmiData data, int parallelism) {
+        return hotswap(pids, pid -> data, parallelism);
+    }
+
+    /**
+     * 并发热加载多个进程, 每个进程依次attach、准备数据、热加载, 单个进程失败不影响其他进程
+     *
+     * @param pids
+     * @param provider    attach之后为每个进程提供热加载的数据
+     * @param parallelism 最多同时处理的进程数
+     * @return 每个进程的结果, 按pid的顺序
+     */
+    public FleetHotSwapResult hotswap(Collection<Integer> pids, HotSwapDataProvider provider, int parallelism) {
+        long start = System.currentTimeMillis();
+        List<Integer> targets = new ArrayList<>(new LinkedHashSet<>(pids));
+        FleetHotSwapResult result = new FleetHotSwapResult();
+        if (targets.isEmpty()) {
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, targets.size())), r -> {
+            Thread thread = new Thread(r, "macaque-fleet-hotswap");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<FleetHotSwapResult.ProcessResult>> futures = targets.stream()
+                    .map(pid -> CompletableFuture.supplyAsync(() -> hotswapProcess(pid, provider), executor))
+                    .collect(Collectors.toList());
+            for (CompletableFuture<FleetHotSwapResult.ProcessResult> future : futures) {
+                result.add(future.join());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        result.setElapsed(System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private FleetHotSwapResult.ProcessResult hotswapProcess(Integer pid, HotSwapDataProvider provider) {
+        FleetHotSwapResult.ProcessResult result = new FleetHotSwapResult.ProcessResult(pid);
+        long start = System.currentTimeMillis();
+        try {
+            RmiResult attachResult = preHandler(pid);
+            long attached = System.currentTimeMillis();
+            result.setAttachTime(attached - start);
+            if (attachResult != null) {
+                result.setMessage(attachResult.getMessage());
+                return result;
+            }
+
+            HotSwapRmiData data = provider.provide(pid);
+            long prepared = System.currentTimeMillis();
+            result.setPrepareTime(prepared - attached);
+
+            // 已经在上面attach并连接, 直接请求
+            RmiResult swapResult = connectionManager.get(pid).request(MBeanObjectName.HOT_SWAP_MBEAN, data);
+            result.setSwapTime(System.currentTimeMillis() - prepared);
+            result.setSuccess(swapResult.isSuccess());
+            result.setMessage(swapResult.getMessage());
+            result.setData(swapResult.getData());
+        } catch (Exception e) {
+            result.setMessage(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+        } finally {
+            result.setTotalTime(System.currentTimeMillis() - start);
+        }
+        return result;
+    }
+
+    /**
+     * 进程名称匹配正则表达式的进程
+     *
+     * @param processPattern 正则表达式, 部分匹配
+     * @return
+     */
+    public List<Integer> findProcess(String processPattern) {
+        JavaProcessHolder.refresh();
+        return JavaProcessHolder.match(Pattern.compile(processPattern)).stream()
+                .map(Integer::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 获取目标进程的classpath清单, 成功时 data 为 {@link ClasspathManifest}.
+     * 清单缓存在连接上, 同一个连接只请求一次
+     *
+     * @param pid
+     * @return
+     * @throws Exception
+     */
+    public RmiResult classpath(Integer pid) throws Exception {
+        RmiResult rmiResult = preHandler(pid);
+        if (rmiResult != null) {
+            return rmiResult;
+        }
+
+        AgentConnection connection = connectionManager.get(pid);
+        ClasspathManifest manifest = connection.getClasspathManifest();
+        if (manifest != null) {
+            return RmiResult.success().data(manifest);
+        }
+        RmiResult result = connection.request(MBeanObjectName.CLASSPATH_MBEAN, new EmptyRmiData());
+        if (result.isSuccess() && result.getData() instanceof ClasspathManifest) {
+            connection.setClasspathManifest((ClasspathManifest) result.getData());
+        }
+        return result;
     }
 
     private RmiResult preHandler(Integer pid) throws Exception {
@@ -68,11 +223,7 @@ public class MacaqueClient {
 
         RmiResult result = null;
         try {
-            JmxClient jmxClient = jmxResourceManager.getResource(pid);
-            if (!jmxClient.isConnect()) {
-                jmxClient.disconnect();
-                jmxClient.connect();
-            }
+            connectionManager.get(pid).connect();
         } catch (JmxConnectException e) {
             result = RmiResult.error(String.format("jmx connect error, pid='%d', msg=%s", pid, e.getMessage()));
         }
@@ -84,6 +235,10 @@ public class MacaqueClient {
         Map<String, String> tmp = new HashMap<>();
         tmp.put(PropertyName.PORT, String.valueOf(port));
         tmp.put(PropertyName.DEBUG, Boolean.toString(debug));
+        tmp.put(PropertyName.TRANSPORT, transportType.getName());
+        if (transportType == TransportType.NIO && UnixDomainSockets.isSupported()) {
+            tmp.put(PropertyName.UNIX_SOCKET, Boolean.TRUE.toString());
+        }
         return tmp.entrySet().stream()
                 .map(entry -> String.format("%s=%s", entry.getKey(), entry.getValue()))
                 .collect(Collectors.joining(","));
@@ -92,4 +247,8 @@ public class MacaqueClient {
     public void setAgentPath(String agentPath) {
         this.agentPath = agentPath;
     }
+
+    public void setTransportType(TransportType transportType) {
+        this.transportType = transportType;
+    }
 }
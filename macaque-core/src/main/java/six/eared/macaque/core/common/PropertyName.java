@@ -4,4 +4,8 @@ public class PropertyName {
     public static final String PORT = "port";
 
     public static final String DEBUG = "debug";
+
+    public static final String TRANSPORT = "transport";
+
+    public static final String UNIX_SOCKET = "unixSocket";
 }
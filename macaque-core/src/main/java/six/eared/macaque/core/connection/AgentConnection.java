@@ -0,0 +1,194 @@
+package six.eared.macaque.core.connection;
+
+import six.eared.macaque.core.exception.JmxConnectException;
+import six.eared.macaque.core.transport.Transport;
+import six.eared.macaque.mbean.rmi.ClasspathManifest;
+import six.eared.macaque.mbean.rmi.RmiData;
+import six.eared.macaque.mbean.rmi.RmiResult;
+
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 和一个agent之间的连接
+ * <p>
+ * 缓存连接的存活状态, 请求前不再发送心跳. 状态由 {@link ConnectionManager} 的心跳任务、传输层的断开通知和请求的IO异常更新,
+ * 断开后按指数退避重连.
+ */
+public class AgentConnection {
+
+    private final Integer pid;
+
+    private final Transport transport;
+
+    private volatile boolean alive = false;
+
+    /**
+     * 最后一次确认连接存活的时间, 心跳成功或者请求成功
+     */
+    private volatile long lastActiveTime = 0;
+
+    /**
+     * 连续重连失败的次数
+     */
+    private volatile int failures = 0;
+
+    /**
+     * 下一次心跳或者重连的时间
+     */
+    private volatile long nextCheckTime = 0;
+
+    /**
+     * 心跳或者重连正在执行, 没有返回之前不再提交新的检查
+     */
+    private final AtomicBoolean checking = new AtomicBoolean(false);
+
+    /**
+     * 目标进程的classpath清单, 服务端编译时复用, 重新建立连接时清空
+     */
+    private volatile ClasspathManifest classpathManifest;
+
+    AgentConnection(Integer pid, Transport transport) {
+        this.pid = pid;
+        this.transport = transport;
+        this.transport.setCloseListener(() -> markDead(System.currentTimeMillis()));
+    }
+
+    /**
+     * 未连接时建立连接, 已经存活时直接返回
+     *
+     * @throws JmxConnectException 连接失败
+     */
+    public synchronized void connect() {
+        if (alive && transport.isOpen()) {
+            return;
+        }
+        try {
+            try {
+                transport.disconnect();
+            } catch (IOException ignored) {
+            }
+            transport.connect();
+            classpathManifest = null;
+        } catch (JmxConnectException e) {
+            failures++;
+            nextCheckTime = System.currentTimeMillis() + ConnectionManager.backoff(failures);
+            throw e;
+        }
+        failures = 0;
+        markActive(System.currentTimeMillis());
+    }
+
+    /**
+     * @return 连接是否可用
+     */
+    public boolean tryConnect() {
+        try {
+            connect();
+            return true;
+        } catch (JmxConnectException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 调用agent中的MBean, IO异常时标记连接断开, 下一次请求前重连
+     */
+    public RmiResult request(String objectName, RmiData data) throws Exception {
+        try {
+            RmiResult result = transport.request(objectName, data);
+            lastActiveTime = System.currentTimeMillis();
+            return result;
+        } catch (IOException e) {
+            markDead(System.currentTimeMillis());
+            throw e;
+        } catch (UndeclaredThrowableException e) {
+            // JMX代理把RMI的IO异常包装成UndeclaredThrowableException
+            if (e.getCause() instanceof IOException) {
+                markDead(System.currentTimeMillis());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return 到达检查时间并且没有正在执行的检查, 返回true时调用方必须执行 {@link #check(long)}
+     */
+    boolean beginCheck(long now) {
+        return now >= nextCheckTime && checking.compareAndSet(false, true);
+    }
+
+    /**
+     * 心跳任务调用, 到达检查时间后存活的连接发送心跳, 断开的连接重连
+     */
+    void check(long now) {
+        try {
+            doCheck(now);
+        } finally {
+            checking.set(false);
+        }
+    }
+
+    private void doCheck(long now) {
+        if (now < nextCheckTime) {
+            return;
+        }
+        if (alive) {
+            if (now - lastActiveTime < ConnectionManager.HEARTBEAT_INTERVAL) {
+                // 最近的请求已经确认过
+                nextCheckTime = lastActiveTime + ConnectionManager.HEARTBEAT_INTERVAL;
+            } else if (transport.isConnect()) {
+                markActive(now);
+            } else {
+                markDead(now);
+            }
+        } else {
+            tryConnect();
+        }
+    }
+
+    void close() {
+        alive = false;
+        transport.setCloseListener(null);
+        try {
+            transport.disconnect();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void markActive(long now) {
+        alive = true;
+        lastActiveTime = now;
+        nextCheckTime = now + ConnectionManager.HEARTBEAT_INTERVAL;
+    }
+
+    private void markDead(long now) {
+        alive = false;
+        nextCheckTime = now + ConnectionManager.backoff(failures);
+    }
+
+    public boolean isAlive() {
+        return alive;
+    }
+
+    public Integer getPid() {
+        return pid;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public ClasspathManifest getClasspathManifest() {
+        return classpathManifest;
+    }
+
+    public void setClasspathManifest(ClasspathManifest classpathManifest) {
+        this.classpathManifest = classpathManifest;
+    }
+}
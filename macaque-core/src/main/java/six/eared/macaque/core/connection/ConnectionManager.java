@@ -0,0 +1,168 @@
+package six.eared.macaque.core.connection;
+
+import six.eared.macaque.common.util.Pair;
+import six.eared.macaque.core.jps.JavaProcessHolder;
+import six.eared.macaque.core.transport.Transport;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * 管理所有agent的连接
+ * <p>
+ * 后台线程定时检查连接: 空闲超过 {@link #HEARTBEAT_INTERVAL} 的连接发送心跳, 断开的连接按指数退避重连.
+ * 心跳和重连在单独的线程中并行执行, 一个没有响应的agent不影响其他连接的检查.
+ * 断开的连接对应的进程已经退出时移除连接.
+ * 正常情况下热加载只有一次远程调用.
+ */
+public class ConnectionManager {
+
+    /**
+     * 心跳间隔, 毫秒
+     */
+    public static final long HEARTBEAT_INTERVAL = 5_000;
+
+    /**
+     * 检查连接的间隔, 毫秒
+     */
+    private static final long CHECK_INTERVAL = 500;
+
+    private static final long MIN_BACKOFF = 500;
+
+    private static final long MAX_BACKOFF = 30_000;
+
+    /**
+     * 检查断开的连接对应的进程是否还存在的间隔, 毫秒
+     */
+    private static final long PROCESS_CHECK_INTERVAL = 5_000;
+
+    private static final ConnectionManager INSTANCE = new ConnectionManager();
+
+    private final Map<Integer, AgentConnection> connections = new ConcurrentHashMap<>();
+
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * 执行心跳和重连, 每个连接最多占用一个线程
+     */
+    private volatile ExecutorService checkers;
+
+    private long lastProcessCheckTime = 0;
+
+    public static ConnectionManager getInstance() {
+        return INSTANCE;
+    }
+
+    public AgentConnection get(Integer pid) {
+        return connections.get(pid);
+    }
+
+    /**
+     * 添加连接, 替换同一个进程已有的连接. 不会立即连接, 第一次请求前或者下一次检查时连接
+     *
+     * @param pid
+     * @param transport
+     * @return
+     */
+    public AgentConnection register(Integer pid, Transport transport) {
+        AgentConnection connection = new AgentConnection(pid, transport);
+        AgentConnection old = connections.put(pid, connection);
+        if (old != null) {
+            old.close();
+        }
+        startScheduler();
+        return connection;
+    }
+
+    public void remove(Integer pid) {
+        AgentConnection connection = connections.remove(pid);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private void startScheduler() {
+        if (scheduler != null) {
+            return;
+        }
+        synchronized (this) {
+            if (scheduler == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "macaque-connection-heartbeat");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                checkers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                    Thread thread = new Thread(r, "macaque-connection-check");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.scheduleWithFixedDelay(this::checkAll, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                scheduler = executor;
+            }
+        }
+    }
+
+    private void checkAll() {
+        removeExited();
+        for (AgentConnection connection : connections.values()) {
+            long now = System.currentTimeMillis();
+            if (!connection.beginCheck(now)) {
+                continue;
+            }
+            try {
+                checkers.execute(() -> {
+                    try {
+                        connection.check(now);
+                    } catch (Throwable ignored) {
+                        // 单个连接的异常不影响其他连接
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                try {
+                    connection.check(now);
+                } catch (Throwable ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除进程已经退出的连接, 存活的连接不需要检查
+     */
+    private void removeExited() {
+        long now = System.currentTimeMillis();
+        if (now - lastProcessCheckTime < PROCESS_CHECK_INTERVAL) {
+            return;
+        }
+        lastProcessCheckTime = now;
+        if (connections.values().stream().allMatch(AgentConnection::isAlive)) {
+            return;
+        }
+        try {
+            JavaProcessHolder.refresh();
+        } catch (Throwable e) {
+            return;
+        }
+        Set<String> pids = new HashSet<>();
+        for (Pair<String, String> process : JavaProcessHolder.getJavaProcess()) {
+            pids.add(process.getFirst());
+        }
+        for (AgentConnection connection : connections.values()) {
+            if (!connection.isAlive() && !pids.contains(connection.getPid().toString())
+                    && connections.remove(connection.getPid(), connection)) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * @param failures 连续失败的次数
+     * @return 下一次重连前等待的时间, 毫秒
+     */
+    static long backoff(int failures) {
+        return Math.min(MIN_BACKOFF << Math.min(failures, 16), MAX_BACKOFF);
+    }
+}
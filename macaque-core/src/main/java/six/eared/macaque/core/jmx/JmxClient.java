@@ -1,19 +1,24 @@
 package six.eared.macaque.core.jmx;
 
 import six.eared.macaque.core.exception.JmxConnectException;
+import six.eared.macaque.core.transport.Transport;
 import six.eared.macaque.mbean.MBean;
 import six.eared.macaque.mbean.MBeanObjectName;
 import six.eared.macaque.mbean.rmi.EmptyRmiData;
 import six.eared.macaque.mbean.rmi.RmiData;
+import six.eared.macaque.mbean.rmi.RmiResult;
 
 import javax.management.JMX;
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 import java.io.IOException;
 
-public class JmxClient {
+public class JmxClient implements Transport {
 
     private String host;
 
@@ -23,24 +28,44 @@ public class JmxClient {
 
     private MBean<EmptyRmiData> hearbeatMBean;
 
+    private volatile Runnable closeListener;
+
+    /**
+     * RMI连接失败或者被服务端关闭时由JMX连接器通知
+     */
+    private final NotificationListener connectionListener = (notification, handback) -> {
+        String type = notification.getType();
+        Runnable listener = this.closeListener;
+        if (listener != null && (JMXConnectionNotification.FAILED.equals(type) || JMXConnectionNotification.CLOSED.equals(type))) {
+            listener.run();
+        }
+    };
+
     public JmxClient(String host, Integer port) {
         this.host = host;
         this.port = port;
     }
 
+    @Override
     public void connect() {
         try {
             String url = String.format("service:jmx:rmi:///jndi/rmi://%s:%d/macaque", host, port);
             JMXServiceURL serviceURL = new JMXServiceURL(url);
             this.connector = JMXConnectorFactory.connect(serviceURL);
+            this.connector.addConnectionNotificationListener(connectionListener, null, null);
             this.hearbeatMBean = getMBean(MBeanObjectName.HEART_BEAT_MBEAN);
         } catch (Exception e) {
             throw new JmxConnectException(host + ":" + port, e);
         }
     }
 
+    @Override
     public void disconnect() throws IOException {
         if (this.connector != null) {
+            try {
+                this.connector.removeConnectionNotificationListener(connectionListener);
+            } catch (ListenerNotFoundException ignored) {
+            }
             this.connector.close();
             this.connector = null;
         }
@@ -49,6 +74,7 @@ public class JmxClient {
         }
     }
 
+    @Override
     public boolean isConnect() {
         try {
             return connector != null
@@ -59,6 +85,22 @@ public class JmxClient {
         }
     }
 
+    @Override
+    public boolean isOpen() {
+        return connector != null;
+    }
+
+    @Override
+    public void setCloseListener(Runnable listener) {
+        this.closeListener = listener;
+    }
+
+    @Override
+    public RmiResult request(String objectName, RmiData data) throws Exception {
+        MBean<RmiData> processor = getMBean(objectName);
+        return processor.process(data);
+    }
+
     public <T extends RmiData> MBean<T> getMBean(String objectName) throws Exception {
         return JMX.newMBeanProxy(this.connector.getMBeanServerConnection(),
                 new ObjectName(objectName), MBean.class);
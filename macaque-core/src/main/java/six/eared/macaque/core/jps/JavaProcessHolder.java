@@ -6,6 +6,7 @@ import six.eared.macaque.common.util.Pair;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class JavaProcessHolder {
@@ -21,6 +22,17 @@ public class JavaProcessHolder {
         return PROCESS_LIST;
     }
 
+    /**
+     * @param pattern 匹配进程名称, 部分匹配即可
+     * @return 匹配的进程的pid
+     */
+    public static List<String> match(Pattern pattern) {
+        return PROCESS_LIST.stream()
+                .filter(item -> item.getSecond() != null && pattern.matcher(item.getSecond()).find())
+                .map(Pair::getFirst)
+                .collect(Collectors.toList());
+    }
+
     public static void refresh() {
         PROCESS_LIST = VirtualMachine.list().stream()
                 .map(item -> {
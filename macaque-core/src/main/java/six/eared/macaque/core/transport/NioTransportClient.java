@@ -0,0 +1,199 @@
+package six.eared.macaque.core.transport;
+
+import six.eared.macaque.core.exception.JmxConnectException;
+import six.eared.macaque.mbean.MBeanObjectName;
+import six.eared.macaque.mbean.rmi.EmptyRmiData;
+import six.eared.macaque.mbean.rmi.RmiData;
+import six.eared.macaque.mbean.rmi.RmiResult;
+import six.eared.macaque.mbean.transport.FrameDecoder;
+import six.eared.macaque.mbean.transport.PayloadCodec;
+import six.eared.macaque.mbean.transport.TransportProtocol;
+import six.eared.macaque.mbean.transport.UnixDomainSockets;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于NIO的二进制传输
+ * <p>
+ * 一个连接上可以同时发送多个请求, 不需要等待前一个请求的响应. 每个请求按 {@link TransportProtocol#MAX_CHUNK_SIZE} 拆成多个frame,
+ * 并发的请求的frame交错发送, 大文件不会阻塞小请求. 响应由读线程按streamId分发.
+ * <p>
+ * 指定了socket文件时通过Unix domain socket连接, 见 {@link UnixDomainSockets}.
+ */
+public class NioTransportClient implements Transport {
+
+    /**
+     * 等待响应的超时时间, 毫秒
+     */
+    private static final long RESPONSE_TIMEOUT = 60_000;
+
+    private final String host;
+
+    private final Integer port;
+
+    /**
+     * agent监听的Unix domain socket文件, 为null时使用TCP
+     */
+    private final String socketPath;
+
+    private final AtomicInteger streamIds = new AtomicInteger();
+
+    private final Map<Integer, CompletableFuture<RmiResult>> inflight = new ConcurrentHashMap<>();
+
+    private final Object writeLock = new Object();
+
+    private volatile SocketChannel channel;
+
+    private Thread reader;
+
+    private volatile Runnable closeListener;
+
+    public NioTransportClient(String host, Integer port) {
+        this.host = host;
+        this.port = port;
+        this.socketPath = null;
+    }
+
+    public NioTransportClient(String socketPath) {
+        this.host = null;
+        this.port = null;
+        this.socketPath = socketPath;
+    }
+
+    @Override
+    public synchronized void connect() {
+        try {
+            SocketChannel channel;
+            if (socketPath != null) {
+                channel = UnixDomainSockets.open();
+                channel.connect(UnixDomainSockets.address(socketPath));
+            } else {
+                channel = SocketChannel.open();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.connect(new InetSocketAddress(host, port));
+            }
+            this.channel = channel;
+            this.reader = new Thread(() -> read(channel), "macaque-transport-reader-" + getAddress());
+            this.reader.setDaemon(true);
+            this.reader.start();
+        } catch (IOException e) {
+            throw new JmxConnectException(getAddress(), e);
+        }
+    }
+
+    public String getAddress() {
+        return socketPath != null ? socketPath : host + ":" + port;
+    }
+
+    @Override
+    public synchronized void disconnect() throws IOException {
+        SocketChannel channel = this.channel;
+        this.channel = null;
+        if (channel != null) {
+            channel.close();
+        }
+        failAll(new IOException("transport closed"));
+    }
+
+    @Override
+    public boolean isConnect() {
+        try {
+            return channel != null && channel.isOpen()
+                    && request(MBeanObjectName.HEART_BEAT_MBEAN, new EmptyRmiData()).isSuccess();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        SocketChannel channel = this.channel;
+        return channel != null && channel.isOpen();
+    }
+
+    @Override
+    public void setCloseListener(Runnable listener) {
+        this.closeListener = listener;
+    }
+
+    @Override
+    public RmiResult request(String objectName, RmiData data) throws Exception {
+        SocketChannel channel = this.channel;
+        if (channel == null) {
+            throw new IOException("transport not connected");
+        }
+        int streamId = streamIds.incrementAndGet();
+        CompletableFuture<RmiResult> future = new CompletableFuture<>();
+        inflight.put(streamId, future);
+        try {
+            List<ByteBuffer> frames = TransportProtocol.encode(streamId, TransportProtocol.TYPE_REQUEST,
+                    PayloadCodec.encodeRequest(objectName, data));
+            // 每次只写一个frame, 其他线程的请求可以插在中间
+            for (int i = 0; i < frames.size(); i += 2) {
+                synchronized (writeLock) {
+                    ByteBuffer[] frame = {frames.get(i), frames.get(i + 1)};
+                    while (frame[1].hasRemaining() || frame[0].hasRemaining()) {
+                        channel.write(frame);
+                    }
+                }
+            }
+            return future.get(RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            inflight.remove(streamId);
+        }
+    }
+
+    private void read(SocketChannel channel) {
+        FrameDecoder decoder = new FrameDecoder();
+        ByteBuffer buffer = ByteBuffer.allocate(TransportProtocol.MAX_CHUNK_SIZE);
+        try {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                decoder.decode(buffer, message -> {
+                    CompletableFuture<RmiResult> future = inflight.remove(message.getStreamId());
+                    if (future == null) {
+                        return;
+                    }
+                    try {
+                        future.complete(PayloadCodec.decodeResult(message.getPayload()));
+                    } catch (IOException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+                buffer.clear();
+            }
+            failAll(new IOException("transport closed by agent"));
+        } catch (IOException e) {
+            failAll(e);
+        }
+        if (this.channel == channel) {
+            this.channel = null;
+            Runnable listener = this.closeListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    private void failAll(IOException e) {
+        for (Integer streamId : inflight.keySet()) {
+            CompletableFuture<RmiResult> future = inflight.remove(streamId);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
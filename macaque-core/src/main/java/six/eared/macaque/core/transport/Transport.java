@@ -0,0 +1,50 @@
+package six.eared.macaque.core.transport;
+
+import six.eared.macaque.mbean.rmi.RmiData;
+import six.eared.macaque.mbean.rmi.RmiResult;
+
+import java.io.IOException;
+
+/**
+ * 客户端和agent之间的传输
+ */
+public interface Transport {
+
+    /**
+     * 建立连接
+     */
+    void connect();
+
+    void disconnect() throws IOException;
+
+    /**
+     * 发起一次心跳请求
+     */
+    boolean isConnect();
+
+    /**
+     * 本地的连接状态, 不发起远程调用
+     */
+    default boolean isOpen() {
+        return true;
+    }
+
+    /**
+     * 连接意外断开时的回调, 主动 {@link #disconnect()} 时不回调
+     *
+     * @param listener
+     */
+    default void setCloseListener(Runnable listener) {
+
+    }
+
+    /**
+     * 调用agent中的MBean
+     *
+     * @param objectName MBean的名称, 见 {@link six.eared.macaque.mbean.MBeanObjectName}
+     * @param data       请求数据
+     * @return
+     * @throws Exception
+     */
+    RmiResult request(String objectName, RmiData data) throws Exception;
+}
@@ -0,0 +1,36 @@
+package six.eared.macaque.core.transport;
+
+import six.eared.macaque.core.jmx.JmxClient;
+
+/**
+ * 传输方式, 通过attach参数 transport 传给agent
+ */
+public enum TransportType {
+
+    /**
+     * JMX/RMI
+     */
+    JMX {
+        @Override
+        public Transport create(String host, Integer port) {
+            return new JmxClient(host, port);
+        }
+    },
+
+    /**
+     * 基于NIO的二进制协议, 见 {@link six.eared.macaque.mbean.transport.TransportProtocol}
+     */
+    NIO {
+        @Override
+        public Transport create(String host, Integer port) {
+            return new NioTransportClient(host, port);
+        }
+    },
+    ;
+
+    public abstract Transport create(String host, Integer port);
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+}
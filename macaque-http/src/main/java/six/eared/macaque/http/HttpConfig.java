@@ -2,10 +2,27 @@ package six.eared.macaque.http;
 
 public class HttpConfig {
 
+    public static final long DEFAULT_REQUEST_TIMEOUT = 120_000;
+
     private Integer port;
 
     private String rootPath;
 
+    /**
+     * 执行阻塞处理器的线程数
+     */
+    private int blockingThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * 阻塞处理器的任务队列长度, 队列满时拒绝请求
+     */
+    private int blockingQueueSize = 1024;
+
+    /**
+     * 默认的请求超时时间, 毫秒
+     */
+    private long requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
     public HttpConfig(Integer port) {
         this.port = port;
         this.rootPath = "/";
@@ -34,4 +51,28 @@ public class HttpConfig {
     public void setRootPath(String rootPath) {
         this.rootPath = rootPath;
     }
+
+    public int getBlockingThreads() {
+        return blockingThreads;
+    }
+
+    public void setBlockingThreads(int blockingThreads) {
+        this.blockingThreads = blockingThreads;
+    }
+
+    public int getBlockingQueueSize() {
+        return blockingQueueSize;
+    }
+
+    public void setBlockingQueueSize(int blockingQueueSize) {
+        this.blockingQueueSize = blockingQueueSize;
+    }
+
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
 }
@@ -1,5 +1,7 @@
 package six.eared.macaque.http;
 
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import reactor.netty.DisposableServer;
 import reactor.netty.http.server.HttpServer;
 import six.eared.macaque.http.handler.RequestHandler;
@@ -16,13 +18,20 @@ public class MacaqueHttpServer {
 
     private DisposableServer disposableServer;
 
+    /**
+     * 执行阻塞处理器, 不占用IO线程
+     */
+    private Scheduler blockingScheduler;
+
     public MacaqueHttpServer(HttpConfig config, List<RequestHandler> requestHandlers) {
         this.config = config;
         this.requestHandlers = requestHandlers;
     }
 
     public void start() {
-        RequestHandlerBuilder requestHandlerBuilder = new RequestHandlerBuilder(this.config.getRootPath(), requestHandlers);
+        this.blockingScheduler = Schedulers.newBoundedElastic(this.config.getBlockingThreads(),
+                this.config.getBlockingQueueSize(), "macaque-http-blocking");
+        RequestHandlerBuilder requestHandlerBuilder = new RequestHandlerBuilder(this.config, requestHandlers, this.blockingScheduler);
         this.server = HttpServer.create()
                 .httpFormDecoder(builder -> builder.maxInMemorySize(0))
                 .port(this.config.getPort())
@@ -32,5 +41,6 @@ public class MacaqueHttpServer {
 
     public void stop() {
         this.disposableServer.dispose();
+        this.blockingScheduler.dispose();
     }
 }
@@ -13,4 +13,14 @@ public @interface Path {
     String value() default "";
 
     RequestMethod[] method() default RequestMethod.POST;
+
+    /**
+     * 同时处理的最大请求数, 超过时直接拒绝, 0不限制
+     */
+    int maxConcurrency() default 0;
+
+    /**
+     * 请求超时时间, 毫秒, 0使用 {@link six.eared.macaque.http.HttpConfig#getRequestTimeout()}
+     */
+    long timeout() default 0;
 }
@@ -1,6 +1,7 @@
 package six.eared.macaque.http.codec.decoder;
 
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.multipart.FileUpload;
 import reactor.core.publisher.Mono;
 import reactor.netty.http.server.HttpServerRequest;
 import six.eared.macaque.common.util.Pair;
@@ -9,6 +10,8 @@ import six.eared.macaque.http.request.MultipartFile;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
 
 public class FormDecoder<Req> extends BaseDecoder<Req> {
 
@@ -18,7 +21,8 @@ public class FormDecoder<Req> extends BaseDecoder<Req> {
             return request.receiveForm(builder -> builder.maxInMemorySize(256))
                     .map(item -> {
                         try {
-                            return new Pair<>(item.getName(), item.get());
+                            String fileName = item instanceof FileUpload ? ((FileUpload) item).getFilename() : null;
+                            return new Pair<>(item.getName(), new MultipartFile(fileName, item.get()));
                         } catch (IOException e) {
                             throw new RuntimeException(e);
                         }
@@ -28,12 +32,23 @@ public class FormDecoder<Req> extends BaseDecoder<Req> {
                         Req reqObj = newReqObject(reqType);
                         loop:
                         for (Field field : ReflectUtil.getFields(reqType)) {
-                            for (Pair<String, byte[]> params : list) {
+                            // 同名的多个文件, List<MultipartFile>
+                            if (field.getType() == List.class) {
+                                List<MultipartFile> files = new ArrayList<>();
+                                for (Pair<String, MultipartFile> params : list) {
+                                    if (params.getFirst().equals(field.getName())) {
+                                        files.add(params.getSecond());
+                                    }
+                                }
+                                ReflectUtil.setFieldValue(reqObj, field, files);
+                                continue;
+                            }
+                            for (Pair<String, MultipartFile> params : list) {
                                 if (params.getFirst().equals(field.getName())) {
                                     if (field.getType() == MultipartFile.class) {
-                                        ReflectUtil.setFieldValue(reqObj, field, new MultipartFile(params.getSecond()));
+                                        ReflectUtil.setFieldValue(reqObj, field, params.getSecond());
                                     } else {
-                                        ReflectUtil.setFieldValue(reqObj, field, new String(params.getSecond()));
+                                        ReflectUtil.setFieldValue(reqObj, field, new String(params.getSecond().getBytes()));
                                     }
                                     continue loop;
                                 }
@@ -1,9 +1,16 @@
 package six.eared.macaque.http.handler;
 
 
+import io.netty.handler.codec.http.HttpResponseStatus;
 import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import reactor.netty.http.server.HttpServerRequest;
 import reactor.netty.http.server.HttpServerResponse;
+import reactor.util.context.Context;
+import six.eared.macaque.http.HttpConfig;
+import six.eared.macaque.http.annotitions.Path;
 import six.eared.macaque.http.codec.combiner.DecoderCombiner;
 import six.eared.macaque.http.codec.decoder.Decoder;
 import six.eared.macaque.http.codec.decoder.FormDecoder;
@@ -15,13 +22,58 @@ import six.eared.macaque.http.response.ErrorResponse;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
 
+/**
+ * 请求的解码和响应的编码在IO线程中完成, {@link #process0(Object)} 在阻塞调度器中执行, 不会阻塞IO线程.
+ * 非阻塞的处理器重写 {@link #processAsync(Object)}.
+ * <p>
+ * 每个路由可以通过 {@link Path#maxConcurrency()} 限制并发数, 通过 {@link Path#timeout()} 设置超时时间,
+ * 超过并发数或者阻塞调度器的队列已满时返回503, 超时返回504.
+ * <p>
+ * 超时只是不再等待结果, 已经开始的 {@link #process0(Object)} 可能仍在执行并且最终生效(比如热加载已经完成),
+ * 504不代表请求没有被处理. 并发数的许可在 {@link #process0(Object)} 真正返回时才释放.
+ *
+ * @param <Req>
+ */
 public abstract class BaseRequestHandler<Req> implements RequestHandler {
 
     protected static final ErrorResponse ERROR = new ErrorResponse("error");
 
+    protected static final ErrorResponse BUSY = new ErrorResponse("too many requests");
+
+    protected static final ErrorResponse TIMEOUT = new ErrorResponse("timeout, the request may still be running and take effect");
+
+    private Scheduler blockingScheduler = Schedulers.boundedElastic();
+
+    private long timeout = HttpConfig.DEFAULT_REQUEST_TIMEOUT;
+
+    /**
+     * 为null时不限制并发数
+     */
+    private Semaphore limiter;
+
+    @Override
+    public void init(HttpConfig config, Scheduler blockingScheduler) {
+        this.blockingScheduler = blockingScheduler;
+        this.timeout = config.getRequestTimeout();
+        Path path = this.getClass().getAnnotation(Path.class);
+        if (path != null) {
+            if (path.timeout() > 0) {
+                this.timeout = path.timeout();
+            }
+            if (path.maxConcurrency() > 0) {
+                this.limiter = new Semaphore(path.maxConcurrency());
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public final Publisher<Void> process(HttpServerRequest request, HttpServerResponse response) {
@@ -31,20 +83,67 @@ public abstract class BaseRequestHandler<Req> implements RequestHandler {
 
         return response.sendString(
                 decoder.decode(request, getReqType())
-                        .map((req) -> {
-                            try {
-                                Object res = this.process0(req);
-                                return res == null ? ERROR : res;
-                            } catch (Exception e) {
-                                return ERROR;
-                            }
-                        })
+                        .flatMap(req -> execute(req)
+                                .onErrorResume(e -> Mono.just(errorResponse(response, e))))
                         .transform(res -> {
                             return encoder.encode(res);
                         })
         );
     }
 
+    private Mono<Object> execute(Req req) {
+        Semaphore limiter = this.limiter;
+        if (limiter != null && !limiter.tryAcquire()) {
+            return Mono.error(new RejectedExecutionException("too many requests"));
+        }
+        Mono<Object> result = Mono.defer(() -> processAsync(req))
+                .defaultIfEmpty(ERROR)
+                .timeout(Duration.ofMillis(timeout));
+        if (limiter == null) {
+            return result;
+        }
+        Permit permit = new Permit(limiter);
+        return result.doFinally(signal -> permit.releaseIfNotStarted())
+                .contextWrite(Context.of(Permit.class, permit));
+    }
+
+    /**
+     * 默认在阻塞调度器中调用 {@link #process0(Object)}, 非阻塞的处理器可以重写, 直接返回结果
+     *
+     * @param req
+     * @return 结果为空时返回 {@link #ERROR}
+     */
+    protected Mono<Object> processAsync(Req req) {
+        return Mono.deferContextual(context -> {
+            Permit permit = context.getOrDefault(Permit.class, null);
+            return Mono.fromCallable(() -> {
+                if (permit != null && !permit.start()) {
+                    // 等待执行时已经超时
+                    return ERROR;
+                }
+                try {
+                    return process0(req);
+                } finally {
+                    if (permit != null) {
+                        permit.finish();
+                    }
+                }
+            });
+        }).subscribeOn(blockingScheduler);
+    }
+
+    private ErrorResponse errorResponse(HttpServerResponse response, Throwable e) {
+        if (e instanceof RejectedExecutionException) {
+            response.status(HttpResponseStatus.SERVICE_UNAVAILABLE);
+            return BUSY;
+        }
+        if (e instanceof TimeoutException) {
+            response.status(HttpResponseStatus.GATEWAY_TIMEOUT);
+            return TIMEOUT;
+        }
+        return ERROR;
+    }
+
     private void setJsonResponse(HttpServerResponse response) {
         response.responseHeaders().add(CONTENT_TYPE, "application/json;charset=UTF-8");
     }
@@ -74,4 +173,43 @@ public abstract class BaseRequestHandler<Req> implements RequestHandler {
     }
 
     public abstract Object process0(Req req);
+
+    /**
+     * 并发数的许可, 阻塞的处理开始之后由它结束时释放, 还没有开始(排队时超时, 或者非阻塞的处理器)由响应结束时释放
+     */
+    private static class Permit {
+
+        private static final int NEW = 0;
+
+        private static final int RUNNING = 1;
+
+        private static final int RELEASED = 2;
+
+        private final Semaphore limiter;
+
+        private final AtomicInteger state = new AtomicInteger(NEW);
+
+        Permit(Semaphore limiter) {
+            this.limiter = limiter;
+        }
+
+        /**
+         * @return 许可已经释放时返回false, 不再执行
+         */
+        boolean start() {
+            return state.compareAndSet(NEW, RUNNING);
+        }
+
+        void finish() {
+            if (state.compareAndSet(RUNNING, RELEASED)) {
+                limiter.release();
+            }
+        }
+
+        void releaseIfNotStarted() {
+            if (state.compareAndSet(NEW, RELEASED)) {
+                limiter.release();
+            }
+        }
+    }
 }
@@ -1,10 +1,22 @@
 package six.eared.macaque.http.handler;
 
 import org.reactivestreams.Publisher;
+import reactor.core.scheduler.Scheduler;
 import reactor.netty.http.server.HttpServerRequest;
 import reactor.netty.http.server.HttpServerResponse;
+import six.eared.macaque.http.HttpConfig;
 
 public interface RequestHandler {
 
+    /**
+     * 注册路由前调用
+     *
+     * @param config
+     * @param blockingScheduler 执行阻塞处理的调度器, 不能在IO线程中阻塞
+     */
+    default void init(HttpConfig config, Scheduler blockingScheduler) {
+
+    }
+
     Publisher<Void> process(HttpServerRequest request, HttpServerResponse response);
 }
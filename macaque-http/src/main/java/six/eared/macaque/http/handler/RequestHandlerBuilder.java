@@ -1,9 +1,11 @@
 package six.eared.macaque.http.handler;
 
 import org.reactivestreams.Publisher;
+import reactor.core.scheduler.Scheduler;
 import reactor.netty.http.server.HttpServerRequest;
 import reactor.netty.http.server.HttpServerResponse;
 import reactor.netty.http.server.HttpServerRoutes;
+import six.eared.macaque.http.HttpConfig;
 import six.eared.macaque.http.annotitions.Path;
 import six.eared.macaque.http.annotitions.RequestMethod;
 
@@ -17,9 +19,15 @@ public class RequestHandlerBuilder {
     private final String rootPath;
     private final List<RequestHandler> requestHandlers;
 
-    public RequestHandlerBuilder(String rootPath, List<RequestHandler> requestHandlers) {
-        this.rootPath = rootPath;
+    private final HttpConfig config;
+
+    private final Scheduler blockingScheduler;
+
+    public RequestHandlerBuilder(HttpConfig config, List<RequestHandler> requestHandlers, Scheduler blockingScheduler) {
+        this.rootPath = config.getRootPath();
         this.requestHandlers = requestHandlers;
+        this.config = config;
+        this.blockingScheduler = blockingScheduler;
     }
 
     @SuppressWarnings("unchecked")
@@ -27,6 +35,7 @@ public class RequestHandlerBuilder {
         requestHandlers.forEach(requestHandler -> {
             Path path = requestHandler.getClass().getAnnotation(Path.class);
             if (path != null) {
+                requestHandler.init(config, blockingScheduler);
                 String uri = formatUrl(rootPath, path.value());
                 BiFunction<HttpServerRequest, HttpServerResponse, Publisher<Void>> handler =
                         (request, response) -> {
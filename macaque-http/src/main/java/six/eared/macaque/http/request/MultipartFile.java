@@ -2,12 +2,23 @@ package six.eared.macaque.http.request;
 
 public class MultipartFile {
 
+    private final String fileName;
+
     private final byte[] bytes;
 
     public MultipartFile(byte[] bytes) {
+        this(null, bytes);
+    }
+
+    public MultipartFile(String fileName, byte[] bytes) {
+        this.fileName = fileName;
         this.bytes = bytes;
     }
 
+    public String getFileName() {
+        return fileName;
+    }
+
     public byte[] getBytes() {
         return bytes;
     }
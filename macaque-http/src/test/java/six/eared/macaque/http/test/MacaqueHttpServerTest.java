@@ -1,7 +1,10 @@
 package six.eared.macaque.http.test;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
 import six.eared.macaque.http.HttpConfig;
 import six.eared.macaque.http.MacaqueHttpServer;
 import six.eared.macaque.http.annotitions.Path;
@@ -9,7 +12,9 @@ import six.eared.macaque.http.annotitions.RequestMethod;
 import six.eared.macaque.http.handler.BaseRequestHandler;
 import six.eared.macaque.http.request.MultipartFile;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class MacaqueHttpServerTest {
 
@@ -27,6 +32,114 @@ public class MacaqueHttpServerTest {
                 .start();
     }
 
+    @Test(timeout = 20000)
+    public void testBlockingHandler() throws InterruptedException {
+        // 阻塞的处理器占满IO线程数量的请求, 其他请求不受影响
+        int slowRequests = Runtime.getRuntime().availableProcessors() * 2 + 4;
+        HttpConfig config = new HttpConfig(8082, "/test");
+        config.setRequestTimeout(2000);
+        config.setBlockingThreads(slowRequests + 4);
+        MacaqueHttpServer server = new MacaqueHttpServer(config,
+                Arrays.asList(new SlowHandler(), new FastHandler(), new LimitedHandler(), new TimeoutHandler(),
+                        new LimitedTimeoutHandler()));
+        server.start();
+        try {
+            HttpClient client = HttpClient.create().baseUrl("http://127.0.0.1:8082/test");
+            Assert.assertEquals(200, (int) status(client, "/fast").block());
+
+            List<Mono<Integer>> slow = new ArrayList<>();
+            for (int i = 0; i < slowRequests; i++) {
+                slow.add(status(client, "/slow").cache());
+                slow.get(i).subscribe();
+            }
+            Thread.sleep(100);
+            long start = System.currentTimeMillis();
+            Assert.assertEquals(200, (int) status(client, "/fast").block());
+            Assert.assertTrue(System.currentTimeMillis() - start < 500);
+            for (Mono<Integer> mono : slow) {
+                Assert.assertEquals(200, (int) mono.block());
+            }
+
+            // 超过并发数
+            Mono<Integer> first = status(client, "/limited").cache();
+            first.subscribe();
+            Thread.sleep(100);
+            Assert.assertEquals(503, (int) status(client, "/limited").block());
+            Assert.assertEquals(200, (int) first.block());
+
+            Assert.assertEquals(504, (int) status(client, "/timeout").block());
+
+            // 超时之后处理仍在执行, 许可在处理结束时才释放
+            Assert.assertEquals(504, (int) status(client, "/limitedTimeout").block());
+            Assert.assertEquals(503, (int) status(client, "/limitedTimeout").block());
+            Thread.sleep(1000);
+            Assert.assertEquals(504, (int) status(client, "/limitedTimeout").block());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static Mono<Integer> status(HttpClient client, String uri) {
+        return client.get().uri(uri).responseSingle((response, body) -> Mono.just(response.status().code()));
+    }
+
+    @Path(value = "/slow", method = RequestMethod.GET)
+    public static class SlowHandler extends BaseRequestHandler<Object> {
+        @Override
+        public Object process0(Object o) {
+            sleep(500);
+            return "slow";
+        }
+    }
+
+    @Path(value = "/fast", method = RequestMethod.GET)
+    public static class FastHandler extends BaseRequestHandler<Object> {
+        @Override
+        public Object process0(Object o) {
+            return "fast";
+        }
+    }
+
+    @Path(value = "/limited", method = RequestMethod.GET, maxConcurrency = 1)
+    public static class LimitedHandler extends BaseRequestHandler<Object> {
+        @Override
+        public Object process0(Object o) {
+            sleep(500);
+            return "limited";
+        }
+    }
+
+    @Path(value = "/timeout", method = RequestMethod.GET, timeout = 200)
+    public static class TimeoutHandler extends BaseRequestHandler<Object> {
+        @Override
+        public Object process0(Object o) {
+            sleep(1000);
+            return "timeout";
+        }
+    }
+
+    @Path(value = "/limitedTimeout", method = RequestMethod.GET, maxConcurrency = 1, timeout = 200)
+    public static class LimitedTimeoutHandler extends BaseRequestHandler<Object> {
+        @Override
+        public Object process0(Object o) {
+            // 忽略中断, 模拟超时后仍在执行的处理
+            long end = System.currentTimeMillis() + 800;
+            while (System.currentTimeMillis() < end) {
+                sleep(end - System.currentTimeMillis());
+                Thread.interrupted();
+            }
+            return "limitedTimeout";
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Path(value = "/getUser",method = {RequestMethod.POST, RequestMethod.GET})
     public static class RequestHandler extends BaseRequestHandler<User> {
         @Override
@@ -3,4 +3,5 @@ package six.eared.macaque.mbean;
 public class MBeanObjectName {
     public static final String HOT_SWAP_MBEAN = "MACAQUE:type=HotSwapMBean";
     public static final String HEART_BEAT_MBEAN = "MACAQUE:type=HeartbeatMBean";
+    public static final String CLASSPATH_MBEAN = "MACAQUE:type=ClasspathMBean";
 }
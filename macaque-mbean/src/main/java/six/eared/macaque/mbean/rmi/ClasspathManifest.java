@@ -0,0 +1,83 @@
+package six.eared.macaque.mbean.rmi;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 目标进程的classpath清单, 服务端按照清单编译java文件
+ */
+public class ClasspathManifest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 目标进程的 java.specification.version
+     */
+    private String javaVersion;
+
+    /**
+     * 由jar包的路径、大小、修改时间计算, 服务端以此判断缓存的编译环境是否可用
+     */
+    private long fingerprint;
+
+    private List<String> jars = new ArrayList<>();
+
+    private List<String> directories = new ArrayList<>();
+
+    /**
+     * fat jar中的类目录和依赖jar包, 格式: /path/app.jar!/BOOT-INF/classes, /path/app.jar!/BOOT-INF/lib/a.jar
+     */
+    private List<String> nestedEntries = new ArrayList<>();
+
+    public String getJavaVersion() {
+        return javaVersion;
+    }
+
+    public void setJavaVersion(String javaVersion) {
+        this.javaVersion = javaVersion;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(long fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public List<String> getJars() {
+        return jars;
+    }
+
+    public void setJars(List<String> jars) {
+        this.jars = jars;
+    }
+
+    public List<String> getDirectories() {
+        return directories;
+    }
+
+    public void setDirectories(List<String> directories) {
+        this.directories = directories;
+    }
+
+    public List<String> getNestedEntries() {
+        return nestedEntries;
+    }
+
+    public void setNestedEntries(List<String> nestedEntries) {
+        this.nestedEntries = nestedEntries;
+    }
+
+    @Override
+    public String toString() {
+        return "ClasspathManifest{" +
+                "javaVersion='" + javaVersion + '\'' +
+                ", fingerprint=" + fingerprint +
+                ", jars=" + jars.size() +
+                ", directories=" + directories.size() +
+                ", nestedEntries=" + nestedEntries.size() +
+                '}';
+    }
+}
@@ -0,0 +1,70 @@
+package six.eared.macaque.mbean.rmi;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 热加载结果
+ */
+public class HotSwapResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 重定义的类数量
+     */
+    private int redefinedCount;
+
+    /**
+     * 字节码和已安装版本一致, 被跳过的类
+     */
+    private List<String> skippedClasses = new ArrayList<>();
+
+    /**
+     * 开启结构化对比时每个类的变化类型
+     */
+    private Map<String, String> changeTypes = new HashMap<>();
+
+    public int getRedefinedCount() {
+        return redefinedCount;
+    }
+
+    public void setRedefinedCount(int redefinedCount) {
+        this.redefinedCount = redefinedCount;
+    }
+
+    public List<String> getSkippedClasses() {
+        return skippedClasses;
+    }
+
+    public void setSkippedClasses(List<String> skippedClasses) {
+        this.skippedClasses = skippedClasses;
+    }
+
+    public void addSkippedClass(String className) {
+        this.skippedClasses.add(className);
+    }
+
+    public Map<String, String> getChangeTypes() {
+        return changeTypes;
+    }
+
+    public void setChangeTypes(Map<String, String> changeTypes) {
+        this.changeTypes = changeTypes;
+    }
+
+    public void addChangeType(String className, String changeType) {
+        this.changeTypes.put(className, changeType);
+    }
+
+    @Override
+    public String toString() {
+        return "HotSwapResult{" +
+                "redefinedCount=" + redefinedCount +
+                ", skippedClasses=" + skippedClasses +
+                ", changeTypes=" + changeTypes +
+                '}';
+    }
+}
@@ -8,6 +8,11 @@ public class HotSwapRmiData extends RmiData {
     private byte[] fileData;
     private Map<String, String> extProperties;
 
+    /**
+     * 批量热加载的文件, key: 文件名, value: 文件内容. 不为空时忽略 fileName 和 fileData
+     */
+    private Map<String, byte[]> files;
+
     public HotSwapRmiData(String fileName, String fileType, byte[] fileData, Map<String, String> extProperties) {
         this.fileName = fileName;
         this.fileType = fileType;
@@ -21,6 +26,19 @@ public class HotSwapRmiData extends RmiData {
         this.extProperties = extProperties;
     }
 
+    /**
+     * 批量热加载, 多个java文件在一次编译中完成, 编译结果一次重定义
+     *
+     * @param fileType
+     * @param files         key: 文件名, value: 文件内容
+     * @param extProperties
+     */
+    public HotSwapRmiData(String fileType, Map<String, byte[]> files, Map<String, String> extProperties) {
+        this.fileType = fileType;
+        this.files = files;
+        this.extProperties = extProperties;
+    }
+
     public HotSwapRmiData(String fileType, byte[] fileData) {
         this(fileType, fileData, null);
     }
@@ -56,4 +74,16 @@ public class HotSwapRmiData extends RmiData {
     public void setExtProperties(Map<String, String> extProperties) {
         this.extProperties = extProperties;
     }
+
+    public Map<String, byte[]> getFiles() {
+        return files;
+    }
+
+    public void setFiles(Map<String, byte[]> files) {
+        this.files = files;
+    }
+
+    public boolean isBatch() {
+        return files != null && !files.isEmpty();
+    }
 }
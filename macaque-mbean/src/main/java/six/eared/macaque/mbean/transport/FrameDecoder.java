@@ -0,0 +1,121 @@
+package six.eared.macaque.mbean.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 从字节流中解析frame, 按streamId把frame合并成完整的消息
+ * <p>
+ * 非线程安全, 每个连接一个实例, 只在读线程中使用
+ */
+public class FrameDecoder {
+
+    private final ByteBuffer header = ByteBuffer.allocate(TransportProtocol.HEADER_SIZE);
+
+    /**
+     * 正在读取的frame, 为null时正在读取头
+     */
+    private Chunk current;
+
+    /**
+     * 还没有读完的消息, key: streamId
+     */
+    private final Map<Integer, Chunk> pending = new HashMap<>();
+
+    /**
+     * 解析输入中所有完整的frame
+     *
+     * @param in       读模式
+     * @param consumer 完整的消息
+     */
+    public void decode(ByteBuffer in, Consumer<TransportProtocol.Message> consumer) throws IOException {
+        while (in.hasRemaining()) {
+            if (current == null) {
+                while (header.hasRemaining() && in.hasRemaining()) {
+                    header.put(in.get());
+                }
+                if (header.hasRemaining()) {
+                    return;
+                }
+                header.flip();
+                int length = header.getInt() - (TransportProtocol.HEADER_SIZE - 4);
+                int streamId = header.getInt();
+                byte type = header.get();
+                byte flags = header.get();
+                header.clear();
+                if (length < 0 || length > TransportProtocol.MAX_CHUNK_SIZE) {
+                    throw new IOException("bad frame length: " + length);
+                }
+                current = pending.remove(streamId);
+                if (current == null) {
+                    current = new Chunk(streamId, type);
+                }
+                current.begin(length, (flags & TransportProtocol.FLAG_END) != 0);
+            }
+            current.read(in);
+            if (current.remaining == 0) {
+                if (current.end) {
+                    consumer.accept(new TransportProtocol.Message(current.streamId, current.type, current.toByteArray()));
+                } else {
+                    pending.put(current.streamId, current);
+                }
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * 一个消息已经读取的数据
+     */
+    static class Chunk {
+
+        private final int streamId;
+
+        private final byte type;
+
+        private byte[] data = new byte[0];
+
+        private int size;
+
+        private int remaining;
+
+        private boolean end;
+
+        Chunk(int streamId, byte type) {
+            this.streamId = streamId;
+            this.type = type;
+        }
+
+        void begin(int length, boolean end) throws IOException {
+            if ((long) size + length > TransportProtocol.MAX_MESSAGE_SIZE) {
+                throw new IOException("message too large, stream: " + streamId);
+            }
+            if (size + length > data.length) {
+                byte[] grown = new byte[Math.max(size + length, Math.min(data.length * 2, TransportProtocol.MAX_MESSAGE_SIZE))];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+            this.remaining = length;
+            this.end = end;
+        }
+
+        void read(ByteBuffer in) {
+            int n = Math.min(remaining, in.remaining());
+            in.get(data, size, n);
+            size += n;
+            remaining -= n;
+        }
+
+        byte[] toByteArray() {
+            if (data.length == size) {
+                return data;
+            }
+            byte[] bytes = new byte[size];
+            System.arraycopy(data, 0, bytes, 0, size);
+            return bytes;
+        }
+    }
+}
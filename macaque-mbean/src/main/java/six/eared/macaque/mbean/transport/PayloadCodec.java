@@ -0,0 +1,270 @@
+package six.eared.macaque.mbean.transport;
+
+import six.eared.macaque.mbean.rmi.EmptyRmiData;
+import six.eared.macaque.mbean.rmi.HotSwapRmiData;
+import six.eared.macaque.mbean.rmi.RmiData;
+import six.eared.macaque.mbean.rmi.RmiResult;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 请求和响应的二进制编码
+ * <pre>
+ * request  target str, dataType u1, data
+ * response success u1, message str, hasData u1, data(java序列化)
+ * str      length i4 (-1表示null), utf8
+ * bytes    length i4 (-1表示null), bytes
+ * </pre>
+ * {@link HotSwapRmiData} 按字段直接编码, 文件内容不经过java序列化; 其他类型的请求数据和响应的data使用java序列化.
+ * 反序列化只接受 {@code six.eared.macaque.mbean.rmi} 包下的类型和它们的字段用到的基本类型、集合类型.
+ */
+public class PayloadCodec {
+
+    private static final byte DATA_EMPTY = 0;
+
+    private static final byte DATA_HOTSWAP = 1;
+
+    private static final byte DATA_SERIALIZED = 127;
+
+    private static final String RMI_PACKAGE = "six.eared.macaque.mbean.rmi.";
+
+    /**
+     * 允许反序列化的jdk类型
+     */
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.String", "java.lang.Number", "java.lang.Boolean", "java.lang.Byte", "java.lang.Short",
+            "java.lang.Character", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+            "java.lang.Enum",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.Arrays$ArrayList",
+            "java.util.Collections$EmptyList", "java.util.Collections$EmptyMap", "java.util.Collections$EmptySet",
+            "java.util.Collections$SingletonList", "java.util.Collections$SingletonMap", "java.util.Collections$SingletonSet",
+            "java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableSet",
+            "java.util.Collections$UnmodifiableMap"
+    ));
+
+    public static byte[] encodeRequest(String target, RmiData data) throws IOException {
+        int estimate = 64;
+        if (data instanceof HotSwapRmiData) {
+            HotSwapRmiData hotSwapData = (HotSwapRmiData) data;
+            estimate += hotSwapData.getFileData() == null ? 0 : hotSwapData.getFileData().length;
+            if (hotSwapData.getFiles() != null) {
+                for (byte[] file : hotSwapData.getFiles().values()) {
+                    estimate += file.length + 64;
+                }
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(estimate);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, target);
+        if (data == null || data instanceof EmptyRmiData) {
+            out.writeByte(DATA_EMPTY);
+        } else if (data.getClass() == HotSwapRmiData.class) {
+            out.writeByte(DATA_HOTSWAP);
+            writeHotSwapData(out, (HotSwapRmiData) data);
+        } else {
+            out.writeByte(DATA_SERIALIZED);
+            writeBytes(out, serialize(data));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static Request decodeRequest(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String target = readString(in);
+        byte type = in.readByte();
+        RmiData data;
+        switch (type) {
+            case DATA_EMPTY:
+                data = new EmptyRmiData();
+                break;
+            case DATA_HOTSWAP:
+                data = readHotSwapData(in);
+                break;
+            case DATA_SERIALIZED:
+                data = (RmiData) deserialize(readBytes(in));
+                break;
+            default:
+                throw new IOException("unknown data type: " + type);
+        }
+        return new Request(target, data);
+    }
+
+    public static byte[] encodeResult(RmiResult result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBoolean(result.isSuccess());
+        writeString(out, result.getMessage());
+        out.writeBoolean(result.getData() != null);
+        if (result.getData() != null) {
+            writeBytes(out, serialize(result.getData()));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static RmiResult decodeResult(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        RmiResult result = new RmiResult(in.readBoolean(), readString(in));
+        if (in.readBoolean()) {
+            result.setData(deserialize(readBytes(in)));
+        }
+        return result;
+    }
+
+    private static void writeHotSwapData(DataOutputStream out, HotSwapRmiData data) throws IOException {
+        writeString(out, data.getFileName());
+        writeString(out, data.getFileType());
+        writeBytes(out, data.getFileData());
+        Map<String, String> extProperties = data.getExtProperties();
+        out.writeInt(extProperties == null ? -1 : extProperties.size());
+        if (extProperties != null) {
+            for (Map.Entry<String, String> entry : extProperties.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+        Map<String, byte[]> files = data.getFiles();
+        out.writeInt(files == null ? -1 : files.size());
+        if (files != null) {
+            for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                writeString(out, entry.getKey());
+                writeBytes(out, entry.getValue());
+            }
+        }
+    }
+
+    private static HotSwapRmiData readHotSwapData(DataInputStream in) throws IOException {
+        String fileName = readString(in);
+        String fileType = readString(in);
+        byte[] fileData = readBytes(in);
+        Map<String, String> extProperties = null;
+        int size = in.readInt();
+        if (size >= 0) {
+            extProperties = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                extProperties.put(readString(in), readString(in));
+            }
+        }
+        HotSwapRmiData data = new HotSwapRmiData(fileName, fileType, fileData, extProperties);
+        size = in.readInt();
+        if (size >= 0) {
+            Map<String, byte[]> files = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                files.put(readString(in), readBytes(in));
+            }
+            data.setFiles(files);
+        }
+        return data;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new AllowListObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @param className {@link ObjectStreamClass#getName()}, 数组为 [Ljava.lang.String; 的形式
+     * @return 是否允许反序列化
+     */
+    static boolean isAllowed(String className) {
+        String name = className;
+        while (name.startsWith("[")) {
+            name = name.substring(1);
+        }
+        if (name.length() == 1) {
+            // 基本类型的数组
+            return name.length() != className.length();
+        }
+        if (name.startsWith("L") && name.endsWith(";")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name.startsWith(RMI_PACKAGE) || ALLOWED_CLASSES.contains(name);
+    }
+
+    private static class AllowListObjectInputStream extends ObjectInputStream {
+
+        AllowListObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "class not allowed");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("proxy class not allowed");
+        }
+    }
+
+    public static class Request {
+
+        private final String target;
+
+        private final RmiData data;
+
+        public Request(String target, RmiData data) {
+            this.target = target;
+            this.data = data;
+        }
+
+        /**
+         * @return MBean的名称, 见 {@link six.eared.macaque.mbean.MBeanObjectName}
+         */
+        public String getTarget() {
+            return target;
+        }
+
+        public RmiData getData() {
+            return data;
+        }
+    }
+}
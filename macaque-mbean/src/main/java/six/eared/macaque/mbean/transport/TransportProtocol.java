@@ -0,0 +1,85 @@
+package six.eared.macaque.mbean.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二进制传输协议
+ * <pre>
+ * frame    length u4 (不包括length本身), streamId u4, type u1, flags u1, payload
+ * </pre>
+ * 一个消息(请求或响应)拆成多个不超过 {@link #MAX_CHUNK_SIZE} 的frame, 最后一个frame带 {@link #FLAG_END}.
+ * 同一个连接上可以同时有多个stream, 不同stream的frame可以交错发送, 响应通过streamId和请求对应, 不要求按顺序返回.
+ */
+public class TransportProtocol {
+
+    public static final int HEADER_SIZE = 4 + 4 + 1 + 1;
+
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * 单个消息的大小上限
+     */
+    public static final int MAX_MESSAGE_SIZE = 256 * 1024 * 1024;
+
+    public static final byte TYPE_REQUEST = 1;
+
+    public static final byte TYPE_RESPONSE = 2;
+
+    public static final byte FLAG_END = 1;
+
+    /**
+     * 把消息拆成frame, payload不复制
+     *
+     * @param streamId
+     * @param type
+     * @param payload
+     * @return 依次为每个frame的头和数据
+     */
+    public static List<ByteBuffer> encode(int streamId, byte type, byte[] payload) {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        int offset = 0;
+        do {
+            int chunk = Math.min(MAX_CHUNK_SIZE, payload.length - offset);
+            boolean end = offset + chunk == payload.length;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(HEADER_SIZE - 4 + chunk)
+                    .putInt(streamId)
+                    .put(type)
+                    .put(end ? FLAG_END : 0)
+                    .flip();
+            buffers.add(header);
+            buffers.add(ByteBuffer.wrap(payload, offset, chunk));
+            offset += chunk;
+        } while (offset < payload.length);
+        return buffers;
+    }
+
+    public static class Message {
+
+        private final int streamId;
+
+        private final byte type;
+
+        private final byte[] payload;
+
+        public Message(int streamId, byte type, byte[] payload) {
+            this.streamId = streamId;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public int getStreamId() {
+            return streamId;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package six.eared.macaque.mbean.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Unix domain socket (JDK16+), 通过反射调用, 低版本的JDK上 {@link #isSupported()} 返回false
+ */
+public class UnixDomainSockets {
+
+    /**
+     * agent监听的socket文件路径, agent启动后写入目标进程的系统属性, 客户端attach之后读取
+     */
+    public static final String SOCKET_PATH_PROPERTY = "macaque.transport.socket";
+
+    /**
+     * socket文件路径的长度上限, 系统限制一般是108字节
+     */
+    public static final int MAX_PATH_LENGTH = 100;
+
+    private static final ProtocolFamily UNIX;
+
+    private static final Method ADDRESS_OF;
+
+    private static final Method SERVER_OPEN;
+
+    private static final Method CLIENT_OPEN;
+
+    static {
+        ProtocolFamily unix = null;
+        Method addressOf = null, serverOpen = null, clientOpen = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            serverOpen = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            clientOpen = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (Exception e) {
+            unix = null;
+        }
+        UNIX = unix;
+        ADDRESS_OF = addressOf;
+        SERVER_OPEN = serverOpen;
+        CLIENT_OPEN = clientOpen;
+    }
+
+    public static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    public static SocketAddress address(String path) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, path);
+    }
+
+    public static ServerSocketChannel openServer() throws IOException {
+        return (ServerSocketChannel) invoke(SERVER_OPEN, UNIX);
+    }
+
+    public static SocketChannel open() throws IOException {
+        return (SocketChannel) invoke(CLIENT_OPEN, UNIX);
+    }
+
+    private static Object invoke(Method method, Object arg) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("unix domain socket not supported");
+        }
+        try {
+            return method.invoke(null, arg);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+}
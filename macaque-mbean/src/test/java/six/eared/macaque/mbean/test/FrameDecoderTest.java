@@ -0,0 +1,97 @@
+package six.eared.macaque.mbean.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import six.eared.macaque.mbean.transport.FrameDecoder;
+import six.eared.macaque.mbean.transport.TransportProtocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameDecoderTest {
+
+    @Test
+    public void testInterleavedStreams() throws IOException {
+        byte[] first = payload(TransportProtocol.MAX_CHUNK_SIZE * 2 + 100, 1);
+        byte[] second = payload(TransportProtocol.MAX_CHUNK_SIZE + 1, 2);
+        List<ByteBuffer> firstFrames = TransportProtocol.encode(1, TransportProtocol.TYPE_REQUEST, first);
+        List<ByteBuffer> secondFrames = TransportProtocol.encode(2, TransportProtocol.TYPE_RESPONSE, second);
+
+        // 两个stream的frame交错发送
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < firstFrames.size() || i < secondFrames.size()) {
+            if (i < firstFrames.size()) {
+                write(stream, firstFrames.get(i), firstFrames.get(i + 1));
+            }
+            if (i < secondFrames.size()) {
+                write(stream, secondFrames.get(i), secondFrames.get(i + 1));
+            }
+            i += 2;
+        }
+
+        List<TransportProtocol.Message> messages = new ArrayList<>();
+        new FrameDecoder().decode(ByteBuffer.wrap(stream.toByteArray()), messages::add);
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(2, messages.get(0).getStreamId());
+        Assert.assertEquals(TransportProtocol.TYPE_RESPONSE, messages.get(0).getType());
+        Assert.assertArrayEquals(second, messages.get(0).getPayload());
+        Assert.assertEquals(1, messages.get(1).getStreamId());
+        Assert.assertEquals(TransportProtocol.TYPE_REQUEST, messages.get(1).getType());
+        Assert.assertArrayEquals(first, messages.get(1).getPayload());
+    }
+
+    @Test
+    public void testSplitHeaders() throws IOException {
+        byte[] payload = payload(1000, 3);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<ByteBuffer> frames = TransportProtocol.encode(7, TransportProtocol.TYPE_REQUEST, payload);
+        write(stream, frames.toArray(new ByteBuffer[0]));
+        frames = TransportProtocol.encode(8, TransportProtocol.TYPE_REQUEST, new byte[0]);
+        write(stream, frames.toArray(new ByteBuffer[0]));
+        byte[] bytes = stream.toByteArray();
+
+        // 每次只读到几个字节, 头被拆开
+        for (int step : new int[]{1, 3, TransportProtocol.HEADER_SIZE - 1, TransportProtocol.HEADER_SIZE + 1}) {
+            FrameDecoder decoder = new FrameDecoder();
+            List<TransportProtocol.Message> messages = new ArrayList<>();
+            for (int offset = 0; offset < bytes.length; offset += step) {
+                decoder.decode(ByteBuffer.wrap(bytes, offset, Math.min(step, bytes.length - offset)), messages::add);
+            }
+            Assert.assertEquals(2, messages.size());
+            Assert.assertEquals(7, messages.get(0).getStreamId());
+            Assert.assertArrayEquals(payload, messages.get(0).getPayload());
+            Assert.assertEquals(8, messages.get(1).getStreamId());
+            Assert.assertEquals(0, messages.get(1).getPayload().length);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadFrameLength() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(TransportProtocol.HEADER_SIZE);
+        header.putInt(TransportProtocol.MAX_CHUNK_SIZE + TransportProtocol.HEADER_SIZE).putInt(1)
+                .put(TransportProtocol.TYPE_REQUEST).put(TransportProtocol.FLAG_END).flip();
+        new FrameDecoder().decode(header, message -> {
+        });
+    }
+
+    private static byte[] payload(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private static void write(ByteArrayOutputStream stream, ByteBuffer... buffers) {
+        for (ByteBuffer buffer : buffers) {
+            ByteBuffer dup = buffer.duplicate();
+            byte[] bytes = new byte[dup.remaining()];
+            dup.get(bytes);
+            stream.write(bytes, 0, bytes.length);
+        }
+    }
+}
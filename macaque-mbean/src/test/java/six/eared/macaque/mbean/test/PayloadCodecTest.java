@@ -0,0 +1,98 @@
+package six.eared.macaque.mbean.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import six.eared.macaque.mbean.rmi.*;
+import six.eared.macaque.mbean.transport.PayloadCodec;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PayloadCodecTest {
+
+    @Test
+    public void testHotSwapRoundTrip() throws IOException {
+        Map<String, String> extProperties = new HashMap<>();
+        extProperties.put("mode", "compatibility");
+        extProperties.put("empty", "");
+        HotSwapRmiData data = new HotSwapRmiData("Test.java", "java", "class Test {}".getBytes(), extProperties);
+
+        PayloadCodec.Request request = PayloadCodec.decodeRequest(PayloadCodec.encodeRequest("hotswap", data));
+        Assert.assertEquals("hotswap", request.getTarget());
+        HotSwapRmiData decoded = (HotSwapRmiData) request.getData();
+        Assert.assertEquals("Test.java", decoded.getFileName());
+        Assert.assertEquals("java", decoded.getFileType());
+        Assert.assertArrayEquals("class Test {}".getBytes(), decoded.getFileData());
+        Assert.assertEquals(extProperties, decoded.getExtProperties());
+        Assert.assertNull(decoded.getFiles());
+    }
+
+    @Test
+    public void testNullAndEmptyFields() throws IOException {
+        HotSwapRmiData data = new HotSwapRmiData(null, "", new byte[0], null);
+
+        PayloadCodec.Request request = PayloadCodec.decodeRequest(PayloadCodec.encodeRequest(null, data));
+        Assert.assertNull(request.getTarget());
+        HotSwapRmiData decoded = (HotSwapRmiData) request.getData();
+        Assert.assertNull(decoded.getFileName());
+        Assert.assertEquals("", decoded.getFileType());
+        Assert.assertArrayEquals(new byte[0], decoded.getFileData());
+        Assert.assertNull(decoded.getExtProperties());
+
+        request = PayloadCodec.decodeRequest(PayloadCodec.encodeRequest("heartbeat", null));
+        Assert.assertTrue(request.getData() instanceof EmptyRmiData);
+    }
+
+    @Test
+    public void testBatchFiles() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("A.class", new byte[]{1, 2, 3});
+        files.put("B.class", new byte[0]);
+        files.put("C.class", new byte[70 * 1024]);
+        HotSwapRmiData data = new HotSwapRmiData("class", files, new HashMap<>());
+
+        HotSwapRmiData decoded = (HotSwapRmiData) PayloadCodec.decodeRequest(PayloadCodec.encodeRequest("hotswap", data)).getData();
+        Assert.assertTrue(decoded.isBatch());
+        Assert.assertEquals(files.keySet(), decoded.getFiles().keySet());
+        for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+            Assert.assertArrayEquals(entry.getValue(), decoded.getFiles().get(entry.getKey()));
+        }
+        Assert.assertTrue(decoded.getExtProperties().isEmpty());
+    }
+
+    @Test
+    public void testResultRoundTrip() throws IOException {
+        HotSwapResult swapResult = new HotSwapResult();
+        swapResult.setRedefinedCount(2);
+        swapResult.addSkippedClass("a.A");
+        swapResult.addChangeType("a.A", "UNCHANGED");
+
+        RmiResult decoded = PayloadCodec.decodeResult(PayloadCodec.encodeResult(RmiResult.success().data(swapResult)));
+        Assert.assertTrue(decoded.isSuccess());
+        HotSwapResult decodedData = (HotSwapResult) decoded.getData();
+        Assert.assertEquals(2, decodedData.getRedefinedCount());
+        Assert.assertEquals(swapResult.getSkippedClasses(), decodedData.getSkippedClasses());
+        Assert.assertEquals(swapResult.getChangeTypes(), decodedData.getChangeTypes());
+
+        decoded = PayloadCodec.decodeResult(PayloadCodec.encodeResult(new RmiResult(false, null)));
+        Assert.assertFalse(decoded.isSuccess());
+        Assert.assertNull(decoded.getMessage());
+        Assert.assertNull(decoded.getData());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectUnknownSerializedType() throws IOException {
+        PayloadCodec.decodeRequest(PayloadCodec.encodeRequest("hotswap", new UnknownRmiData()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectUnknownResultData() throws IOException {
+        PayloadCodec.decodeResult(PayloadCodec.encodeResult(RmiResult.success().data(new java.util.Date())));
+    }
+
+    public static class UnknownRmiData extends RmiData {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,62 @@
+package six.eared.macaque.server.compiler;
+
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 一个目标进程classpath的编译环境, 在多次编译之间复用同一个 {@link StandardJavaFileManager}, javac打开的jar包和包列表都会被缓存
+ */
+public class CompileEnvironment {
+
+    private final long fingerprint;
+
+    private final StandardJavaFileManager fileManager;
+
+    private final List<String> options;
+
+    private final int classpathSize;
+
+    private int compileCount = 0;
+
+    public CompileEnvironment(long fingerprint, StandardJavaFileManager fileManager, List<File> classpath, List<String> options) throws IOException {
+        this.fingerprint = fingerprint;
+        this.fileManager = fileManager;
+        this.options = options;
+        this.classpathSize = classpath.size();
+        this.fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public StandardJavaFileManager getFileManager() {
+        return fileManager;
+    }
+
+    public List<String> getOptions() {
+        return options;
+    }
+
+    public int incrementAndGetCompileCount() {
+        return ++compileCount;
+    }
+
+    public void close() {
+        try {
+            fileManager.close();
+        } catch (IOException ignored) {}
+    }
+
+    @Override
+    public String toString() {
+        return "CompileEnvironment{" +
+                "fingerprint=" + fingerprint +
+                ", classpath=" + classpathSize +
+                ", compiles=" + compileCount +
+                '}';
+    }
+}
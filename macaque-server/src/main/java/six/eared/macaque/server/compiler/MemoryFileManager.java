@@ -0,0 +1,59 @@
+package six.eared.macaque.server.compiler;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 编译结果保存在内存中, 不写磁盘
+ */
+public class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    /**
+     * key: className, value: 字节码
+     */
+    private final Map<String, byte[]> classes = new LinkedHashMap<>();
+
+    public MemoryFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+        return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+            @Override
+            public OutputStream openOutputStream() {
+                return new ByteArrayOutputStream() {
+                    @Override
+                    public void close() {
+                        classes.put(className, toByteArray());
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * 不关闭共享的 {@link StandardJavaFileManager}, 由 {@link CompileEnvironment} 管理
+     */
+    @Override
+    public void close() {
+
+    }
+
+    public Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    public static JavaFileObject source(String fileName, String source) {
+        return new SimpleJavaFileObject(URI.create("string:///" + fileName), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+    }
+}
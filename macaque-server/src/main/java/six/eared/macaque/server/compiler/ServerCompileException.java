@@ -0,0 +1,12 @@
+package six.eared.macaque.server.compiler;
+
+public class ServerCompileException extends RuntimeException {
+
+    public ServerCompileException(String message) {
+        super(message);
+    }
+
+    public ServerCompileException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,238 @@
+package six.eared.macaque.server.compiler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import six.eared.macaque.mbean.rmi.ClasspathManifest;
+
+import javax.tools.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+/**
+ * 服务端编译
+ * <p>
+ * 按照目标进程导出的 {@link ClasspathManifest} 在服务端进程中编译java文件, javac的内存和CPU开销不再落在目标进程上.
+ * fat jar中的类目录和依赖jar包解压到服务端的临时目录, 按外层jar包的路径、大小、修改时间区分, 只解压一次.
+ * 每个classpath的编译环境按目标java版本和classpath指纹缓存, 多次编译复用.
+ */
+public class ServerCompiler {
+
+    private static final Logger log = LoggerFactory.getLogger(ServerCompiler.class);
+
+    /**
+     * 最多缓存的编译环境(目标进程的classpath)数量
+     */
+    private static final int MAX_ENVIRONMENTS = 8;
+
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private final JavaCompiler compiler;
+
+    private final File workDir;
+
+    private final Map<String, CompileEnvironment> environments = new LinkedHashMap<String, CompileEnvironment>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompileEnvironment> eldest) {
+            if (size() > MAX_ENVIRONMENTS) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public ServerCompiler() {
+        this(new File(System.getProperty("java.io.tmpdir"), "macaque-server" + File.separator + "classpath"));
+    }
+
+    public ServerCompiler(File workDir) {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        this.workDir = workDir;
+    }
+
+    public boolean isPrepared() {
+        return compiler != null;
+    }
+
+    /**
+     * @param manifest 目标进程的classpath清单
+     * @param sources  key: 文件名, value: 源码
+     * @return key: className, value: 字节码
+     */
+    public synchronized Map<String, byte[]> compile(ClasspathManifest manifest, Map<String, byte[]> sources) {
+        if (!isPrepared()) {
+            throw new ServerCompileException("server is not running on a JDK, can not compile");
+        }
+        long start = System.currentTimeMillis();
+        CompileEnvironment environment = getEnvironment(manifest);
+
+        List<JavaFileObject> javaFileObjects = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : sources.entrySet()) {
+            javaFileObjects.add(MemoryFileManager.source(entry.getKey(), new String(entry.getValue())));
+        }
+        MemoryFileManager fileManager = new MemoryFileManager(environment.getFileManager());
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        boolean result = compiler.getTask(null, fileManager, collector, environment.getOptions(), null, javaFileObjects).call();
+
+        List<Diagnostic<? extends JavaFileObject>> errors = collector.getDiagnostics().stream()
+                .filter(item -> item.getKind() == Diagnostic.Kind.ERROR)
+                .collect(Collectors.toList());
+        if (!result || !errors.isEmpty()) {
+            throw new ServerCompileException(formatCompileErrorText(errors));
+        }
+        if (fileManager.getClasses().isEmpty()) {
+            throw new ServerCompileException("compile error, no output class file");
+        }
+        log.info("server compile {} files, {}, {}ms", sources.size(), environment, System.currentTimeMillis() - start);
+        environment.incrementAndGetCompileCount();
+        return fileManager.getClasses();
+    }
+
+    private CompileEnvironment getEnvironment(ClasspathManifest manifest) {
+        String key = environmentKey(manifest);
+        CompileEnvironment environment = environments.get(key);
+        if (environment != null) {
+            return environment;
+        }
+        try {
+            List<File> classpath = new ArrayList<>();
+            for (String jar : manifest.getJars()) {
+                classpath.add(new File(jar));
+            }
+            for (String directory : manifest.getDirectories()) {
+                classpath.add(new File(directory));
+            }
+            classpath.addAll(extractNestedEntries(manifest.getNestedEntries()));
+
+            environment = new CompileEnvironment(manifest.getFingerprint(),
+                    compiler.getStandardFileManager(null, null, null), classpath, buildOptions(manifest));
+            environments.put(key, environment);
+            return environment;
+        } catch (IOException e) {
+            throw new ServerCompileException("prepare classpath error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 编译选项中包含目标进程的java版本(--release), classpath相同但java版本不同的进程不能共用编译环境和编译结果
+     *
+     * @return javaVersion@fingerprint
+     */
+    public static String environmentKey(ClasspathManifest manifest) {
+        return manifest.getJavaVersion() + "@" + manifest.getFingerprint();
+    }
+
+    /**
+     * 目标进程的java版本低于服务端时, 按目标版本编译
+     */
+    private List<String> buildOptions(ClasspathManifest manifest) {
+        List<String> options = new ArrayList<>();
+        options.add("-g");
+        int target = majorVersion(manifest.getJavaVersion());
+        int current = majorVersion(System.getProperty("java.specification.version"));
+        if (target > 0 && current >= 9 && target < current) {
+            options.add("--release");
+            options.add(String.valueOf(target));
+        }
+        return Collections.unmodifiableList(options);
+    }
+
+    private static int majorVersion(String specificationVersion) {
+        if (specificationVersion == null) {
+            return -1;
+        }
+        try {
+            return specificationVersion.startsWith("1.")
+                    ? Integer.parseInt(specificationVersion.substring(2))
+                    : Integer.parseInt(specificationVersion);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解压fat jar中的类目录和依赖jar包, javac不能直接读取嵌套的jar包
+     *
+     * @param nestedEntries /path/app.jar!/BOOT-INF/classes, /path/app.jar!/BOOT-INF/lib/a.jar
+     * @return 解压后的目录和jar包
+     */
+    private List<File> extractNestedEntries(List<String> nestedEntries) throws IOException {
+        Map<String, List<String>> grouped = new LinkedHashMap<>();
+        for (String nestedEntry : nestedEntries) {
+            int separator = nestedEntry.indexOf("!/");
+            grouped.computeIfAbsent(nestedEntry.substring(0, separator), k -> new ArrayList<>())
+                    .add(nestedEntry.substring(separator + 2));
+        }
+
+        List<File> result = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : grouped.entrySet()) {
+            File outer = new File(entry.getKey());
+            File targetDir = new File(workDir, outer.getName() + "-"
+                    + Long.toHexString(outer.getAbsolutePath().hashCode() * 31L + outer.length() * 17L + outer.lastModified()));
+            JarFile jarFile = null;
+            try {
+                for (String root : entry.getValue()) {
+                    File target = new File(targetDir, root);
+                    File marker = root.endsWith(".jar") ? target : new File(target, COMPLETE_MARKER);
+                    if (!marker.exists()) {
+                        if (jarFile == null) {
+                            jarFile = new JarFile(outer);
+                        }
+                        if (root.endsWith(".jar")) {
+                            extractFile(jarFile, jarFile.getJarEntry(root), target);
+                        } else {
+                            extractDirectory(jarFile, root + "/", target);
+                            marker.createNewFile();
+                        }
+                    }
+                    result.add(target);
+                }
+            } finally {
+                if (jarFile != null) jarFile.close();
+            }
+        }
+        return result;
+    }
+
+    private void extractDirectory(JarFile jarFile, String prefix, File target) throws IOException {
+        Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry jarEntry = entries.nextElement();
+            if (!jarEntry.isDirectory() && jarEntry.getName().startsWith(prefix)) {
+                extractFile(jarFile, jarEntry, new File(target, jarEntry.getName().substring(prefix.length())));
+            }
+        }
+    }
+
+    /**
+     * 先写临时文件再重命名, 中断的解压不会留下不完整的文件
+     */
+    private void extractFile(JarFile jarFile, JarEntry jarEntry, File target) throws IOException {
+        if (jarEntry == null) {
+            return;
+        }
+        target.getParentFile().mkdirs();
+        File tmp = new File(target.getPath() + ".tmp");
+        try (InputStream in = jarFile.getInputStream(jarEntry)) {
+            Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private String formatCompileErrorText(List<Diagnostic<? extends JavaFileObject>> errors) {
+        StringBuilder sbuilder = new StringBuilder("compile error: \n");
+        for (Diagnostic<? extends JavaFileObject> diagnostic : errors) {
+            sbuilder.append("   ")
+                    .append("class: ").append(diagnostic.getSource() == null ? "other" : diagnostic.getSource().getName())
+                    .append(", line: ").append(diagnostic.getLineNumber())
+                    .append(", message: ").append(diagnostic.getMessage(Locale.US))
+                    .append("\n");
+        }
+        return sbuilder.toString();
+    }
+}
@@ -8,6 +8,17 @@ public class ServerConfig {
 
     private boolean debug;
 
+    /**
+     * 服务端编译模式, 单进程热加载的java文件在服务端编译, 只把class文件发送给目标进程.
+     * 批量热加载不受这个开关影响, 服务端运行在JDK上时总是在服务端编译一次
+     */
+    private boolean serverCompile;
+
+    /**
+     * 批量热加载多个进程时默认的并发数
+     */
+    private Integer fleetParallelism = 4;
+
     public String getAgentpath() {
         return agentpath;
     }
@@ -30,6 +41,8 @@ public class ServerConfig {
                 "serverPort=" + serverPort +
                 ", agentpath=" + agentpath +
                 ", debug=" + debug +
+                ", serverCompile=" + serverCompile +
+                ", fleetParallelism=" + fleetParallelism +
                 '}';
     }
 
@@ -40,4 +53,20 @@ public class ServerConfig {
     public void setServerPort(Integer serverPort) {
         this.serverPort = serverPort;
     }
+
+    public boolean isServerCompile() {
+        return serverCompile;
+    }
+
+    public void setServerCompile(boolean serverCompile) {
+        this.serverCompile = serverCompile;
+    }
+
+    public Integer getFleetParallelism() {
+        return fleetParallelism;
+    }
+
+    public void setFleetParallelism(Integer fleetParallelism) {
+        this.fleetParallelism = fleetParallelism;
+    }
 }
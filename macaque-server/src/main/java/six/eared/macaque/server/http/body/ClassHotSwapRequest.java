@@ -2,6 +2,8 @@ package six.eared.macaque.server.http.body;
 
 import six.eared.macaque.http.request.MultipartFile;
 
+import java.util.List;
+
 public class ClassHotSwapRequest {
     private Integer pid;
 
@@ -11,6 +13,11 @@ public class ClassHotSwapRequest {
 
     private MultipartFile fileData;
 
+    /**
+     * 批量热加载, 多个同名的 files 表单项, 文件名取自表单项的 filename
+     */
+    private List<MultipartFile> files;
+
     public Integer getPid() {
         return pid;
     }
@@ -42,4 +49,12 @@ public class ClassHotSwapRequest {
     public void setFileName(String fileName) {
         this.fileName = fileName;
     }
+
+    public List<MultipartFile> getFiles() {
+        return files;
+    }
+
+    public void setFiles(List<MultipartFile> files) {
+        this.files = files;
+    }
 }
@@ -0,0 +1,46 @@
+package six.eared.macaque.server.http.body;
+
+/**
+ * 批量热加载多个进程, 文件参数和 {@link ClassHotSwapRequest} 相同, pid 参数不使用
+ */
+public class FleetHotSwapRequest extends ClassHotSwapRequest {
+
+    /**
+     * 多个pid用逗号分隔
+     */
+    private String pids;
+
+    /**
+     * 匹配进程名称的正则表达式, 和 pids 同时指定时取并集
+     */
+    private String processPattern;
+
+    /**
+     * 最多同时热加载的进程数, 为空时使用服务端配置
+     */
+    private Integer parallelism;
+
+    public String getPids() {
+        return pids;
+    }
+
+    public void setPids(String pids) {
+        this.pids = pids;
+    }
+
+    public String getProcessPattern() {
+        return processPattern;
+    }
+
+    public void setProcessPattern(String processPattern) {
+        this.processPattern = processPattern;
+    }
+
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+}
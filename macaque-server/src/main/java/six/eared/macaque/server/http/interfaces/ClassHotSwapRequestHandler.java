@@ -2,50 +2,147 @@ package six.eared.macaque.server.http.interfaces;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import six.eared.macaque.common.type.FileType;
+import six.eared.macaque.common.util.ClassBundle;
+import six.eared.macaque.common.util.ClassUtil;
+import six.eared.macaque.common.util.CollectionUtil;
 import six.eared.macaque.common.util.StringUtil;
 import six.eared.macaque.core.client.MacaqueClient;
 import six.eared.macaque.http.annotitions.Path;
 import six.eared.macaque.http.annotitions.RequestMethod;
 import six.eared.macaque.http.request.MultipartFile;
+import six.eared.macaque.mbean.rmi.ClasspathManifest;
 import six.eared.macaque.mbean.rmi.HotSwapRmiData;
 import six.eared.macaque.mbean.rmi.RmiResult;
+import six.eared.macaque.server.compiler.ServerCompileException;
+import six.eared.macaque.server.compiler.ServerCompiler;
 import six.eared.macaque.server.http.ServerHttpInterface;
 import six.eared.macaque.server.http.body.ClassHotSwapRequest;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
-@Path(value = "/hotSwap", method = RequestMethod.POST)
+@Path(value = "/hotSwap", method = RequestMethod.POST, maxConcurrency = 16)
 public class ClassHotSwapRequestHandler extends ServerHttpInterface<ClassHotSwapRequest> {
 
     private static final Logger log = LoggerFactory.getLogger(ClassHotSwapRequestHandler.class);
 
     private final MacaqueClient macaqueClient;
 
+    /**
+     * 不为空时java文件在服务端编译
+     */
+    private final ServerCompiler serverCompiler;
+
     public ClassHotSwapRequestHandler(MacaqueClient macaqueClient) {
+        this(macaqueClient, null);
+    }
+
+    public ClassHotSwapRequestHandler(MacaqueClient macaqueClient, ServerCompiler serverCompiler) {
         this.macaqueClient = macaqueClient;
+        this.serverCompiler = serverCompiler;
     }
 
     @Override
     public RmiResult process0(ClassHotSwapRequest dto) {
         Integer pid = dto.getPid();
         String fileType = dto.getFileType();
-        String fileName = dto.getFileName();
-        MultipartFile fileData = dto.getFileData();
 
-        if (pid == null
-                || StringUtil.isEmpty(fileType)
-                || fileData == null || fileData.getBytes() == null) {
+        if (pid == null || StringUtil.isEmpty(fileType)) {
             log.error("ClassHotSwap error, params not be null");
             return RmiResult.error("error");
         }
         try {
-            RmiResult result = macaqueClient.hotswap(pid, new HotSwapRmiData(fileName, fileType, fileData.getBytes(), new HashMap<>()));
+            HotSwapRmiData rmiData = buildRmiData(dto);
+            if (rmiData == null) {
+                return RmiResult.error("error");
+            }
+            if (serverCompiler != null && FileType.Java.match(fileType)) {
+                RmiResult classpath = macaqueClient.classpath(pid);
+                if (!classpath.isSuccess()) {
+                    return classpath;
+                }
+                rmiData = compileOnServer(serverCompiler, (ClasspathManifest) classpath.getData(), rmiData);
+            }
+            RmiResult result = macaqueClient.hotswap(pid, rmiData);
             log.info("ClassHotSwap pid:[{}] result:[{}]", pid, result);
             return result;
+        } catch (ServerCompileException e) {
+            log.error("server compile error: {}", e.getMessage());
+            return RmiResult.error(e.getMessage());
         } catch (Exception e) {
             log.error("hotswap error", e);
         }
         return RmiResult.error("attach error");
     }
+
+    /**
+     * 由请求中的单个文件或者批量文件构建热加载数据.
+     * 批量文件按包路径区分, 不同包中的同名文件不会互相覆盖
+     *
+     * @return 参数不合法(包括批量文件中有同一个包路径的文件)时返回null
+     */
+    static HotSwapRmiData buildRmiData(ClassHotSwapRequest dto) {
+        if (CollectionUtil.isNotEmpty(dto.getFiles())) {
+            Map<String, byte[]> files = new LinkedHashMap<>();
+            for (MultipartFile file : dto.getFiles()) {
+                if (StringUtil.isEmpty(file.getFileName()) || file.getBytes() == null) {
+                    log.error("ClassHotSwap error, batch file must have a file name");
+                    return null;
+                }
+                String path = packagePath(dto.getFileType(), file.getFileName(), file.getBytes());
+                if (files.putIfAbsent(path, file.getBytes()) != null) {
+                    log.error("ClassHotSwap error, duplicate file in batch: {}", path);
+                    return null;
+                }
+            }
+            return new HotSwapRmiData(dto.getFileType(), files, new HashMap<>());
+        }
+        MultipartFile fileData = dto.getFileData();
+        if (fileData == null || fileData.getBytes() == null) {
+            log.error("ClassHotSwap error, params not be null");
+            return null;
+        }
+        return new HotSwapRmiData(dto.getFileName(), dto.getFileType(), fileData.getBytes(), new HashMap<>());
+    }
+
+    /**
+     * 文件在包中的相对路径, 例如 com/example/Foo.java. 上传的文件名已经带路径时直接使用,
+     * 否则java文件从源码的包声明推导, class文件从字节码中的类名推导
+     */
+    static String packagePath(String fileType, String fileName, byte[] bytes) {
+        String path = fileName.replace('\\', '/');
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.indexOf('/') >= 0) {
+            return path;
+        }
+        if (FileType.Java.match(fileType)) {
+            String packageName = ClassUtil.readPackageName(new String(bytes, StandardCharsets.UTF_8));
+            return packageName.isEmpty() ? path : ClassUtil.className2path(packageName) + "/" + path;
+        }
+        if (FileType.Class.match(fileType)) {
+            String className = ClassUtil.readClassName(bytes);
+            return className == null ? path : className + ".class";
+        }
+        return path;
+    }
+
+    /**
+     * 在服务端编译, 替换成class文件的热加载请求
+     */
+    static HotSwapRmiData compileOnServer(ServerCompiler serverCompiler, ClasspathManifest manifest, HotSwapRmiData rmiData) {
+        if (!rmiData.isBatch() && StringUtil.isEmpty(rmiData.getFileName())) {
+            throw new ServerCompileException("file type is 'java', fileName must not be null");
+        }
+        Map<String, byte[]> sources = rmiData.isBatch() ? rmiData.getFiles()
+                : Collections.singletonMap(rmiData.getFileName(), rmiData.getFileData());
+        Map<String, byte[]> classes = serverCompiler.compile(manifest, sources);
+        return new HotSwapRmiData(FileType.Class.getType(), ClassBundle.write(classes), rmiData.getExtProperties());
+    }
 }
@@ -0,0 +1,128 @@
+package six.eared.macaque.server.http.interfaces;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import six.eared.macaque.common.type.FileType;
+import six.eared.macaque.common.util.StringUtil;
+import six.eared.macaque.core.client.FleetHotSwapResult;
+import six.eared.macaque.core.client.HotSwapDataProvider;
+import six.eared.macaque.core.client.MacaqueClient;
+import six.eared.macaque.http.annotitions.Path;
+import six.eared.macaque.http.annotitions.RequestMethod;
+import six.eared.macaque.mbean.rmi.ClasspathManifest;
+import six.eared.macaque.mbean.rmi.HotSwapRmiData;
+import six.eared.macaque.mbean.rmi.RmiResult;
+import six.eared.macaque.server.compiler.ServerCompileException;
+import six.eared.macaque.server.compiler.ServerCompiler;
+import six.eared.macaque.server.http.ServerHttpInterface;
+import six.eared.macaque.server.http.body.FleetHotSwapRequest;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 批量热加载多个进程, 按pid列表或者进程名称匹配目标进程, 并发attach和热加载
+ * <p>
+ * 服务端运行在JDK上时, java文件总是在服务端编译(不需要开启 serverCompile), classpath相同(指纹和java版本一致)的进程只编译一次.
+ * 服务端没有编译器时退化为每个进程各自编译.
+ * 每个请求有自己的线程池, 同时只处理两个批量请求.
+ */
+@Path(value = "/fleetHotSwap", method = RequestMethod.POST, maxConcurrency = 2, timeout = 600_000)
+public class FleetHotSwapRequestHandler extends ServerHttpInterface<FleetHotSwapRequest> {
+
+    private static final Logger log = LoggerFactory.getLogger(FleetHotSwapRequestHandler.class);
+
+    private final MacaqueClient macaqueClient;
+
+    /**
+     * 不为空时java文件在服务端编译, 只编译一次
+     */
+    private final ServerCompiler serverCompiler;
+
+    /**
+     * 默认的并发数
+     */
+    private final int parallelism;
+
+    public FleetHotSwapRequestHandler(MacaqueClient macaqueClient, ServerCompiler serverCompiler, int parallelism) {
+        this.macaqueClient = macaqueClient;
+        this.serverCompiler = serverCompiler;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public RmiResult process0(FleetHotSwapRequest dto) {
+        if (StringUtil.isEmpty(dto.getFileType())) {
+            log.error("FleetHotSwap error, params not be null");
+            return RmiResult.error("error");
+        }
+        Set<Integer> pids = new LinkedHashSet<>();
+        try {
+            if (StringUtil.isNotEmpty(dto.getPids())) {
+                for (String pid : dto.getPids().split(",")) {
+                    if (StringUtil.isNotEmpty(pid.trim())) {
+                        pids.add(Integer.valueOf(pid.trim()));
+                    }
+                }
+            }
+            if (StringUtil.isNotEmpty(dto.getProcessPattern())) {
+                pids.addAll(macaqueClient.findProcess(dto.getProcessPattern()));
+            }
+        } catch (NumberFormatException | PatternSyntaxException e) {
+            log.error("FleetHotSwap error, illegal pids or processPattern: {}", e.getMessage());
+            return RmiResult.error(e.getMessage());
+        }
+        if (pids.isEmpty()) {
+            return RmiResult.error("no process matched");
+        }
+
+        HotSwapRmiData rmiData = ClassHotSwapRequestHandler.buildRmiData(dto);
+        if (rmiData == null) {
+            return RmiResult.error("error");
+        }
+        HotSwapDataProvider provider = serverCompiler != null && FileType.Java.match(dto.getFileType())
+                ? compileOnce(rmiData) : pid -> rmiData;
+        int limit = dto.getParallelism() != null && dto.getParallelism() > 0 ? dto.getParallelism() : parallelism;
+
+        FleetHotSwapResult result = macaqueClient.hotswap(pids, provider, limit);
+        log.info("FleetHotSwap pids:[{}] parallelism:[{}] result:[{}]", pids, limit, result);
+        return result.isAllSuccess() ? RmiResult.success().data(result)
+                : new RmiResult(false, String.format("%d of %d process failed", result.getFailed(), result.getTotal())).data(result);
+    }
+
+    /**
+     * 每个进程取自己的classpath清单, 相同的classpath只编译一次, 其他进程等待编译结果
+     */
+    private HotSwapDataProvider compileOnce(HotSwapRmiData rmiData) {
+        Map<String, CompletableFuture<HotSwapRmiData>> compiled = new ConcurrentHashMap<>();
+        return pid -> {
+            RmiResult classpath = macaqueClient.classpath(pid);
+            if (!classpath.isSuccess()) {
+                throw new ServerCompileException(classpath.getMessage());
+            }
+            ClasspathManifest manifest = (ClasspathManifest) classpath.getData();
+            String key = ServerCompiler.environmentKey(manifest);
+            CompletableFuture<HotSwapRmiData> future = new CompletableFuture<>();
+            CompletableFuture<HotSwapRmiData> existing = compiled.putIfAbsent(key, future);
+            if (existing == null) {
+                try {
+                    future.complete(ClassHotSwapRequestHandler.compileOnServer(serverCompiler, manifest, rmiData));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            } else {
+                future = existing;
+            }
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        };
+    }
+}
@@ -2,6 +2,7 @@ package six.eared.macaque.server.http.interfaces;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
 import six.eared.macaque.core.jps.JavaProcessHolder;
 import six.eared.macaque.http.annotitions.Path;
 import six.eared.macaque.mbean.rmi.RmiResult;
@@ -30,4 +31,12 @@ public class JpsRequestHandler extends ServerHttpInterface<Object> {
         log.info("jps process:[{}]", javaProcess);
         return RmiResult.success().data(javaProcess);
     }
+
+    /**
+     * 只读取定时刷新的进程列表, 直接在IO线程中执行
+     */
+    @Override
+    protected Mono<Object> processAsync(Object n) {
+        return Mono.fromSupplier(() -> process0(n));
+    }
 }
@@ -7,8 +7,10 @@ import six.eared.macaque.core.client.MacaqueClient;
 import six.eared.macaque.http.HttpConfig;
 import six.eared.macaque.http.MacaqueHttpServer;
 import six.eared.macaque.http.handler.RequestHandler;
+import six.eared.macaque.server.compiler.ServerCompiler;
 import six.eared.macaque.server.config.ServerConfig;
 import six.eared.macaque.server.http.interfaces.ClassHotSwapRequestHandler;
+import six.eared.macaque.server.http.interfaces.FleetHotSwapRequestHandler;
 import six.eared.macaque.server.http.interfaces.JpsRequestHandler;
 
 import java.util.Arrays;
@@ -73,8 +75,12 @@ public class MacaqueServer implements MacaqueService {
      * @return http接口封装
      */
     private List<RequestHandler> buildInterface() {
+        ServerCompiler serverCompiler = new ServerCompiler();
+        // 批量热加载只要服务端有编译器就在服务端编译一次, 单进程热加载按配置决定
+        ServerCompiler fleetCompiler = serverCompiler.isPrepared() ? serverCompiler : null;
         return Arrays.asList(
-                new ClassHotSwapRequestHandler(this.macaqueClient),
+                new ClassHotSwapRequestHandler(this.macaqueClient, this.serverConfig.isServerCompile() ? serverCompiler : null),
+                new FleetHotSwapRequestHandler(this.macaqueClient, fleetCompiler, this.serverConfig.getFleetParallelism()),
                 new JpsRequestHandler()
         );
     }